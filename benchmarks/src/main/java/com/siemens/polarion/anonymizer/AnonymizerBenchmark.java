@@ -0,0 +1,152 @@
+/*
+ * Copyright 2016 Polarion AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.siemens.polarion.anonymizer;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import javax.imageio.ImageIO;
+
+import org.jetbrains.annotations.NotNull;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Anonymization of a work item and of a module (LiveDoc) XML file, with the DOM and with the streaming anonymizer. The work item has fields of every
+ * type handled by the anonymizer, the module a large rich text body. The referenced attachments are written by the first invocation only, later
+ * invocations find them claimed and measure the XML files alone.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class AnonymizerBenchmark {
+
+    @Param({ "workitem", "module" })
+    public String xml;
+
+    @Param({ "false", "true" })
+    public boolean streaming;
+
+    private File documentDirectory;
+    private File inputFile;
+    private Anonymizer anonymizer;
+
+    @Setup
+    public void setUp() throws IOException {
+        documentDirectory = Files.createTempDirectory("export").toFile(); //$NON-NLS-1$
+        inputFile = xml.equals("module") ? new File(documentDirectory, "module.xml") : new File(documentDirectory, "workitems/WI-1/workitem.xml"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        inputFile.getParentFile().mkdirs();
+        Files.write(inputFile.toPath(), (xml.equals("module") ? module() : workItem()).getBytes(StandardCharsets.UTF_8)); //$NON-NLS-1$
+        writePicture("attachments/pressure curve.png"); //$NON-NLS-1$
+        writePicture("workitems/WI-1/attachment1-sketch.png"); //$NON-NLS-1$
+        for (int i = 0; i < 500; i += 50) {
+            writePicture("attachments/diagram" + i + ".png"); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+        anonymizer = new Anonymizer(documentDirectory.getPath(), false, 1, streaming);
+    }
+
+    private void writePicture(@NotNull String path) throws IOException {
+        File picture = new File(documentDirectory, path);
+        picture.getParentFile().mkdirs();
+        ImageIO.write(new BufferedImage(64, 48, BufferedImage.TYPE_INT_RGB), "png", picture); //$NON-NLS-1$
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        for (File directory : new File[] { documentDirectory, new File(documentDirectory.getPath() + Anonymizer.anonymizedSuffix) }) {
+            if (directory.exists()) {
+                try (Stream<Path> paths = Files.walk(directory.toPath())) {
+                    for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                        Files.delete(path);
+                    }
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    public void anonymizeAndMoveXML() throws Exception {
+        anonymizer.anonymizeAndMoveXML(inputFile, documentDirectory.getPath());
+    }
+
+    @NotNull
+    private static String workItem() {
+        StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>\n<work-item>\n"); //$NON-NLS-1$
+        xml.append("    <field id=\"author\">jsmith</field>\n"); //$NON-NLS-1$
+        xml.append("    <field id=\"assignee\">anovak</field>\n"); //$NON-NLS-1$
+        xml.append("    <field id=\"title\">Brake pressure shall be monitored during the start of the engine</field>\n"); //$NON-NLS-1$
+        xml.append("    <field id=\"created\">2015-01-01 12:34:56.306 -0500</field>\n"); //$NON-NLS-1$
+        xml.append("    <field id=\"status\">draft</field>\n"); //$NON-NLS-1$
+        xml.append("    <field id=\"severity\" type=\"enum:@severity\">should_have</field>\n"); //$NON-NLS-1$
+        xml.append("    <field id=\"customer\" type=\"string\">Example Motors Ltd.</field>\n"); //$NON-NLS-1$
+        xml.append("    <field id=\"notes\" type=\"text\">Checked with the supplier on the second review.</field>\n"); //$NON-NLS-1$
+        xml.append("    <field id=\"count\" type=\"integer\">42</field>\n"); //$NON-NLS-1$
+        xml.append("    <field id=\"ratio\" type=\"float\">0.75</field>\n"); //$NON-NLS-1$
+        xml.append("    <field id=\"cost\" type=\"currency\">1250.50</field>\n"); //$NON-NLS-1$
+        xml.append("    <field id=\"rationale\" text-type=\"text/plain\">The pressure must not drop below the limit.</field>\n"); //$NON-NLS-1$
+        xml.append("    <field id=\"description\" text-type=\"text/html\">"); //$NON-NLS-1$
+        for (int i = 0; i < 10; i++) {
+            xml.append("&lt;p&gt;The controller reads sensor ").append(i).append(" every &lt;b&gt;10 ms&lt;/b&gt; and reports deviations.&lt;/p&gt;"); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+        xml.append("&lt;img src=\"attachment:pressure%20curve.png\"/&gt;&lt;img src=\"workitemimg:1-sketch.png\"/&gt;</field>\n"); //$NON-NLS-1$
+        xml.append("    <field id=\"linkedWorkItems\">\n"); //$NON-NLS-1$
+        for (int i = 0; i < 5; i++) {
+            xml.append("        <list><struct><item id=\"role\">relates_to</item><item id=\"workItem\">WI-").append(100 + i).append("</item></struct></list>\n"); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+        xml.append("    </field>\n</work-item>\n"); //$NON-NLS-1$
+        return xml.toString();
+    }
+
+    @NotNull
+    private static String module() {
+        StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>\n<module>\n"); //$NON-NLS-1$
+        xml.append("    <field id=\"author\">jsmith</field>\n"); //$NON-NLS-1$
+        xml.append("    <field id=\"title\">System Requirements Specification</field>\n"); //$NON-NLS-1$
+        xml.append("    <field id=\"status\" type=\"enum:@status\">draft</field>\n"); //$NON-NLS-1$
+        xml.append("    <field id=\"homePageContent\" text-type=\"text/html\">"); //$NON-NLS-1$
+        for (int i = 0; i < 500; i++) {
+            xml.append("&lt;h2 id=\"polarion_wiki macro name=module-workitem;params=id=WI-").append(i).append("\"&gt;&lt;/h2&gt;"); //$NON-NLS-1$ //$NON-NLS-2$
+            xml.append("&lt;p id=\"polarion_").append(i).append("\"&gt;Section ").append(i) //$NON-NLS-1$ //$NON-NLS-2$
+                    .append(" describes the behaviour of the system in the &lt;i&gt;degraded&lt;/i&gt; mode.&lt;/p&gt;"); //$NON-NLS-1$
+            if (i % 50 == 0) {
+                xml.append("&lt;img src=\"attachment:diagram").append(i).append(".png\" style=\"max-width: 100%;\"/&gt;"); //$NON-NLS-1$ //$NON-NLS-2$
+            }
+        }
+        xml.append("</field>\n</module>\n"); //$NON-NLS-1$
+        return xml.toString();
+    }
+
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2016 Polarion AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.siemens.polarion.anonymizer;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.jetbrains.annotations.NotNull;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Reading and copying of input files from 1 KB to 1 GB: a buffered stream against {@link MappedInputStream#open(File)}, which maps files above its
+ * threshold, and {@link Files#copy} against {@link FileUtils#copy(File, File)}, which transfers large files with <code>transferTo</code>. The
+ * throughput in bytes per second is the number of operations per second times the size.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class MappedInputBenchmark {
+
+    @Param({ "1024", "1048576", "67108864", "1073741824" })
+    public long size;
+
+    private File input;
+    private File copy;
+    private final byte[] buffer = new byte[8192];
+
+    @Setup
+    public void setUp() throws IOException {
+        input = File.createTempFile("input", ".bin"); //$NON-NLS-1$ //$NON-NLS-2$
+        copy = new File(input.getPath() + ".copy"); //$NON-NLS-1$
+        byte[] block = new byte[1024 * 1024];
+        new Random(42).nextBytes(block);
+        try (RandomAccessFile out = new RandomAccessFile(input, "rw")) { //$NON-NLS-1$
+            for (long position = 0; position < size; position += block.length) {
+                out.write(block, 0, (int) Math.min(block.length, size - position));
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(input.toPath());
+        Files.deleteIfExists(copy.toPath());
+    }
+
+    @Benchmark
+    public long readBuffered() throws IOException {
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(input.toPath()))) {
+            return read(in);
+        }
+    }
+
+    @Benchmark
+    public long readMapped() throws IOException {
+        try (InputStream in = MappedInputStream.open(input)) {
+            return read(in);
+        }
+    }
+
+    @Benchmark
+    public void copyFiles() throws IOException {
+        Files.copy(input.toPath(), copy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    @Benchmark
+    public void copyTransfer() throws IOException {
+        FileUtils.copy(input, copy);
+    }
+
+    // reads in blocks like the XML parsers
+    private long read(@NotNull InputStream in) throws IOException {
+        long count = 0;
+        int n;
+        while ((n = in.read(buffer, 0, buffer.length)) >= 0) {
+            count += n;
+        }
+        return count;
+    }
+
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2016 Polarion AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.siemens.polarion.anonymizer;
+
+import java.awt.image.BufferedImage;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Filling of pictures with random blocks at several resolutions. Pictures with integer pixels are filled directly in their data buffer, the
+ * <code>bgr</code> type goes through the generic path of the randomizer.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PictureRandomizerBenchmark {
+
+    @Param({ "64x64", "640x480", "1920x1080", "4000x3000" })
+    public String resolution;
+
+    @Param({ "rgb", "argb", "bgr" })
+    public String type;
+
+    private BufferedImage image;
+    private SplittableRandom random;
+
+    @Setup
+    public void setUp() {
+        String[] size = resolution.split("x"); //$NON-NLS-1$
+        int imageType = type.equals("argb") ? BufferedImage.TYPE_INT_ARGB : type.equals("bgr") ? BufferedImage.TYPE_3BYTE_BGR : BufferedImage.TYPE_INT_RGB; //$NON-NLS-1$ //$NON-NLS-2$
+        image = new BufferedImage(Integer.parseInt(size[0]), Integer.parseInt(size[1]), imageType);
+        random = new SplittableRandom(42);
+    }
+
+    @Benchmark
+    public BufferedImage fillImageContent() {
+        return PictureRandomizer.fillImageContent(image, random);
+    }
+
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright 2016 Polarion AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.siemens.polarion.anonymizer;
+
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.jetbrains.annotations.NotNull;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Randomization of plain text, rich text and file names of different lengths. The mix gives the characters of the input: <code>ascii</code> words,
+ * <code>accented</code> Latin words which are deaccented, <code>mixed</code> text with digits, punctuation and Cyrillic and CJK characters.
+ * <p>
+ * <code>plainTextRandomizeBaseline</code> deaccents the text like <code>plainTextRandomize</code> and replaces its chars like the tool did before the
+ * char class table, by scanning the letter and digit arrays and drawing every char from a shared {@link Random}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TextRandomizerBenchmark {
+    @NotNull
+    private static final String ASCII = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ"; //$NON-NLS-1$
+    @NotNull
+    private static final String ACCENTED = "aáäbcčdďeéěfghiíjklľĺmnňoóôpqrřsštťuúůvwxyýzžAÁÄČĎÉÖÜß"; //$NON-NLS-1$
+    @NotNull
+    private static final String MIXED = "abcXYZ0123456789.,;:-+/()!?#%абвгдеёжзийк漢字仮名文字"; //$NON-NLS-1$
+
+    @Param({ "16", "256", "4096" })
+    public int length;
+
+    @Param({ "ascii", "accented", "mixed" })
+    public String mix;
+
+    private TextRandomizer textRandomizer;
+    private String plainText;
+    private String richText;
+    private String fileName;
+
+    @Setup
+    public void setUp() {
+        textRandomizer = new TextRandomizer();
+        textRandomizer.useRandom(new SplittableRandom(42));
+        Random random = new Random(length);
+        plainText = text(random, length);
+        StringBuilder html = new StringBuilder();
+        // paragraphs of the text with inline markup, attributes and references like in the exported descriptions
+        while (html.length() < length) {
+            html.append("<p style=\"margin: 0px;\">").append(text(random, 40)).append(" <b>").append(text(random, 12)).append("</b> ") //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+                    .append("<img src=\"attachment:").append(text(random, 8).replace(' ', '_')).append(".png\"/></p>"); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+        richText = html.toString();
+        fileName = text(random, Math.min(length, 200)).replace(' ', '_') + ".docx"; //$NON-NLS-1$
+    }
+
+    @NotNull
+    private String text(@NotNull Random random, int textLength) {
+        String chars = mix.equals("accented") ? ACCENTED : mix.equals("mixed") ? MIXED : ASCII; //$NON-NLS-1$ //$NON-NLS-2$
+        StringBuilder text = new StringBuilder(textLength);
+        while (text.length() < textLength) {
+            if (text.length() > 0 && random.nextInt(7) == 0) {
+                text.append(' ');
+            } else {
+                text.append(chars.charAt(random.nextInt(chars.length())));
+            }
+        }
+        return text.toString();
+    }
+
+    @Benchmark
+    public String plainTextRandomize() {
+        return textRandomizer.plainTextRandomize(plainText);
+    }
+
+    @Benchmark
+    public String plainTextRandomizeBaseline() {
+        return Baseline.plainTextRandomize(plainText);
+    }
+
+    @Benchmark
+    public String richTextRandomize() {
+        return textRandomizer.richTextRandomize(richText);
+    }
+
+    @Benchmark
+    public String fileNameRandomize() {
+        return textRandomizer.fileNameRandomize(fileName);
+    }
+
+    // replacement of chars before the char class table and the bulk random draws
+    private static final class Baseline {
+        @NotNull
+        private static final Random rnd = new Random();
+        @NotNull
+        private static final char[] letterChars = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz".toCharArray(); //$NON-NLS-1$
+        @NotNull
+        private static final char[] numberChars = "0123456789".toCharArray(); //$NON-NLS-1$
+
+        // the text is deaccented like by the tool, so only the replacement of the chars differs
+        @NotNull
+        private static final ThreadLocal<TextBuffer> deaccented = ThreadLocal.withInitial(() -> new TextBuffer());
+
+        @NotNull
+        static String plainTextRandomize(@NotNull String input) {
+            TextBuffer text = deaccented.get();
+            TextRandomizer.deaccent(input, text);
+            StringBuilder output = new StringBuilder();
+            for (int i = 0; i < text.length(); i++) {
+                output.append(replaceChar(text.charAt(i), true));
+            }
+            return output.toString();
+        }
+
+        private static char replaceChar(char character, boolean replaceNumbers) {
+            if (containsChar(letterChars, character)) {
+                return letterChars[rnd.nextInt(letterChars.length)];
+            } else if (replaceNumbers && containsChar(numberChars, character)) {
+                return numberChars[rnd.nextInt(numberChars.length)];
+            } else if (Character.isLetter(character)) {
+                return 'W';
+            } else {
+                return character;
+            }
+        }
+
+        private static boolean containsChar(@NotNull char[] charArray, char testChar) {
+            for (char element : charArray) {
+                if (element == testChar) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+}
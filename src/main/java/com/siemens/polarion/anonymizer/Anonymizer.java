@@ -17,12 +17,16 @@ package com.siemens.polarion.anonymizer;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
+import java.nio.file.Files;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
+import java.util.Locale;
 import java.util.Map;
-import java.util.function.Function;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiFunction;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -31,26 +35,56 @@ import javax.xml.parsers.ParserConfigurationException;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
 import org.xml.sax.SAXException;
 
+import com.siemens.polarion.anonymizer.TextRandomizer.TextRule;
+
 @SuppressWarnings("nls")
 public class Anonymizer {
     @NotNull
-    private List<File> attachmentList = new ArrayList<File>();
+    private final AttachmentRegistry attachments = new AttachmentRegistry();
     private TextRandomizer textRandomizer;
+    @NotNull
+    private TextRule plainTextRule = (input, output) -> textRandomizer.plainTextRandomize(input, output);
+    @NotNull
+    private final TextRule richTextRule = (input, output) -> textRandomizer.richTextRandomize(input, output);
     private String documentDirectory;
     private boolean verbose;
+    private int threads = 1;
+    private int pictureThreads = 1;
+    private boolean streaming;
+    private boolean resume;
+    private boolean manifest;
+    @Nullable
+    private String deltaDirectory;
+    @Nullable
+    private Manifest previousManifest;
+    // set while an archive is anonymized, the referenced attachments are written by it after all XML files
+    @Nullable
+    private ArchiveAnonymizer archive;
+    @NotNull
+    private RandomSource randomSource = new RandomSource(RandomSource.newSeed());
+    @NotNull
+    private AttachmentWriter attachmentWriter;
+    @NotNull
+    private final LongAdder xmlParseTime = new LongAdder();
+    @NotNull
+    private final LongAdder xmlSerializationTime = new LongAdder();
+    @NotNull
+    private final LongAdder xmlStreamingTime = new LongAdder();
     @NotNull
     private static Logger log = LogManager.getLogger(Anonymizer.class);
     @NotNull
     final public static String anonymizedSuffix = "_anonymized";
     @NotNull
     final private static Pattern patternForFindingAttachments = Pattern.compile("(src=\")(attachment:|workitemimg:(\\d+-))([^\"]*)(\")");
-    private static Map<String, String> attachmentRandomizationMap = new HashMap<String, String>();
+    // null when repeated values are randomized again every time, the cache is used only when its size is given
+    @Nullable
+    private PseudonymCache pseudonyms;
 
     protected Anonymizer(String documentDirectory, boolean verbose) {
         textRandomizer = new TextRandomizer();
@@ -60,235 +94,563 @@ public class Anonymizer {
             throw new IllegalArgumentException("Directory with data was not defined.");
         }
         this.verbose = verbose;
+        attachmentWriter = new AttachmentWriter(verbose, randomSource, documentDirectory);
+    }
 
+    protected Anonymizer(String documentDirectory, boolean verbose, int threads, boolean streaming) {
+        this(documentDirectory, verbose);
+        this.threads = threads;
+        this.streaming = streaming;
     }
 
-    private void run() throws IOException, ParserConfigurationException, SAXException, Exception {
+    protected Anonymizer(@NotNull AnonymizerParams params) throws IOException {
+        this(params.documentDirectory, params.verbose, params.threads, params.streaming);
+        resume = params.resume;
+        manifest = params.manifest;
+        deltaDirectory = params.deltaDirectory;
+        if (deltaDirectory != null) {
+            File manifestFile = Manifest.getFile(deltaDirectory);
+            if (!manifestFile.exists()) {
+                throw new IOException("Delta run is not possible, manifest \"" + manifestFile + "\" of the previous run does not exist.");
+            }
+            previousManifest = Manifest.read(manifestFile);
+        }
+        // a resumed or delta run is given the seed or the key of the previous run, the journal and the manifest contain only their fingerprints
+        Long seed = params.seed;
+        if (seed != null || params.key != null) {
+            randomSource = new RandomSource(seed != null ? seed.longValue() : randomSource.getSeed(), params.key != null ? new KeyedHash(params.key) : null);
+        }
+        if (randomSource.isKeyed()) {
+            plainTextRule = keyedRule(RandomSource.PLAIN_TEXT, plainTextRule);
+        }
+        long pictureMemory = params.pictureMemoryMegabytes > 0 ? params.pictureMemoryMegabytes * 1024L * 1024L : AttachmentWriter.getDefaultPictureMemory();
+        attachmentWriter = new AttachmentWriter(params.verbose, randomSource, documentDirectory, params.placeholders, params.placeholderHeaderLength, params.pictureThreads, pictureMemory);
+        pictureThreads = params.pictureThreads;
+        pseudonyms = params.pseudonymCacheSize > 0 ? new PseudonymCache(params.pseudonymCacheSize) : null;
+    }
+
+    void run() throws IOException, ParserConfigurationException, SAXException, Exception {
         log.info("Polarion data anonymizer"); //$NON-NLS-1$
+        PictureRandomizer.resetStatistics();
         if (!(new File(documentDirectory).exists())) {
             throw new IOException("Directory with Polarion data does not exists!");
         }
 
-        String anonymizedDirectory = documentDirectory + anonymizedSuffix;
-        if (new File(anonymizedDirectory).exists()) {
-            throw new IOException("Directory \"" + anonymizedDirectory + "\" where anonymized data will be placed already exists, remove it please.");
-        } else {
-            if (!new File(anonymizedDirectory).mkdirs()) {
-                throw new IOException("Directory \"" + anonymizedDirectory + "\" where anonymized data will be placed cannot be created.");
+        boolean archiveMode = ArchiveAnonymizer.isArchive(documentDirectory);
+        String output = archiveMode ? ArchiveAnonymizer.getOutputFile(documentDirectory).getPath() : documentDirectory + anonymizedSuffix;
+        if (archiveMode) {
+            if (resume || manifest) {
+                throw new IOException("Parameters --resume, --manifest and --delta are not supported for archives.");
+            }
+            if (new File(output).exists()) {
+                throw new IOException("Archive \"" + output + "\" where anonymized data will be placed already exists, remove it please.");
             }
+            log.info("Input archive: " + documentDirectory); //$NON-NLS-1$
+        } else {
+            log.info("Input directory: " + documentDirectory); //$NON-NLS-1$
+        }
+        if (randomSource.isKeyed()) {
+            log.info("Random data are derived from the key."); //$NON-NLS-1$
+        } else if (verbose) {
+            // the seed lets anyone confirm guessed original values, it is not written to logs which are shared with the output
+            log.debug("Random seed: " + randomSource.getSeed()); //$NON-NLS-1$
+        }
+        if (attachmentWriter.isPlaceholders()) {
+            log.info("Attachments other than pictures are written as placeholders."); //$NON-NLS-1$
         }
 
-        log.info("Input directory: " + documentDirectory); //$NON-NLS-1$
+        if (archiveMode) {
+            anonymizeArchive(new File(output));
+        } else {
+            anonymizeDirectory(output);
+        }
+        PictureRandomizer.logStatistics();
+        if (pseudonyms != null) {
+            log.info("Pseudonym cache: " + pseudonyms.getHitCount() + " hits, " + pseudonyms.getMissCount() + " misses, " + pseudonyms.getEvictionCount() //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+                    + " evictions"); //$NON-NLS-1$
+        }
 
-        attachmentList.addAll(FileUtils.findNonXMLFiles(documentDirectory + "/attachments"));
-        attachmentList.addAll(FileUtils.findNonXMLFiles(documentDirectory + "/workitems"));
+        log.info("--------------------------------"); //$NON-NLS-1$
+        log.info("Anonymization of Polarion data finished."); //$NON-NLS-1$
+        log.info((archiveMode ? "Output archive: " : "Output Directory: ") + output); //$NON-NLS-1$ //$NON-NLS-2$
 
-        log.info("Attachment count: " + attachmentList.size()); //$NON-NLS-1$
+    }
+
+    // the entries are read once and the output archive is written while they are read
+    private void anonymizeArchive(@NotNull File outputArchive) throws Exception {
+        if (threads > 1) {
+            log.info("Worker threads: " + threads); //$NON-NLS-1$
+        }
+        log.info("Working..."); //$NON-NLS-1$
+        ArchiveAnonymizer archiveAnonymizer = new ArchiveAnonymizer(this, documentDirectory, attachmentWriter, threads);
+        archive = archiveAnonymizer;
+        try {
+            archiveAnonymizer.anonymize(outputArchive);
+        } finally {
+            archive = null;
+            attachmentWriter.close();
+        }
+        log.info("XML files count: " + archiveAnonymizer.getXmlCount() + ", attachment count: " + archiveAnonymizer.getAttachmentCount()); //$NON-NLS-1$ //$NON-NLS-2$
+        logXmlTimes(archiveAnonymizer.getXmlCount());
+        log.info("Attachments referenced from XML files: " + archiveAnonymizer.getReferencedCount() + ", not referenced: " //$NON-NLS-1$ //$NON-NLS-2$
+                + (archiveAnonymizer.getAttachmentCount() - archiveAnonymizer.getReferencedCount()) + ", referenced but missing: " + archiveAnonymizer.getMissingCount()); //$NON-NLS-1$
+        log.info("Archive entries compressed: " + archiveAnonymizer.getCompressedCount() + ", stored: " + archiveAnonymizer.getStoredCount()); //$NON-NLS-1$ //$NON-NLS-2$
+        if (archiveAnonymizer.getSkippedCount() > 0) {
+            log.info("Other files which were not copied: " + archiveAnonymizer.getSkippedCount()); //$NON-NLS-1$
+        }
+    }
+
+    private void anonymizeDirectory(@NotNull String anonymizedDirectory) throws Exception {
+        // a delta run against the output directory itself updates it in place
+        boolean inPlace = deltaDirectory != null && DeltaRun.isSameDirectory(deltaDirectory, anonymizedDirectory);
+        if (resume) {
+            if (!CheckpointJournal.getFile(anonymizedDirectory).exists()) {
+                throw new IOException("Run cannot be resumed, journal \"" + CheckpointJournal.getFile(anonymizedDirectory) + "\" does not exist.");
+            }
+        } else if (!inPlace && new File(anonymizedDirectory).exists()) {
+            throw new IOException("Directory \"" + anonymizedDirectory + "\" where anonymized data will be placed already exists, remove it please.");
+        }
+        if (!new File(anonymizedDirectory).mkdirs() && !new File(anonymizedDirectory).isDirectory()) {
+            throw new IOException("Directory \"" + anonymizedDirectory + "\" where anonymized data will be placed cannot be created.");
+        }
+
+        ArrayList<File> attachmentFiles = FileUtils.findNonXMLFiles(documentDirectory + "/attachments");
+        attachmentFiles.addAll(FileUtils.findNonXMLFiles(documentDirectory + "/workitems"));
+        attachments.registerAll(attachmentFiles);
+
+        log.info("Attachment count: " + attachments.size()); //$NON-NLS-1$
 
         //randomization of XML files
         ArrayList<File> xmlList = FileUtils.findXMLFiles(documentDirectory);
         log.info("XML files count: " + xmlList.size()); //$NON-NLS-1$
-        log.info("Working..."); //$NON-NLS-1$
+        if (threads > 1) {
+            log.info("Worker threads: " + threads); //$NON-NLS-1$
+        }
+        if (pictureThreads > 1) {
+            log.info("Picture threads: " + pictureThreads + ", picture memory: " + attachmentWriter.getPictureMemory() / (1024 * 1024) + " MB"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        }
 
-        for (File xmlFile : xmlList) {
-            if (verbose) {
-                log.info("FILE: " + xmlFile.getAbsolutePath()); //$NON-NLS-1$
+        final DeltaRun deltaRun = manifest ? new DeltaRun(documentDirectory, anonymizedDirectory, deltaDirectory, previousManifest, randomSource) : null;
+        if (deltaRun != null) {
+            long scanStart = System.nanoTime();
+            ArrayList<File> sources = new ArrayList<File>(xmlList);
+            sources.addAll(attachmentFiles);
+            deltaRun.scan(sources, threads);
+            log.info("Sources hashed for the manifest in " + formatMillis(System.nanoTime() - scanStart)); //$NON-NLS-1$
+            if (deltaDirectory != null) {
+                log.info("Delta against the previous run: " + deltaDirectory); //$NON-NLS-1$
+            }
+        }
+
+        // the progress is recorded, so an interrupted run can be resumed
+        try (CheckpointJournal journal = resume ? CheckpointJournal.resume(documentDirectory, anonymizedDirectory, randomSource)
+                : CheckpointJournal.create(documentDirectory, anonymizedDirectory, randomSource)) {
+            log.info("Working..."); //$NON-NLS-1$
+            // pictures are randomized by their own pool while the XML files and the other attachments are processed
+            try (AttachmentWriter writer = attachmentWriter) {
+                writer.setJournal(journal);
+                writer.setDeltaRun(deltaRun);
+                if (resume) {
+                    resumeAttachments(writer, journal);
+                }
+                AtomicInteger carriedXmlCount = new AtomicInteger();
+                try (WorkerPool pool = new WorkerPool(threads, "xml-anonymizer")) { //$NON-NLS-1$
+                    for (File xmlFile : xmlList) {
+                        if (resume && journal.isXmlCompleted(xmlFile)) {
+                            continue;
+                        }
+                        pool.submit(() -> {
+                            File outputFile = getOutputFile(xmlFile, documentDirectory);
+                            if (deltaRun != null && deltaRun.carryForward(xmlFile, outputFile)) {
+                                carriedXmlCount.incrementAndGet();
+                            } else {
+                                if (verbose) {
+                                    log.info("FILE: " + xmlFile.getAbsolutePath()); //$NON-NLS-1$
+                                }
+                                anonymizeAndMoveXML(xmlFile, documentDirectory);
+                            }
+                            if (deltaRun != null) {
+                                deltaRun.written(xmlFile, outputFile);
+                            }
+                            journal.xmlWritten(xmlFile);
+                        });
+                    }
+                    pool.awaitCompletion();
+                }
+                logXmlTimes(xmlList.size() - journal.getCompletedXmlCount() - carriedXmlCount.get());
+
+                //randomization of names of other attachments and their moving to new directory
+                log.info("Attachments referenced from XML files: " + attachments.getReferencedCount() + ", not referenced: " + attachments.getOrphanedCount() //$NON-NLS-1$ //$NON-NLS-2$
+                        + ", referenced but missing: " + attachments.getMissingCount()); //$NON-NLS-1$
+                if (deltaRun != null) {
+                    // the references in carried forward XML files are not visited, so the attachments keep the names of the previous run
+                    for (File attachmentFile : attachments.getUnclaimed()) {
+                        File previousOutput = deltaRun.getPreviousOutput(attachmentFile);
+                        if (previousOutput != null && attachments.claim(attachmentFile)) {
+                            FileUtils.tryToCreateDirForFile(previousOutput);
+                            writer.write(attachmentFile, previousOutput);
+                        }
+                    }
+                }
+                for (File attachmentFile : attachments.getUnclaimed()) {
+                    File newFile = getUnreferencedOutputFile(attachmentFile);
+                    FileUtils.renameAndRandomizeFile(writer, attachmentFile.getParent(), attachmentFile.getName(), newFile.getParent(), newFile.getName());
+                }
+                writer.awaitCompletion();
             }
-            anonymizeAndMoveXML(xmlFile, documentDirectory);
+            if (deltaRun != null) {
+                deltaRun.finish();
+                log.info("Manifest: " + Manifest.getFile(anonymizedDirectory)); //$NON-NLS-1$
+                if (deltaDirectory != null) {
+                    log.info("Delta run: " + deltaRun.getCarriedCount() + " files carried forward, " + deltaRun.getWrittenCount() + " anonymized, " //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+                            + deltaRun.getRemovedCount() + " outputs of removed files deleted"); //$NON-NLS-1$
+                }
+            }
+            journal.finish();
         }
+    }
 
-        //randomization of names of other attachments and their moving to new directory
-        for (File attachmentFile : attachmentList) {
-            FileUtils.renameAndCopyFile(attachmentFile.getParent(),
-                    attachmentFile.getName(),
-                    attachmentFile.getParent().substring(0, documentDirectory.length()) + anonymizedSuffix + "/" + attachmentFile.getParent().substring(documentDirectory.length() + 1), //$NON-NLS-1$
-                    textRandomizer.fileNameRandomize(attachmentFile.getName()));
+    // attachments claimed by the interrupted run keep their names, the ones which were not completely written are written again
+    private void resumeAttachments(@NotNull AttachmentWriter writer, @NotNull CheckpointJournal journal) throws IOException {
+        int rewritten = 0;
+        for (Map.Entry<File, File> entry : journal.getClaimedAttachments().entrySet()) {
+            File originalFile = entry.getKey();
+            attachments.claim(originalFile);
+            if (!journal.isAttachmentWritten(originalFile)) {
+                FileUtils.tryToCreateDirForFile(entry.getValue());
+                writer.write(originalFile, entry.getValue());
+                rewritten++;
+            }
         }
+        log.info("Resumed run: " + journal.getCompletedXmlCount() + " XML files and " + journal.getWrittenAttachmentCount() + " attachments were already written, " //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+                + rewritten + " attachments are written again."); //$NON-NLS-1$
+    }
 
-        //randomization of attachments files
-        FileUtils.randomizeFilesContent(anonymizedDirectory, verbose);
+    static @NotNull File getOutputFile(@NotNull File inputFile, @NotNull String documentDirectory) {
+        return new File(documentDirectory + anonymizedSuffix + "/" + inputFile.getParent().substring(documentDirectory.length()) + "/" + inputFile.getName()); //$NON-NLS-1$ //$NON-NLS-2$
+    }
 
-        log.info("--------------------------------"); //$NON-NLS-1$
-        log.info("Anonymization of Polarion data finished."); //$NON-NLS-1$
-        log.info("Output Directory: " + anonymizedDirectory); //$NON-NLS-1$
+    // attachments which are not referenced from any XML file get a name derived from their path
+    @NotNull
+    File getUnreferencedOutputFile(@NotNull File attachmentFile) {
+        String newName = textRandomizer.fileNameRandomize(attachmentFile.getName(), randomSource.stream(RandomSource.FILE_NAME, FileUtils.getRelativePath(documentDirectory, attachmentFile)));
+        return new File(attachmentFile.getParent().substring(0, documentDirectory.length()) + anonymizedSuffix + "/" + attachmentFile.getParent().substring(documentDirectory.length() + 1), //$NON-NLS-1$
+                newName);
+    }
+
+    void anonymizeAndMoveXML(@NotNull File inputFile, @NotNull String documentDirectory) throws Exception {
+        File outputFile = getOutputFile(inputFile, documentDirectory);
+        FileUtils.tryToCreateDirForFile(outputFile);
+        try (InputStream in = MappedInputStream.open(inputFile); OutputStream out = Files.newOutputStream(outputFile.toPath())) {
+            anonymizeXML(inputFile, documentDirectory, in, out);
+        }
+    }
 
+    /**
+     * Anonymizes an XML file read from a stream, e.g. an entry of an archive. The input file gives the path of the file in the document directory,
+     * it does not need to exist.
+     */
+    void anonymizeXML(@NotNull File inputFile, @NotNull String documentDirectory, @NotNull InputStream in, @NotNull OutputStream out) throws Exception {
+        anonymizeXML(inputFile, documentDirectory, in, out, streaming);
     }
 
-    private void anonymizeAndMoveXML(@NotNull File inputFile, @NotNull String documentDirectory) throws Exception {
-        File outputFile = new File(documentDirectory + anonymizedSuffix + "/" + inputFile.getParent().substring(documentDirectory.length()) + "/" + inputFile.getName()); //$NON-NLS-1$ //$NON-NLS-2$
-        Document doc = FileUtils.createDocFromFile(inputFile);
-        NodeList nList = doc.getElementsByTagName("field"); //$NON-NLS-1$
-        for (int temp = 0; temp < nList.getLength(); temp++) {
-            Node nNode = nList.item(temp);
-            if (verbose) {
-                log.info("Current Element: " + nNode.getNodeName()); //$NON-NLS-1$
-            }
-            Element eElement = (Element) nNode;
+    /**
+     * Same as {@link #anonymizeXML(File, String, InputStream, OutputStream)}, the file is streamed when <code>stream</code> is set regardless of
+     * --streaming, e.g. an entry of an archive too large to be held in memory.
+     */
+    void anonymizeXML(@NotNull File inputFile, @NotNull String documentDirectory, @NotNull InputStream in, @NotNull OutputStream out, boolean stream)
+            throws Exception {
+        // the text of every file is drawn from the stream of the file, so the output does not depend on the thread processing it
+        textRandomizer.useRandom(randomSource.stream(RandomSource.XML, FileUtils.getRelativePath(documentDirectory, inputFile)));
+        if (stream) {
+            long start = System.nanoTime();
+            new XmlStreamAnonymizer(this, inputFile, documentDirectory).anonymize(in, out);
+            long streamingTime = System.nanoTime() - start;
+            xmlStreamingTime.add(streamingTime);
             if (verbose) {
-                log.info("Current Element ID: " + eElement.getAttribute("id")); //$NON-NLS-1$ //$NON-NLS-2$
+                log.info("Streaming time: " + formatMillis(streamingTime)); //$NON-NLS-1$
             }
-            String textType = eElement.getAttribute("text-type"); //$NON-NLS-1$
-            if (verbose) {
-                log.info("Text type: " + textType); //$NON-NLS-1$
+            return;
+        }
+        long parseStart = System.nanoTime();
+        Document doc = XmlCodec.parse(in);
+        long parseTime = System.nanoTime() - parseStart;
+        anonymizeTree(inputFile, documentDirectory, doc.getDocumentElement());
+        long serializationStart = System.nanoTime();
+        XmlCodec.write(doc, out);
+        long serializationTime = System.nanoTime() - serializationStart;
+        xmlParseTime.add(parseTime);
+        xmlSerializationTime.add(serializationTime);
+        if (verbose) {
+            log.info("Parse time: " + formatMillis(parseTime) + ", serialization time: " + formatMillis(serializationTime)); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+    }
+
+    private void logXmlTimes(int xmlFileCount) {
+        if (xmlFileCount == 0) {
+            return;
+        }
+        if (streaming) {
+            log.info("XML streaming time: " + formatMillis(xmlStreamingTime.sum()) + " (" + formatMillis(xmlStreamingTime.sum() / xmlFileCount) + " per file)"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        } else {
+            log.info("XML parse time: " + formatMillis(xmlParseTime.sum()) + " (" + formatMillis(xmlParseTime.sum() / xmlFileCount) + " per file)"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+            log.info("XML serialization time: " + formatMillis(xmlSerializationTime.sum()) + " (" + formatMillis(xmlSerializationTime.sum() / xmlFileCount) + " per file)"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+            if (xmlStreamingTime.sum() > 0) {
+                // large entries of archives
+                log.info("XML streaming time: " + formatMillis(xmlStreamingTime.sum())); //$NON-NLS-1$
             }
-            //randomization of "author", "title", "assignee" fields
-            randomizeAuthorTitleAssigneeFields(eElement);
-            //randomization of text in fields with text-type="text/html"
-            randomizeHtmlFields(eElement);
-            //randomization of other text-type fields
-            randomizeOtherTextFields(eElement);
-            //randomization of fields with type="text", "string", "integer", "float" or type="currency"
-            randomizeTextStringIntegerFloatCurrencyFields(eElement);
-            //randomization of fields with type="enum:@..."
-            randomizeEnumFields(eElement);
         }
-        //randomization of attachments in XMLs
-        randomizeXmlAttachment(inputFile, documentDirectory, doc);
-        //randomization of "text/html" item fields
-        randomizeTextHtmlItems(doc);
+    }
 
-        FileUtils.createFileFromDoc(outputFile, doc);
+    @NotNull
+    private static String formatMillis(long nanos) {
+        return String.format(Locale.ENGLISH, "%.3f ms", nanos / 1_000_000.0); //$NON-NLS-1$
+    }
+
+    // one walk over the element tree, every element is classified once and all rules for it are applied during the visit
+    void anonymizeTree(@NotNull File inputFile, @NotNull String documentDirectory, @NotNull Element root) throws IOException {
+        visitElement(inputFile, documentDirectory, root, null);
     }
 
-    private void randomizeTextHtmlItems(@NotNull Document doc) {
-        NodeList nList;
-        nList = doc.getElementsByTagName("item"); //$NON-NLS-1$
-        for (int temp = 0; temp < nList.getLength(); temp++) {
-            Node nNode = nList.item(temp);
-            Element eElement = (Element) nNode;
-            if ("text/html".equals(eElement.getAttribute("text-type"))) {
-                randomizeRichTextElement(eElement);
+    private void visitChildren(@NotNull File inputFile, @NotNull String documentDirectory, @NotNull Element element, @Nullable ItemRule enclosingRule) throws IOException {
+        for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child.getNodeType() == Node.ELEMENT_NODE) {
+                visitElement(inputFile, documentDirectory, (Element) child, enclosingRule);
             }
         }
     }
 
-    private void randomizeRichTextElement(@NotNull Element eElement) {
-        randomizeTextElement(eElement, value -> textRandomizer.richTextRandomize(value));
+    private void visitElement(@NotNull File inputFile, @NotNull String documentDirectory, @NotNull Element element, @Nullable ItemRule enclosingRule) throws IOException {
+        String name = element.getTagName();
+        if ("field".equals(name)) { //$NON-NLS-1$
+            visitField(inputFile, documentDirectory, element, enclosingRule);
+        } else if ("item".equals(name)) { //$NON-NLS-1$
+            visitItem(inputFile, documentDirectory, element, enclosingRule);
+        } else {
+            visitChildren(inputFile, documentDirectory, element, enclosingRule);
+        }
     }
 
-    private void randomizePlainTextElement(@NotNull Element eElement) {
-        randomizeTextElement(eElement, value -> textRandomizer.plainTextRandomize(value));
+    private void visitField(@NotNull File inputFile, @NotNull String documentDirectory, @NotNull Element field, @Nullable ItemRule enclosingRule) throws IOException {
+        String textType = field.getAttribute("text-type"); //$NON-NLS-1$
+        if (verbose) {
+            log.info("Current Element: " + field.getNodeName()); //$NON-NLS-1$
+            log.info("Current Element ID: " + field.getAttribute("id")); //$NON-NLS-1$ //$NON-NLS-2$
+            log.info("Text type: " + textType); //$NON-NLS-1$
+        }
+        TextRule fieldRule = getFieldRule(field.getAttribute("id"), field.getAttribute("type"), textType); //$NON-NLS-1$ //$NON-NLS-2$
+        ItemRule itemRule = fieldRule != null ? new ItemRule(fieldRule, enclosingRule) : enclosingRule;
+        visitChildren(inputFile, documentDirectory, field, itemRule);
+        if (fieldRule != null && !itemRule.itemFound) {
+            randomizeFirstChild(field, fieldRule);
+        }
+        //randomization of attachments in XMLs
+        if (isRichText(textType)) {
+            randomizeAttachmentReferences(inputFile, documentDirectory, field);
+        }
     }
 
-    private void randomizeTextElement(@NotNull Element eElement, @NotNull Function<String, String> textRandomization) {
-        if (eElement.hasChildNodes()) {
-            NodeList items = eElement.getElementsByTagName("item");
-            if (items.getLength() > 0) {
-                for (int i = 0; i < items.getLength(); i++) {
-                    Node item = items.item(i);
-                    String elementValue = item.getTextContent();
-                    item.setTextContent(textRandomization.apply(elementValue));
-                }
-            } else {
-                Node item = eElement.getChildNodes().item(0);
-                String elementValue = item.getNodeValue();
-                item.setNodeValue(textRandomization.apply(elementValue));
+    private void visitItem(@NotNull File inputFile, @NotNull String documentDirectory, @NotNull Element item, @Nullable ItemRule enclosingRule) throws IOException {
+        boolean richText = isRichText(item.getAttribute("text-type")); //$NON-NLS-1$
+        if (enclosingRule != null) {
+            // rules of the enclosing fields replace the whole content of the item
+            item.setTextContent(enclosingRule.apply(item.getTextContent()));
+            if (richText) {
+                randomizeAttachmentReferences(inputFile, documentDirectory, item);
+                randomizeFirstChild(item, richTextRule);
             }
+        } else if (richText) {
+            //randomization of "text/html" item fields
+            ItemRule itemRule = new ItemRule(richTextRule, null);
+            visitChildren(inputFile, documentDirectory, item, itemRule);
+            randomizeAttachmentReferences(inputFile, documentDirectory, item);
+            if (!itemRule.itemFound) {
+                randomizeFirstChild(item, richTextRule);
+            }
+        } else {
+            visitChildren(inputFile, documentDirectory, item, null);
         }
     }
 
-    void randomizeXmlAttachment(@NotNull File inputFile, @NotNull String documentDirectory, @NotNull Document doc) throws Exception {
-        NodeList nList;
-        nList = doc.getElementsByTagName("field"); //$NON-NLS-1$
-        randomizeNodesWithAttachment(inputFile, documentDirectory, nList);
-        nList = doc.getElementsByTagName("item"); //$NON-NLS-1$
-        randomizeNodesWithAttachment(inputFile, documentDirectory, nList);
-    }
-
-    private void randomizeNodesWithAttachment(File inputFile, String documentDirectory, NodeList nList) throws UnsupportedEncodingException, IOException {
-        for (int temp = 0; temp < nList.getLength(); temp++) {
-            Node nNode = nList.item(temp);
-            Element eElement = (Element) nNode;
-            if ("text/html".equals(eElement.getAttribute("text-type")) && (eElement.hasChildNodes())) {
-                Node firstChildOfElement = eElement.getFirstChild();
-                String field = firstChildOfElement.getNodeValue();
-                Matcher m = patternForFindingAttachments.matcher(field);
-                StringBuffer sb = new StringBuffer();
-                while (m.find()) {
-                    String attachmentName = m.group(4);
-                    String decodedAttachmentName = FileUtils.decodeFileName(attachmentName);
-                    String replaceWith;
-                    if (attachmentRandomizationMap.containsKey(decodedAttachmentName)) {
-                        replaceWith = attachmentRandomizationMap.get(decodedAttachmentName);
-                    } else {
-                        replaceWith = textRandomizer.fileNameRandomize(decodedAttachmentName);
-                        attachmentRandomizationMap.put(decodedAttachmentName, replaceWith);
-                    }
-                    m.appendReplacement(sb, "$1$2" + Matcher.quoteReplacement(replaceWith) + "$5");
-                    if ("attachment:".equals(m.group(2))) {
-                        FileUtils.renameAndCopyAttachmentFile(documentDirectory, decodedAttachmentName, replaceWith);
-                        attachmentList.remove(new File(documentDirectory + "/attachments/" + decodedAttachmentName)); //$NON-NLS-1$
-                    } else {
-                        String fileLocation = inputFile.getAbsolutePath().substring(documentDirectory.length(), inputFile.getAbsolutePath().length() - inputFile.getName().length() - 1);
-                        String attachmentSequenceNumber = m.group(3);
-                        FileUtils.renameAndCopyFile(documentDirectory + fileLocation, "attachment" + attachmentSequenceNumber + decodedAttachmentName, documentDirectory + anonymizedSuffix + fileLocation,
-                                "attachment" + attachmentSequenceNumber + replaceWith);
-                        attachmentList.remove(new File(documentDirectory + fileLocation + "/attachment" + attachmentSequenceNumber + decodedAttachmentName));
-                    }
-                }
-                m.appendTail(sb);
-                field = sb.toString();
-                firstChildOfElement.setNodeValue(field);
+    private @Nullable TextRule getFieldRule(@NotNull String id, @NotNull String type, @NotNull String textType) {
+        TextRule rule = null;
+        //randomization of "author", "title", "assignee" fields
+        if (isAuthorTitleAssigneeField(id)) {
+            rule = plainTextRule;
+        }
+        //randomization of text in fields with text-type="text/html"
+        if (isRichText(textType)) {
+            if (verbose) {
+                log.info("Rich text field found"); //$NON-NLS-1$
+            }
+            rule = combine(rule, richTextRule);
+        }
+        //randomization of other text-type fields
+        if (isOtherTextField(textType)) {
+            if (verbose) {
+                log.info("Other text field found"); //$NON-NLS-1$
+            }
+            rule = combine(rule, plainTextRule);
+        }
+        //randomization of fields with type="text", "string", "integer", "float" or type="currency"
+        if (isTextStringIntegerFloatCurrencyField(type)) {
+            if (verbose) {
+                log.info("Other text field found"); //$NON-NLS-1$
+            }
+            rule = combine(rule, plainTextRule);
+        }
+        //randomization of fields with type="enum:@..."
+        if (isEnumField(type)) {
+            rule = combine(rule, plainTextRule);
+        }
+        //the same values of author, title, assignee and enum fields get the same pseudonym
+        if (rule != null && !isRichText(textType)) {
+            if (isAuthorTitleAssigneeField(id)) {
+                rule = pseudonymRule(id, rule);
+            } else if (isEnumField(type)) {
+                rule = pseudonymRule(type, rule);
             }
         }
+        return rule;
     }
 
-    void randomizeEnumFields(@NotNull Element eElement) {
-        if (eElement.hasAttribute("type")) { //$NON-NLS-1$
-            CharSequence cs1 = "enum:@"; //$NON-NLS-1$
-            if (eElement.getAttribute("type").contains(cs1)) { //$NON-NLS-1$
-                randomizePlainTextElement(eElement);
-            }
+    private @NotNull TextRule pseudonymRule(@NotNull String kind, @NotNull TextRule rule) {
+        return pseudonyms != null ? new PseudonymRule(kind, rule) : rule;
+    }
+
+    // the pseudonym of a value is randomized from its own stream, so it does not depend on the file in which the value is found first
+    private final class PseudonymRule implements TextRule, BiFunction<String, String, String> {
+        @NotNull
+        private final String kind;
+        @NotNull
+        private final TextRule rule;
+
+        PseudonymRule(@NotNull String kind, @NotNull TextRule rule) {
+            this.kind = kind;
+            this.rule = rule;
+        }
+
+        @Override
+        public void apply(@NotNull CharSequence input, @NotNull TextBuffer output) {
+            String pseudonym = pseudonyms.get(kind, input.toString(), this);
+            output.clear();
+            output.append(pseudonym);
+        }
+
+        @Override
+        public @NotNull String apply(@NotNull String kind, @NotNull String value) {
+            return textRandomizer.apply(rule, value, randomSource.stream(RandomSource.PSEUDONYM, kind, value));
         }
     }
 
-    void randomizeTextStringIntegerFloatCurrencyFields(@NotNull Element eElement) {
-        if (eElement.hasAttribute("type")) { //$NON-NLS-1$
-            String type = eElement.getAttribute("type");
-            if (type.equals("text") || //$NON-NLS-1$
-                    type.equals("string") || //$NON-NLS-1$
-                    type.equals("integer") || //$NON-NLS-1$
-                    type.equals("float") || //$NON-NLS-1$
-                    type.equals("currency")) //$NON-NLS-1$
-            {
-                if (verbose) {
-                    log.info("Other text field found"); //$NON-NLS-1$
-                }
-                randomizePlainTextElement(eElement);
-            }
+    // in keyed mode every value is randomized from the stream of the value itself, so equal values get equal output in every run with the key
+    private @NotNull TextRule keyedRule(@NotNull String kind, @NotNull TextRule rule) {
+        return (input, output) -> {
+            String value = input.toString();
+            String randomized = textRandomizer.apply(rule, value, randomSource.stream(RandomSource.PSEUDONYM, kind, value));
+            output.clear();
+            output.append(randomized);
+        };
+    }
+
+    private static @NotNull TextRule combine(@Nullable TextRule first, @NotNull TextRule second) {
+        return first == null ? second : first.andThen(second);
+    }
+
+    private static void randomizeFirstChild(@NotNull Element eElement, @NotNull TextRule textRandomization) {
+        Node firstChild = eElement.getFirstChild();
+        if (firstChild != null && firstChild.getNodeValue() != null) {
+            firstChild.setNodeValue(TextRandomizer.apply(textRandomization, firstChild.getNodeValue()));
         }
     }
 
-    void randomizeOtherTextFields(@NotNull Element eElement) {
-        if (eElement.hasAttribute("text-type")) { //$NON-NLS-1$
-            if (!eElement.getAttribute("text-type").equals("") && !eElement.getAttribute("text-type").equals("text/html")) { //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
-                if (verbose) {
-                    log.info("Other text field found"); //$NON-NLS-1$
-                }
-                randomizePlainTextElement(eElement);
+    // rules of all enclosing fields, applied to the content of an item from the outermost field inwards
+    private static final class ItemRule {
+        @NotNull
+        private final TextRule rule;
+        @Nullable
+        private final ItemRule enclosingRule;
+        private boolean itemFound;
+
+        ItemRule(@NotNull TextRule rule, @Nullable ItemRule enclosingRule) {
+            this.rule = enclosingRule != null ? enclosingRule.rule.andThen(rule) : rule;
+            this.enclosingRule = enclosingRule;
+        }
+
+        @NotNull
+        String apply(@NotNull String text) {
+            for (ItemRule itemRule = this; itemRule != null; itemRule = itemRule.enclosingRule) {
+                itemRule.itemFound = true;
             }
+            return TextRandomizer.apply(rule, text);
         }
     }
 
-    void randomizeHtmlFields(@NotNull Element eElement) {
-        if (eElement.hasAttribute("text-type")) { //$NON-NLS-1$
-            if (eElement.getAttribute("text-type").equals("text/html")) { //$NON-NLS-1$ //$NON-NLS-2$
-                if (verbose) {
-                    log.info("Rich text field found"); //$NON-NLS-1$
+    private void randomizeAttachmentReferences(@NotNull File inputFile, @NotNull String documentDirectory, @NotNull Element eElement) throws UnsupportedEncodingException, IOException {
+        Node firstChildOfElement = eElement.getFirstChild();
+        if (firstChildOfElement == null || firstChildOfElement.getNodeValue() == null) {
+            return;
+        }
+        String field = firstChildOfElement.getNodeValue();
+        Matcher m = patternForFindingAttachments.matcher(field);
+        if (!m.find()) {
+            return;
+        }
+        StringBuffer sb = new StringBuffer();
+        do {
+            String attachmentName = m.group(4);
+            String decodedAttachmentName = FileUtils.decodeFileName(attachmentName);
+            // the name is derived from its own stream, every reference to the attachment gets the same name without a lookup
+            String replaceWith = textRandomizer.fileNameRandomize(decodedAttachmentName, randomSource.stream(RandomSource.FILE_NAME, decodedAttachmentName));
+            m.appendReplacement(sb, "$1$2" + Matcher.quoteReplacement(replaceWith) + "$5");
+            if ("attachment:".equals(m.group(2))) {
+                File originalFile = new File(documentDirectory + "/attachments/" + decodedAttachmentName); //$NON-NLS-1$
+                if (archive != null) {
+                    archive.attachmentReferenced(originalFile, new File(documentDirectory + anonymizedSuffix + "/attachments/" + replaceWith)); //$NON-NLS-1$
+                } else if (attachments.claim(originalFile)) {
+                    FileUtils.renameAndRandomizeAttachmentFile(attachmentWriter, documentDirectory, decodedAttachmentName, replaceWith);
+                }
+            } else {
+                String fileLocation = inputFile.getAbsolutePath().substring(documentDirectory.length(), inputFile.getAbsolutePath().length() - inputFile.getName().length() - 1);
+                String attachmentSequenceNumber = m.group(3);
+                File originalFile = new File(documentDirectory + fileLocation + "/attachment" + attachmentSequenceNumber + decodedAttachmentName); //$NON-NLS-1$
+                if (archive != null) {
+                    archive.attachmentReferenced(originalFile, new File(documentDirectory + anonymizedSuffix + fileLocation + "/attachment" + attachmentSequenceNumber + replaceWith)); //$NON-NLS-1$
+                } else if (attachments.claim(originalFile)) {
+                    FileUtils.renameAndRandomizeFile(attachmentWriter, documentDirectory + fileLocation, "attachment" + attachmentSequenceNumber + decodedAttachmentName, documentDirectory + anonymizedSuffix + fileLocation,
+                            "attachment" + attachmentSequenceNumber + replaceWith);
                 }
-                randomizeRichTextElement(eElement);
             }
-        }
+        } while (m.find());
+        m.appendTail(sb);
+        field = sb.toString();
+        firstChildOfElement.setNodeValue(field);
     }
 
-    void randomizeAuthorTitleAssigneeFields(@NotNull Element eElement) {
-        if (eElement.hasAttribute("id")) { //$NON-NLS-1$
-            if (eElement.getAttribute("id").equals("author") //$NON-NLS-1$ //$NON-NLS-2$
-                    || eElement.getAttribute("id").equals("title") //$NON-NLS-1$//$NON-NLS-2$
-                    || eElement.getAttribute("id").equals("assignee")) { //$NON-NLS-1$ //$NON-NLS-2$
-                randomizePlainTextElement(eElement);
-            }
-        }
+    private static boolean isEnumField(@NotNull String type) {
+        return type.contains("enum:@"); //$NON-NLS-1$
+    }
+
+    private static boolean isTextStringIntegerFloatCurrencyField(@NotNull String type) {
+        return type.equals("text") || //$NON-NLS-1$
+                type.equals("string") || //$NON-NLS-1$
+                type.equals("integer") || //$NON-NLS-1$
+                type.equals("float") || //$NON-NLS-1$
+                type.equals("currency"); //$NON-NLS-1$
+    }
+
+    private static boolean isOtherTextField(@NotNull String textType) {
+        return !textType.equals("") && !isRichText(textType); //$NON-NLS-1$
+    }
+
+    private static boolean isRichText(@NotNull String textType) {
+        return textType.equals("text/html"); //$NON-NLS-1$
+    }
+
+    private static boolean isAuthorTitleAssigneeField(@NotNull String id) {
+        return id.equals("author") //$NON-NLS-1$
+                || id.equals("title") //$NON-NLS-1$
+                || id.equals("assignee"); //$NON-NLS-1$
     }
 
     public static void main(@NotNull String[] args) {
@@ -296,7 +658,7 @@ public class Anonymizer {
         try {
             AnonymizerParams params = new AnonymizerParams(args);
             verbose = params.verbose;
-            new Anonymizer(params.documentDirectory, verbose).run();
+            new Anonymizer(params).run();
         } catch (Exception e) {
             log.error(e.getMessage(), verbose ? e : null);
             System.exit(1);
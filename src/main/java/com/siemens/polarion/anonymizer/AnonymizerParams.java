@@ -15,38 +15,160 @@
  */
 package com.siemens.polarion.anonymizer;
 
+import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.Arrays;
 
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 public class AnonymizerParams {
     public String documentDirectory;
     public boolean verbose;
+    public int threads;
+    public boolean streaming;
+    public boolean resume;
+    public boolean placeholders;
+    public int placeholderHeaderLength;
+    public int pictureThreads;
+    public int pictureMemoryMegabytes;
+    @Nullable
+    public Long seed;
+    public int pseudonymCacheSize;
+    @Nullable
+    public byte[] key;
+    public boolean manifest;
+    @Nullable
+    public String deltaDirectory;
 
     public AnonymizerParams(@NotNull String[] args) throws Exception {
         verbose = false;
-        for (String arg : args) {
+        threads = 1;
+        streaming = false;
+        resume = false;
+        placeholders = false;
+        placeholderHeaderLength = 0;
+        pictureThreads = 0;
+        pictureMemoryMegabytes = 0;
+        seed = null;
+        pseudonymCacheSize = 0;
+        key = null;
+        manifest = false;
+        deltaDirectory = null;
+        if (args.length == 0) {
+            throw new Exception("Wrong number of parameters."); //$NON-NLS-1$
+        }
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
             if (arg.equals("-v")) { //$NON-NLS-1$
-                if (args.length == 1) {
-                    throw new Exception("Input directory was not specified!"); //$NON-NLS-1$
-                }
                 verbose = true;
-            } else {
+            } else if (arg.equals("--streaming")) { //$NON-NLS-1$
+                streaming = true;
+            } else if (arg.equals("--resume")) { //$NON-NLS-1$
+                resume = true;
+            } else if (arg.equals("--placeholders")) { //$NON-NLS-1$
+                placeholders = true;
+            } else if (arg.equals("--placeholder-header")) { //$NON-NLS-1$
+                placeholders = true;
+                placeholderHeaderLength = parsePositiveNumber(arg, optionValue(args, ++i, arg));
+            } else if (arg.equals("--seed")) { //$NON-NLS-1$
+                seed = parseSeed(arg, optionValue(args, ++i, arg));
+            } else if (arg.equals("--pseudonym-cache")) { //$NON-NLS-1$
+                pseudonymCacheSize = parseNonNegativeNumber(arg, optionValue(args, ++i, arg));
+            } else if (arg.equals("--key-file")) { //$NON-NLS-1$
+                key = readKey(arg, optionValue(args, ++i, arg));
+            } else if (arg.equals("--manifest")) { //$NON-NLS-1$
+                manifest = true;
+            } else if (arg.equals("--delta")) { //$NON-NLS-1$
+                manifest = true;
+                deltaDirectory = normalizeDirectory(optionValue(args, ++i, arg));
+            } else if (arg.equals("--threads")) { //$NON-NLS-1$
+                threads = parsePositiveNumber(arg, optionValue(args, ++i, arg));
+            } else if (arg.equals("--picture-threads")) { //$NON-NLS-1$
+                pictureThreads = parsePositiveNumber(arg, optionValue(args, ++i, arg));
+            } else if (arg.equals("--picture-memory")) { //$NON-NLS-1$
+                pictureMemoryMegabytes = parsePositiveNumber(arg, optionValue(args, ++i, arg));
+            } else if (documentDirectory == null) {
                 documentDirectory = arg;
+            } else {
+                throw new Exception("Wrong number of parameters."); //$NON-NLS-1$
             }
         }
 
-        if (args.length > 2 || args.length == 0) {
-            throw new Exception("Wrong number of parameters."); //$NON-NLS-1$
-        }
-
         if (documentDirectory == null) {
             throw new Exception("Input directory was not specified!"); //$NON-NLS-1$
         }
-        if (documentDirectory.endsWith("\\") || documentDirectory.endsWith("/")) { //$NON-NLS-1$//$NON-NLS-2$
-            documentDirectory = documentDirectory.substring(0, documentDirectory.length() - 1);
+        if (resume && manifest) {
+            // the files written before the interruption would be missing in the manifest
+            throw new Exception("Parameter --resume cannot be combined with --manifest or --delta."); //$NON-NLS-1$
+        }
+        if ((resume || manifest) && seed == null && key == null) {
+            // the journal and the manifest contain only the fingerprints of the seed and the key, the next run must be given them again
+            throw new Exception("Parameters --resume, --manifest and --delta require --seed or --key-file."); //$NON-NLS-1$
+        }
+        if (pictureThreads == 0) {
+            pictureThreads = threads;
+        }
+        documentDirectory = normalizeDirectory(documentDirectory);
+    }
+
+    private static @NotNull String normalizeDirectory(@NotNull String directory) {
+        if (directory.endsWith("\\") || directory.endsWith("/")) { //$NON-NLS-1$//$NON-NLS-2$
+            directory = directory.substring(0, directory.length() - 1);
+        }
+        return Paths.get(directory).toAbsolutePath().toString();
+    }
+
+    private static @NotNull String optionValue(@NotNull String[] args, int index, @NotNull String option) throws Exception {
+        if (index >= args.length) {
+            throw new Exception("Value of parameter " + option + " was not specified!"); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+        return args[index];
+    }
+
+    private static @NotNull Long parseSeed(@NotNull String option, @NotNull String value) throws Exception {
+        try {
+            return Long.valueOf(value);
+        } catch (NumberFormatException e) {
+            throw new Exception("Value of parameter " + option + " must be a number, but was \"" + value + "\"."); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        }
+    }
+
+    // line breaks at the end of the file are not part of the key
+    private static @NotNull byte[] readKey(@NotNull String option, @NotNull String fileName) throws Exception {
+        byte[] key = Files.readAllBytes(Paths.get(fileName));
+        int length = key.length;
+        while (length > 0 && (key[length - 1] == '\n' || key[length - 1] == '\r')) {
+            length--;
+        }
+        if (length == 0) {
+            throw new Exception("Key file of parameter " + option + " is empty."); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+        return Arrays.copyOf(key, length);
+    }
+
+    private static int parseNonNegativeNumber(@NotNull String option, @NotNull String value) throws Exception {
+        try {
+            int number = Integer.parseInt(value);
+            if (number >= 0) {
+                return number;
+            }
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        throw new Exception("Value of parameter " + option + " must be zero or a positive number, but was \"" + value + "\"."); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+    }
+
+    private static int parsePositiveNumber(@NotNull String option, @NotNull String value) throws Exception {
+        try {
+            int number = Integer.parseInt(value);
+            if (number > 0) {
+                return number;
+            }
+        } catch (NumberFormatException e) {
+            // reported below
         }
-        documentDirectory = Paths.get(documentDirectory).toAbsolutePath().toString();
+        throw new Exception("Value of parameter " + option + " must be a positive number, but was \"" + value + "\"."); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
     }
 
-}
\ No newline at end of file
+}
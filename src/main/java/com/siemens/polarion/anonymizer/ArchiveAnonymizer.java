@@ -0,0 +1,428 @@
+/*
+ * Copyright 2016 Polarion AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.siemens.polarion.anonymizer;
+
+import java.awt.Dimension;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+
+import org.apache.commons.compress.archivers.ArchiveEntry;
+import org.apache.commons.compress.archivers.ArchiveInputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveInputStream;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Anonymizes an export packed in a ZIP or TAR archive, optionally gzip compressed, into an archive of the same format without extracting it. The
+ * content of the entries is read once: XML files are anonymized and compressed by the {@link ArchiveWriter} in parallel while the next entries are
+ * read, of the attachments only the length and the dimension of pictures are kept. XML entries larger than {@link #XML_MEMORY_LIMIT} are not held in
+ * memory, they are streamed from the input to the output archive by the {@link XmlStreamAnonymizer} on the reading thread. Their text is anonymized
+ * by the same rules, but they are formatted like with --streaming, e.g. CDATA sections are written as escaped text and tabs and line breaks in
+ * attribute values as characters, so they can differ from the output of the same files in directory mode without --streaming. The attachments are
+ * written after the last entry, when all references from the XML files are known, so they get the same names and content as in directory mode.
+ * <p>
+ * The paths of the entries are relative to the document directory. When all entries share the first directory of their paths and it is not
+ * <code>attachments</code> or <code>workitems</code>, it is taken as the document directory and the output is placed to the same directory with
+ * the {@link Anonymizer#anonymizedSuffix}. The names of the entries are listed before the archive is read, from the central directory of a ZIP
+ * archive or from the headers of a TAR archive, because archives need not contain entries of their directories. Files other than XML files
+ * outside of <code>attachments</code> and <code>workitems</code> are not copied, like in directory mode.
+ * <p>
+ * The entries are processed as files of a virtual document directory with the path of the archive, so the random streams are keyed by the same
+ * relative paths as for the extracted export.
+ */
+public class ArchiveAnonymizer {
+    @NotNull
+    private static final Logger log = LogManager.getLogger(ArchiveAnonymizer.class);
+    @NotNull
+    private static final String ATTACHMENTS = "attachments"; //$NON-NLS-1$
+    @NotNull
+    private static final String WORKITEMS = "workitems"; //$NON-NLS-1$
+    static final int XML_MEMORY_LIMIT = 16 * 1024 * 1024;
+
+    @NotNull
+    private final Anonymizer anonymizer;
+    @NotNull
+    private final String documentDirectory;
+    @NotNull
+    private final AttachmentWriter attachmentWriter;
+    @NotNull
+    private final ArchiveWriter.Format format;
+    private final int threads;
+    // attachments in the order of the input, written after the XML files
+    @NotNull
+    private final List<Attachment> attachments = new ArrayList<Attachment>();
+    // new files of the attachments referenced from XML files by their path relative to the document directory
+    @NotNull
+    private final Map<String, File> referenced = new ConcurrentHashMap<String, File>();
+    @NotNull
+    private String root = ""; //$NON-NLS-1$
+    @NotNull
+    private String outputRoot = ""; //$NON-NLS-1$
+    // open while the archive is written
+    @Nullable
+    private ArchiveWriter writer;
+    private int xmlCount;
+    private int referencedCount;
+    private int missingCount;
+    private int skippedCount;
+    private int compressedCount;
+    private int storedCount;
+
+    private static final class Attachment {
+        @NotNull
+        final File file;
+        final long length;
+        @Nullable
+        final Dimension dimension;
+
+        Attachment(@NotNull File file, long length, @Nullable Dimension dimension) {
+            this.file = file;
+            this.length = length;
+            this.dimension = dimension;
+        }
+    }
+
+    // entry of the input archive, it must not be closed by the parsers and the number of read bytes is counted
+    private static final class EntryInputStream extends FilterInputStream {
+        long count;
+
+        EntryInputStream(@NotNull InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+
+        // reads the entry to its end or until more than the limit is read, the size is given when it is known
+        @NotNull
+        byte[] readUpTo(int limit, long size) throws IOException {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream(size >= 0 && size <= limit ? (int) size : 8192);
+            byte[] chunk = new byte[8192];
+            int n;
+            while (buffer.size() <= limit && (n = read(chunk, 0, chunk.length)) >= 0) {
+                buffer.write(chunk, 0, n);
+            }
+            return buffer.toByteArray();
+        }
+
+        long drain() throws IOException {
+            byte[] buffer = new byte[8192];
+            while (read(buffer, 0, buffer.length) >= 0) {
+                // counted by read
+            }
+            return count;
+        }
+
+        @Override
+        public void close() {
+            // the archive stream is closed by its owner
+        }
+    }
+
+    public ArchiveAnonymizer(@NotNull Anonymizer anonymizer, @NotNull String archive, @NotNull AttachmentWriter attachmentWriter, int threads) {
+        ArchiveWriter.Format archiveFormat = getFormat(archive);
+        if (archiveFormat == null) {
+            throw new IllegalArgumentException("File \"" + archive + "\" is not a supported archive."); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+        this.anonymizer = anonymizer;
+        this.documentDirectory = archive;
+        this.attachmentWriter = attachmentWriter;
+        format = archiveFormat;
+        this.threads = threads;
+    }
+
+    public static boolean isArchive(@NotNull String path) {
+        return getFormat(path) != null && new File(path).isFile();
+    }
+
+    private static @Nullable ArchiveWriter.Format getFormat(@NotNull String path) {
+        String name = path.toLowerCase(Locale.ENGLISH);
+        for (ArchiveWriter.Format format : ArchiveWriter.Format.values()) {
+            if (name.endsWith(format.suffix)) {
+                return format;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Archive with the anonymized data, in the same directory and of the same format as the original archive.
+     */
+    public static @NotNull File getOutputFile(@NotNull String archive) {
+        ArchiveWriter.Format format = getFormat(archive);
+        if (format == null) {
+            throw new IllegalArgumentException("File \"" + archive + "\" is not a supported archive."); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+        String base = archive.substring(0, archive.length() - format.suffix.length());
+        return new File(base + Anonymizer.anonymizedSuffix + archive.substring(base.length()));
+    }
+
+    public int getXmlCount() {
+        return xmlCount;
+    }
+
+    public int getAttachmentCount() {
+        return attachments.size();
+    }
+
+    public int getReferencedCount() {
+        return referencedCount;
+    }
+
+    public int getMissingCount() {
+        return missingCount;
+    }
+
+    public int getSkippedCount() {
+        return skippedCount;
+    }
+
+    // entries of the output archive which went through the compressor
+    public int getCompressedCount() {
+        return compressedCount;
+    }
+
+    public int getStoredCount() {
+        return storedCount;
+    }
+
+    /**
+     * Records the new file of an attachment referenced from an XML file, the first reference gives the name.
+     */
+    public void attachmentReferenced(@NotNull File originalFile, @NotNull File newFile) {
+        referenced.putIfAbsent(getRelativePath(originalFile), newFile);
+    }
+
+    public void anonymize(@NotNull File outputFile) throws Exception {
+        root = findRoot();
+        if (!root.isEmpty()) {
+            outputRoot = root + Anonymizer.anonymizedSuffix + "/"; //$NON-NLS-1$
+        }
+        try (ArchiveInputStream<?> in = openInput(); ArchiveWriter out = new ArchiveWriter(outputFile, format, threads)) {
+            writer = out;
+            ArchiveEntry entry;
+            while ((entry = in.getNextEntry()) != null) {
+                String name = getEntryName(entry);
+                if (name != null) {
+                    readEntry(name, new EntryInputStream(in), entry.getSize());
+                }
+            }
+            // all references are known when the XML files are written
+            out.flush();
+            writeAttachments();
+            out.finish();
+            compressedCount = out.getCompressedCount();
+            storedCount = out.getStoredCount();
+        } finally {
+            writer = null;
+        }
+    }
+
+    // path of the entry relative to the document directory, null for entries which are not regular files
+    private @Nullable String getEntryName(@NotNull ArchiveEntry entry) throws IOException {
+        String name = normalizeName(entry.getName());
+        if (entry.isDirectory() || entry instanceof TarArchiveEntry && !((TarArchiveEntry) entry).isFile()) {
+            return null;
+        }
+        if (!root.isEmpty()) {
+            if (!name.startsWith(root + "/")) { //$NON-NLS-1$
+                throw new IOException("Entry \"" + entry.getName() + "\" is outside of the directory \"" + root + "\" of the archive."); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+            }
+            name = name.substring(root.length() + 1);
+        }
+        for (String segment : name.split("/")) { //$NON-NLS-1$
+            if (segment.equals("..")) { //$NON-NLS-1$
+                throw new IOException("Entry \"" + entry.getName() + "\" is outside of the archive."); //$NON-NLS-1$ //$NON-NLS-2$
+            }
+        }
+        return name;
+    }
+
+    private static @NotNull String normalizeName(@NotNull String entryName) {
+        String name = entryName.replace('\\', '/');
+        while (name.startsWith("./")) { //$NON-NLS-1$
+            name = name.substring(2);
+        }
+        return name;
+    }
+
+    // first directory shared by the paths of all entries, empty when the entries are at the top level of the document directory
+    private @NotNull String findRoot() throws IOException {
+        String common = null;
+        for (String entryName : listEntryNames()) {
+            String name = normalizeName(entryName);
+            int separator = name.indexOf('/');
+            if (separator < 0) {
+                return ""; //$NON-NLS-1$
+            }
+            String first = name.substring(0, separator);
+            if (common == null) {
+                common = first;
+            } else if (!common.equals(first)) {
+                return ""; //$NON-NLS-1$
+            }
+        }
+        return common == null || common.equals(ATTACHMENTS) || common.equals(WORKITEMS) ? "" : common; //$NON-NLS-1$
+    }
+
+    private @NotNull List<String> listEntryNames() throws IOException {
+        List<String> names = new ArrayList<String>();
+        if (format == ArchiveWriter.Format.ZIP) {
+            try (ZipFile zip = ZipFile.builder().setFile(documentDirectory).get()) {
+                for (ZipArchiveEntry entry : Collections.list(zip.getEntries())) {
+                    names.add(entry.getName());
+                }
+            }
+        } else {
+            // the data of the entries are skipped
+            try (ArchiveInputStream<?> in = openInput()) {
+                ArchiveEntry entry;
+                while ((entry = in.getNextEntry()) != null) {
+                    names.add(entry.getName());
+                }
+            }
+        }
+        return names;
+    }
+
+    private void readEntry(@NotNull String name, @NotNull EntryInputStream in, long size) throws Exception {
+        File file = new File(documentDirectory + "/" + name); //$NON-NLS-1$
+        if (FileUtils.getExtension(file.toPath()).equals("xml")) { //$NON-NLS-1$
+            String outputName = getOutputEntryName(Anonymizer.getOutputFile(file, documentDirectory));
+            byte[] xml = size <= XML_MEMORY_LIMIT ? in.readUpTo(XML_MEMORY_LIMIT, size) : new byte[0];
+            if (size <= XML_MEMORY_LIMIT && xml.length <= XML_MEMORY_LIMIT) {
+                // the entry is read by this thread, it is anonymized and compressed on the pool of the writer
+                writer.add(outputName, true, entryOut -> anonymizer.anonymizeXML(file, documentDirectory, new ByteArrayInputStream(xml), entryOut));
+            } else {
+                // the rest of a large entry is read while it is anonymized
+                InputStream xmlIn = new SequenceInputStream(new ByteArrayInputStream(xml), in);
+                writer.addInline(outputName, true, entryOut -> anonymizer.anonymizeXML(file, documentDirectory, xmlIn, entryOut, true));
+            }
+            xmlCount++;
+        } else if (name.startsWith(ATTACHMENTS + "/") || name.startsWith(WORKITEMS + "/")) { //$NON-NLS-1$ //$NON-NLS-2$
+            Dimension dimension = null;
+            if (FileUtils.isPicture(file.toPath())) {
+                try (ImageInputStream imageIn = new MemoryCacheImageInputStream(in)) {
+                    dimension = PictureRandomizer.readDimension(imageIn);
+                }
+                if (dimension == null) {
+                    log.warn("File \"" + name + "\" cannot be read as a picture, its content is replaced by random bytes."); //$NON-NLS-1$ //$NON-NLS-2$
+                }
+            }
+            long length = size >= 0 ? size : in.drain();
+            attachments.add(new Attachment(file, length, dimension));
+        } else {
+            skippedCount++;
+        }
+    }
+
+    private void writeAttachments() throws Exception {
+        for (Attachment attachment : attachments) {
+            File newFile = referenced.remove(getRelativePath(attachment.file));
+            if (newFile != null) {
+                referencedCount++;
+            } else {
+                newFile = anonymizer.getUnreferencedOutputFile(attachment.file);
+            }
+            String name = getOutputEntryName(newFile);
+            ArchiveWriter.Content content = entryOut -> attachmentWriter.write(attachment.file, attachment.length, attachment.dimension, entryOut);
+            if (attachment.dimension != null) {
+                // encoded pictures do not compress, they are encoded on the pool
+                writer.add(name, false, content);
+            } else {
+                // random bytes are stored, placeholders consist mostly of zeros and are compressed
+                writer.addDirect(name, attachment.length, attachmentWriter.isPlaceholders(), content);
+            }
+        }
+        for (String missing : referenced.keySet()) {
+            missingCount++;
+            log.warn("File \"" + missing + "\" was not found!"); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+    }
+
+    private @NotNull String getOutputEntryName(@NotNull File outputFile) {
+        return outputRoot + FileUtils.getRelativePath(documentDirectory + Anonymizer.anonymizedSuffix, outputFile);
+    }
+
+    private @NotNull String getRelativePath(@NotNull File file) {
+        return FileUtils.getRelativePath(documentDirectory, file);
+    }
+
+    private @NotNull ArchiveInputStream<?> openInput() throws IOException {
+        InputStream in = new BufferedInputStream(Files.newInputStream(Paths.get(documentDirectory)), 64 * 1024);
+        try {
+            switch (format) {
+            case ZIP:
+                // entries written by streaming tools have their sizes after the data
+                return new ZipArchiveInputStream(in, "UTF-8", true, true); //$NON-NLS-1$
+            case TAR:
+                return new TarArchiveInputStream(in);
+            default:
+                return new TarArchiveInputStream(new GzipCompressorInputStream(in, true));
+            }
+        } catch (IOException | RuntimeException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+}
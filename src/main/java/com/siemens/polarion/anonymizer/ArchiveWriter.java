@@ -0,0 +1,439 @@
+/*
+ * Copyright 2016 Polarion AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.siemens.polarion.anonymizer;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.Date;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.Zip64Mode;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Writes the entries of an output archive in the order in which they are added, while their content is produced and compressed on a
+ * {@link WorkerPool}. Every ZIP entry is compressed by its own Deflate stream into memory and copied to the archive as it is, so the entries are
+ * compressed concurrently and the archive is still the same for any number of threads.
+ * <p>
+ * Content which does not compress, like random attachment bytes and encoded pictures, is stored without going through the compressor. Large
+ * entries of a known size are written directly by the calling thread. Collected entries are kept in memory up to {@link #SPILL_THRESHOLD} bytes,
+ * larger ones are spilled to a temporary file next to the archive, so neither the memory nor the 2 GB limit of arrays bounds their size. A TAR
+ * archive is compressed as a single gzip stream, the stored entries are written to it with the compression level switched off.
+ */
+public class ArchiveWriter implements AutoCloseable {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    static final long SPILL_THRESHOLD = 16L * 1024 * 1024;
+    // number of entries which are compressed or waiting to be written per thread, it bounds the memory of the compressed entries
+    private static final int PENDING_ENTRIES_PER_THREAD = 4;
+    @NotNull
+    private static final ThreadLocal<Deflater> deflaters = ThreadLocal.withInitial(() -> new Deflater(Deflater.DEFAULT_COMPRESSION, true));
+
+    public enum Format {
+        ZIP(".zip"), //$NON-NLS-1$
+        TAR(".tar"), //$NON-NLS-1$
+        TAR_GZ(".tar.gz"), //$NON-NLS-1$
+        TGZ(".tgz"); //$NON-NLS-1$
+
+        @NotNull
+        final String suffix;
+
+        Format(@NotNull String suffix) {
+            this.suffix = suffix;
+        }
+    }
+
+    public interface Content {
+        void write(@NotNull OutputStream out) throws Exception;
+    }
+
+    @NotNull
+    private final WorkerPool pool;
+    private final int maxPending;
+    // directory of the temporary files of spilled entries
+    @NotNull
+    private final File spillDirectory;
+    private final long spillThreshold;
+    // all entries get the start of the run
+    @NotNull
+    private final Date time = new Date();
+    @NotNull
+    private final Queue<CompletableFuture<Entry>> pending = new ArrayDeque<CompletableFuture<Entry>>();
+    // one of them is open while the archive is written
+    @Nullable
+    private final ZipArchiveOutputStream zipOut;
+    @Nullable
+    private final TarArchiveOutputStream tarOut;
+    @Nullable
+    private final LevelGzipOutputStream gzipOut;
+    private int compressedCount;
+    private int storedCount;
+
+    // content of an entry collected in memory, compressed or stored
+    private static final class Entry {
+        @NotNull
+        final String name;
+        @NotNull
+        final EntryBuffer data;
+        final boolean compressed;
+        final boolean deflated;
+        final long size;
+        final long crc;
+
+        Entry(@NotNull String name, @NotNull EntryBuffer data, boolean compressed, boolean deflated, long size, long crc) {
+            this.name = name;
+            this.data = data;
+            this.compressed = compressed;
+            this.deflated = deflated;
+            this.size = size;
+            this.crc = crc;
+        }
+    }
+
+    // bytes in memory which are read without copying them
+    private static final class MemoryBuffer extends ByteArrayOutputStream {
+        MemoryBuffer() {
+            super(BUFFER_SIZE);
+        }
+
+        @NotNull
+        ByteArrayInputStream toInputStream() {
+            return new ByteArrayInputStream(buf, 0, count);
+        }
+    }
+
+    // collected bytes, kept in memory or in the temporary file they were spilled to
+    private static final class EntryBuffer extends OutputStream {
+        @NotNull
+        private final File directory;
+        private final long threshold;
+        @Nullable
+        private MemoryBuffer memory = new MemoryBuffer();
+        @Nullable
+        private File file;
+        @Nullable
+        private OutputStream fileOut;
+        private long size;
+
+        EntryBuffer(@NotNull File directory, long threshold) {
+            this.directory = directory;
+            this.threshold = threshold;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out(1).write(b);
+            size++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out(len).write(b, off, len);
+            size += len;
+        }
+
+        @NotNull
+        private OutputStream out(int len) throws IOException {
+            MemoryBuffer bytes = memory;
+            if (bytes == null) {
+                return fileOut;
+            }
+            if (size + len <= threshold) {
+                return bytes;
+            }
+            File spillFile = File.createTempFile("anonymizer-entry", ".tmp", directory); //$NON-NLS-1$ //$NON-NLS-2$
+            file = spillFile;
+            fileOut = new BufferedOutputStream(Files.newOutputStream(spillFile.toPath()), BUFFER_SIZE);
+            bytes.writeTo(fileOut);
+            memory = null;
+            return fileOut;
+        }
+
+        long size() {
+            return size;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (fileOut != null) {
+                fileOut.close();
+            }
+        }
+
+        void writeTo(@NotNull OutputStream out) throws IOException {
+            if (memory != null) {
+                memory.writeTo(out);
+            } else {
+                Files.copy(file.toPath(), out);
+            }
+        }
+
+        @NotNull
+        InputStream toInputStream() throws IOException {
+            if (memory != null) {
+                return memory.toInputStream();
+            }
+            return Files.newInputStream(file.toPath());
+        }
+
+        void delete() throws IOException {
+            close();
+            if (file != null) {
+                Files.deleteIfExists(file.toPath());
+            }
+        }
+    }
+
+    // gzip stream whose compression level can be changed between the entries
+    private static final class LevelGzipOutputStream extends GZIPOutputStream {
+        LevelGzipOutputStream(@NotNull OutputStream out) throws IOException {
+            super(out, BUFFER_SIZE);
+        }
+
+        void setLevel(int level) {
+            def.setLevel(level);
+        }
+    }
+
+    public ArchiveWriter(@NotNull File outputFile, @NotNull Format format, int threads) throws IOException {
+        this(outputFile, format, threads, SPILL_THRESHOLD);
+    }
+
+    ArchiveWriter(@NotNull File outputFile, @NotNull Format format, int threads, long spillThreshold) throws IOException {
+        spillDirectory = outputFile.getAbsoluteFile().getParentFile();
+        this.spillThreshold = spillThreshold;
+        if (format == Format.ZIP) {
+            // the sizes of the directly written entries are written back to their headers, so they do not need to be known in advance
+            ZipArchiveOutputStream zip = new ZipArchiveOutputStream(outputFile);
+            zip.setUseZip64(Zip64Mode.AsNeeded);
+            zipOut = zip;
+            tarOut = null;
+            gzipOut = null;
+        } else {
+            OutputStream fileOut = new BufferedOutputStream(Files.newOutputStream(outputFile.toPath()), BUFFER_SIZE);
+            try {
+                gzipOut = format == Format.TAR ? null : new LevelGzipOutputStream(fileOut);
+            } catch (IOException | RuntimeException e) {
+                fileOut.close();
+                throw e;
+            }
+            TarArchiveOutputStream tar = new TarArchiveOutputStream(gzipOut != null ? gzipOut : fileOut, "UTF-8"); //$NON-NLS-1$
+            tar.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+            tar.setBigNumberMode(TarArchiveOutputStream.BIGNUMBER_POSIX);
+            tarOut = tar;
+            zipOut = null;
+        }
+        pool = new WorkerPool(threads, "archive-writer"); //$NON-NLS-1$
+        maxPending = threads > 1 ? threads * PENDING_ENTRIES_PER_THREAD : 0;
+    }
+
+    public int getCompressedCount() {
+        return compressedCount;
+    }
+
+    public int getStoredCount() {
+        return storedCount;
+    }
+
+    /**
+     * Adds an entry whose content is produced on the pool and collected in memory. The content is compressed when <code>compress</code> is set,
+     * otherwise it is stored.
+     */
+    public void add(@NotNull String name, boolean compress, @NotNull Content content) throws Exception {
+        // a TAR archive is compressed as a whole
+        boolean deflate = compress && zipOut != null;
+        pending.add(pool.supply(() -> collect(name, compress, deflate, content)));
+        writeOverflow();
+    }
+
+    /**
+     * Adds an entry whose content is produced and compressed by the calling thread, e.g. from a stream which only the calling thread may read. The
+     * entry is written after the entries added before it, which are compressed on the pool in the meantime.
+     */
+    public void addInline(@NotNull String name, boolean compress, @NotNull Content content) throws Exception {
+        boolean deflate = compress && zipOut != null;
+        pending.add(CompletableFuture.completedFuture(collect(name, compress, deflate, content)));
+        writeOverflow();
+    }
+
+    private void writeOverflow() throws Exception {
+        while (pending.size() > maxPending) {
+            writeNext();
+        }
+    }
+
+    /**
+     * Adds an entry of the known size whose content is written by the calling thread directly to the archive after the entries added before it.
+     * The content is compressed when <code>compress</code> is set, otherwise it is stored.
+     */
+    public void addDirect(@NotNull String name, long size, boolean compress, @NotNull Content content) throws Exception {
+        flush();
+        ZipArchiveOutputStream zip = zipOut;
+        if (zip != null) {
+            ZipArchiveEntry entry = new ZipArchiveEntry(name);
+            entry.setTime(time.getTime());
+            entry.setMethod(compress ? ZipEntry.DEFLATED : ZipEntry.STORED);
+            entry.setSize(size);
+            zip.putArchiveEntry(entry);
+            content.write(zip);
+            zip.closeArchiveEntry();
+        } else {
+            writeTarEntry(name, size, compress, content);
+        }
+        countEntry(compress);
+    }
+
+    /**
+     * Waits until all added entries are written to the archive.
+     */
+    public void flush() throws Exception {
+        while (!pending.isEmpty()) {
+            writeNext();
+        }
+    }
+
+    public void finish() throws Exception {
+        flush();
+        if (zipOut != null) {
+            zipOut.finish();
+        } else {
+            tarOut.finish();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        pool.close();
+        // entries which were not written after a failure, the ones still being collected are deleted when they are complete
+        for (CompletableFuture<Entry> entry : pending) {
+            entry.thenAccept(ArchiveWriter::delete);
+        }
+        pending.clear();
+        if (zipOut != null) {
+            zipOut.close();
+        } else {
+            tarOut.close();
+        }
+    }
+
+    @NotNull
+    private Entry collect(@NotNull String name, boolean compress, boolean deflate, @NotNull Content content) throws Exception {
+        EntryBuffer data = new EntryBuffer(spillDirectory, spillThreshold);
+        try {
+            CRC32 crc = new CRC32();
+            if (deflate) {
+                Deflater deflater = deflaters.get();
+                deflater.reset();
+                DeflaterOutputStream deflaterOut = new DeflaterOutputStream(data, deflater, BUFFER_SIZE);
+                content.write(new CheckedOutputStream(deflaterOut, crc));
+                deflaterOut.finish();
+                data.close();
+                return new Entry(name, data, compress, true, deflater.getBytesRead(), crc.getValue());
+            }
+            content.write(new CheckedOutputStream(data, crc));
+            data.close();
+            return new Entry(name, data, compress, false, data.size(), crc.getValue());
+        } catch (Exception | Error e) {
+            data.delete();
+            throw e;
+        }
+    }
+
+    private static void delete(@NotNull Entry entry) {
+        try {
+            entry.data.delete();
+        } catch (IOException e) {
+            // the temporary file stays, the failure which stopped the writer is reported
+        }
+    }
+
+    private void writeNext() throws Exception {
+        Entry entry;
+        try {
+            entry = pending.remove().get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw cause instanceof Exception ? (Exception) cause : e;
+        }
+        try {
+            ZipArchiveOutputStream zip = zipOut;
+            if (zip != null) {
+                ZipArchiveEntry zipEntry = new ZipArchiveEntry(entry.name);
+                zipEntry.setTime(time.getTime());
+                zipEntry.setMethod(entry.deflated ? ZipEntry.DEFLATED : ZipEntry.STORED);
+                zipEntry.setSize(entry.size);
+                zipEntry.setCompressedSize(entry.data.size());
+                zipEntry.setCrc(entry.crc);
+                // the compressed data are copied to the archive as they are
+                try (InputStream in = entry.data.toInputStream()) {
+                    zip.addRawArchiveEntry(zipEntry, in);
+                }
+            } else {
+                writeTarEntry(entry.name, entry.size, entry.compressed, entry.data::writeTo);
+            }
+        } finally {
+            entry.data.delete();
+        }
+        countEntry(entry.compressed);
+    }
+
+    private void writeTarEntry(@NotNull String name, long size, boolean compress, @NotNull Content content) throws Exception {
+        TarArchiveOutputStream tar = tarOut;
+        TarArchiveEntry entry = new TarArchiveEntry(name);
+        entry.setModTime(time);
+        entry.setSize(size);
+        tar.putArchiveEntry(entry);
+        if (gzipOut != null && !compress) {
+            gzipOut.setLevel(Deflater.NO_COMPRESSION);
+        }
+        content.write(tar);
+        tar.closeArchiveEntry();
+        if (gzipOut != null && !compress) {
+            gzipOut.setLevel(Deflater.DEFAULT_COMPRESSION);
+        }
+    }
+
+    private void countEntry(boolean compressed) {
+        if (compressed) {
+            compressedCount++;
+        } else {
+            storedCount++;
+        }
+    }
+
+}
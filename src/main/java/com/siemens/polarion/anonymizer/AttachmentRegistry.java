@@ -0,0 +1,133 @@
+/*
+ * Copyright 2016 Polarion AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.siemens.polarion.anonymizer;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Attachment files of the exported data indexed by their normalized path. Files referenced from XML files are claimed by the XML processing, the
+ * remaining ones are anonymized in a final sweep.
+ */
+public class AttachmentRegistry {
+    @NotNull
+    private static final Logger log = LogManager.getLogger(AttachmentRegistry.class);
+    @NotNull
+    private final Map<String, Entry> attachments = new ConcurrentHashMap<String, Entry>();
+    // registration order, used for the final sweep
+    @NotNull
+    private final List<Entry> entries = new ArrayList<Entry>();
+    @NotNull
+    private final Map<String, Boolean> unregisteredReferences = new ConcurrentHashMap<String, Boolean>();
+    @NotNull
+    private final AtomicInteger referencedCount = new AtomicInteger();
+    @NotNull
+    private final AtomicInteger missingCount = new AtomicInteger();
+
+    private static final class Entry {
+        @NotNull
+        final File file;
+        @NotNull
+        final AtomicBoolean claimed = new AtomicBoolean();
+
+        Entry(@NotNull File file) {
+            this.file = file;
+        }
+    }
+
+    // registration is done before the XML files are processed, so it does not need to be thread safe
+    public void registerAll(@NotNull Collection<File> files) {
+        for (File file : files) {
+            Entry entry = new Entry(file);
+            if (attachments.putIfAbsent(key(file), entry) == null) {
+                entries.add(entry);
+            }
+        }
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Marks the file as referenced from an XML file. Returns <code>true</code> only for the first reference, so the file is written once. Files which
+     * were not registered are claimed too, the first reference to them returns <code>true</code> as well unless the file does not exist. Missing
+     * files are only counted and reported, there is nothing to write.
+     */
+    public boolean claim(@NotNull File file) {
+        String key = key(file);
+        Entry entry = attachments.get(key);
+        if (entry != null) {
+            if (entry.claimed.compareAndSet(false, true)) {
+                referencedCount.incrementAndGet();
+                return true;
+            }
+            return false;
+        }
+        if (unregisteredReferences.putIfAbsent(key, Boolean.TRUE) == null) {
+            if (file.exists()) {
+                referencedCount.incrementAndGet();
+                return true;
+            }
+            missingCount.incrementAndGet();
+            log.warn("File \"" + file + "\" was not found!"); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+        return false;
+    }
+
+    public @NotNull List<File> getUnclaimed() {
+        List<File> unclaimed = new ArrayList<File>();
+        for (Entry entry : entries) {
+            if (!entry.claimed.get()) {
+                unclaimed.add(entry.file);
+            }
+        }
+        return unclaimed;
+    }
+
+    public int getReferencedCount() {
+        return referencedCount.get();
+    }
+
+    public int getOrphanedCount() {
+        int orphaned = 0;
+        for (Entry entry : entries) {
+            if (!entry.claimed.get()) {
+                orphaned++;
+            }
+        }
+        return orphaned;
+    }
+
+    public int getMissingCount() {
+        return missingCount.get();
+    }
+
+    private static @NotNull String key(@NotNull File file) {
+        return file.toPath().toAbsolutePath().normalize().toString();
+    }
+
+}
@@ -0,0 +1,220 @@
+/*
+ * Copyright 2016 Polarion AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.siemens.polarion.anonymizer;
+
+import java.awt.Dimension;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.util.SplittableRandom;
+
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Writes the anonymized content of an attachment to its new file. Pictures are replaced by random pictures of the same dimensions, other files and
+ * pictures which cannot be decoded by random bytes of the same length. In placeholder mode other files only get the original length, as sparse files
+ * with an optional random header. The original content is never copied to the new file.
+ * <p>
+ * Pictures can be randomized by a separate pool of threads. The memory of the random pictures being created at the same time is limited by a
+ * {@link MemoryBudget}, so a few huge pictures do not exhaust the heap while many small ones are processed in parallel. {@link #awaitCompletion()}
+ * waits for the submitted pictures.
+ * <p>
+ * The content of every file is drawn from its own stream of the {@link RandomSource}, keyed by the path of the original file relative to the
+ * document directory.
+ * <p>
+ * With a {@link CheckpointJournal} every file is recorded under its new name before it is written and again when it is completely written.
+ * <p>
+ * With a {@link DeltaRun} the output of the previous run is carried forward when the original file did not change.
+ */
+public class AttachmentWriter implements AutoCloseable {
+    @NotNull
+    private static final Logger log = LogManager.getLogger(AttachmentWriter.class);
+
+    private final boolean verbose;
+    private final boolean placeholders;
+    private final int placeholderHeaderLength;
+    @NotNull
+    private final WorkerPool picturePool;
+    @NotNull
+    private final MemoryBudget pictureBudget;
+    @NotNull
+    private final RandomSource randomSource;
+    @NotNull
+    private final String documentDirectory;
+    @Nullable
+    private CheckpointJournal journal;
+    @Nullable
+    private DeltaRun deltaRun;
+
+    public AttachmentWriter(boolean verbose, @NotNull RandomSource randomSource, @NotNull String documentDirectory) {
+        this(verbose, randomSource, documentDirectory, false, 0, 1, getDefaultPictureMemory());
+    }
+
+    public AttachmentWriter(boolean verbose, @NotNull RandomSource randomSource, @NotNull String documentDirectory, boolean placeholders, int placeholderHeaderLength,
+            int pictureThreads, long pictureMemory) {
+        this.verbose = verbose;
+        this.randomSource = randomSource;
+        this.documentDirectory = documentDirectory;
+        this.placeholders = placeholders;
+        this.placeholderHeaderLength = placeholderHeaderLength;
+        picturePool = new WorkerPool(pictureThreads, "picture-randomizer"); //$NON-NLS-1$
+        pictureBudget = new MemoryBudget(pictureMemory);
+    }
+
+    // half of the heap, the rest is left for the XML processing
+    public static long getDefaultPictureMemory() {
+        return Runtime.getRuntime().maxMemory() / 2;
+    }
+
+    public long getPictureMemory() {
+        return pictureBudget.getLimit();
+    }
+
+    public boolean isPlaceholders() {
+        return placeholders;
+    }
+
+    // must be set before the first file is written
+    public void setJournal(@Nullable CheckpointJournal journal) {
+        this.journal = journal;
+    }
+
+    // must be set before the first file is written
+    public void setDeltaRun(@Nullable DeltaRun deltaRun) {
+        this.deltaRun = deltaRun;
+    }
+
+    public void write(@NotNull File originalFile, @NotNull File newFile) throws IOException {
+        if (journal != null) {
+            journal.attachmentClaimed(originalFile, newFile);
+        }
+        if (deltaRun != null && deltaRun.carryForward(originalFile, newFile)) {
+            written(originalFile, newFile);
+            return;
+        }
+        if (FileUtils.isPicture(originalFile.toPath())) {
+            try {
+                picturePool.submit(() -> {
+                    writePicture(originalFile, newFile);
+                    written(originalFile, newFile);
+                });
+            } catch (IOException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IOException(e);
+            }
+        } else {
+            writeOther(originalFile, newFile);
+            written(originalFile, newFile);
+        }
+    }
+
+    private void written(@NotNull File originalFile, @NotNull File newFile) throws IOException {
+        if (deltaRun != null) {
+            deltaRun.written(originalFile, newFile);
+        }
+        if (journal != null) {
+            journal.attachmentWritten(originalFile);
+        }
+    }
+
+    /**
+     * Writes the anonymized content of an attachment read from an archive to the stream. Only the length of the original file and the dimension of a
+     * picture are known, the dimension is <code>null</code> for other files and for pictures which cannot be read.
+     */
+    public void write(@NotNull File originalFile, long length, @Nullable Dimension dimension, @NotNull OutputStream out) throws IOException {
+        SplittableRandom random = getRandom(originalFile);
+        if (dimension != null) {
+            if (verbose) {
+                log.info("PICTURE: " + originalFile); //$NON-NLS-1$
+            }
+            boolean written;
+            try (ImageOutputStream imageOut = new MemoryCacheImageOutputStream(out)) {
+                written = PictureRandomizer.writeRandomPicture(dimension, FileUtils.getExtension(originalFile.toPath()), pictureBudget, random, imageOut);
+            }
+            if (written) {
+                return;
+            }
+            log.warn("File \"" + originalFile + "\" cannot be randomized as a picture, its content is replaced by random bytes."); //$NON-NLS-1$ //$NON-NLS-2$
+            // the same random bytes as for a file in the document directory
+            random = getRandom(originalFile);
+        }
+        if (placeholders) {
+            if (verbose) {
+                log.info("PLACEHOLDER: " + originalFile); //$NON-NLS-1$
+            }
+            RandomContentWriter.writePlaceholder(random, length, placeholderHeaderLength, Channels.newChannel(out));
+        } else {
+            if (verbose) {
+                log.info("OTHER FILE: " + originalFile); //$NON-NLS-1$
+            }
+            RandomContentWriter.write(random, length, Channels.newChannel(out));
+        }
+    }
+
+    /**
+     * Waits until all submitted pictures are written and rethrows the first failure.
+     */
+    public void awaitCompletion() throws Exception {
+        picturePool.awaitCompletion();
+    }
+
+    @Override
+    public void close() {
+        picturePool.close();
+    }
+
+    private void writePicture(@NotNull File originalFile, @NotNull File newFile) throws IOException {
+        try {
+            if (PictureRandomizer.randomizePictureContent(verbose, originalFile, newFile, pictureBudget, getRandom(originalFile))) {
+                return;
+            }
+        } catch (IOException e) {
+            throw new IOException("Failed to write randomized picture \"" + newFile + "\" for \"" + originalFile + "\"", e); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        }
+        log.warn("File \"" + originalFile + "\" cannot be randomized as a picture, its content is replaced by random bytes."); //$NON-NLS-1$ //$NON-NLS-2$
+        writeOther(originalFile, newFile);
+    }
+
+    @NotNull
+    private SplittableRandom getRandom(@NotNull File originalFile) {
+        return randomSource.stream(RandomSource.CONTENT, FileUtils.getRelativePath(documentDirectory, originalFile));
+    }
+
+    private void writeOther(@NotNull File originalFile, @NotNull File newFile) throws IOException {
+        long length = Files.size(originalFile.toPath());
+        if (placeholders) {
+            if (verbose) {
+                log.info("PLACEHOLDER: " + newFile.getAbsolutePath()); //$NON-NLS-1$
+            }
+            RandomContentWriter.writePlaceholder(getRandom(originalFile), length, placeholderHeaderLength, newFile);
+        } else {
+            if (verbose) {
+                log.info("OTHER FILE: " + newFile.getAbsolutePath()); //$NON-NLS-1$
+            }
+            RandomContentWriter.write(getRandom(originalFile), length, newFile);
+        }
+    }
+
+}
@@ -0,0 +1,299 @@
+/*
+ * Copyright 2016 Polarion AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.siemens.polarion.anonymizer;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Progress of a run, so a run which was killed can be resumed with <code>--resume</code> and only the remaining work is done. The journal is a text
+ * file next to the output directory with one record per line:
+ * <ul>
+ * <li><code>C</code> original path, new path - an attachment is being written under the new name,</li>
+ * <li><code>A</code> original path - the attachment is completely written,</li>
+ * <li><code>X</code> path - the XML file is completely written.</li>
+ * </ul>
+ * Paths are relative to the document and output directories. Records are written only after the file is closed and they are collected into
+ * batches, every batch is appended and forced to the disk at once. A crash loses at most the last batch, whose files are written again on resume.
+ * The journal is deleted when the run finishes.
+ */
+public class CheckpointJournal implements AutoCloseable {
+    @NotNull
+    public static final String SUFFIX = ".journal"; //$NON-NLS-1$
+    @NotNull
+    private static final String HEADER = "polarion-anonymizer-journal 2"; //$NON-NLS-1$
+    @NotNull
+    private static final String SEED = "seed"; //$NON-NLS-1$
+    @NotNull
+    private static final String KEY = "key"; //$NON-NLS-1$
+    @NotNull
+    private static final String CLAIMED = "C"; //$NON-NLS-1$
+    @NotNull
+    private static final String WRITTEN = "A"; //$NON-NLS-1$
+    @NotNull
+    private static final String XML = "X"; //$NON-NLS-1$
+    private static final int BATCH_RECORDS = 256;
+    private static final long BATCH_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+    @NotNull
+    private final File file;
+    @NotNull
+    private final String documentDirectory;
+    @NotNull
+    private final String anonymizedDirectory;
+    @NotNull
+    private final FileChannel channel;
+    @NotNull
+    private final StringBuilder batch = new StringBuilder();
+    private int batchRecords;
+    private long lastFlush = System.nanoTime();
+
+    // state of the resumed run
+    @NotNull
+    private final Set<String> completedXmlFiles;
+    @NotNull
+    private final Map<String, String> claimedAttachments;
+    @NotNull
+    private final Set<String> writtenAttachments;
+
+    private CheckpointJournal(@NotNull File file, @NotNull String documentDirectory, @NotNull String anonymizedDirectory, @NotNull FileChannel channel,
+            @NotNull Set<String> completedXmlFiles, @NotNull Map<String, String> claimedAttachments, @NotNull Set<String> writtenAttachments) {
+        this.file = file;
+        this.documentDirectory = documentDirectory;
+        this.anonymizedDirectory = anonymizedDirectory;
+        this.channel = channel;
+        this.completedXmlFiles = completedXmlFiles;
+        this.claimedAttachments = claimedAttachments;
+        this.writtenAttachments = writtenAttachments;
+    }
+
+    public static @NotNull File getFile(@NotNull String anonymizedDirectory) {
+        return new File(anonymizedDirectory + SUFFIX);
+    }
+
+    /**
+     * Starts a new journal, an old one is replaced. Only the fingerprints of the seed and of the key are recorded, the resumed run must be given the
+     * same seed or key, so it draws the same random data.
+     */
+    public static @NotNull CheckpointJournal create(@NotNull String documentDirectory, @NotNull String anonymizedDirectory, @NotNull RandomSource randomSource)
+            throws IOException {
+        File file = getFile(anonymizedDirectory);
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        CheckpointJournal journal = new CheckpointJournal(file, documentDirectory, anonymizedDirectory, channel, Collections.<String> emptySet(),
+                Collections.<String, String> emptyMap(), Collections.<String> emptySet());
+        journal.batch.append(HEADER).append('\n');
+        String seedFingerprint = randomSource.getSeedFingerprint();
+        if (seedFingerprint != null) {
+            journal.append(SEED, seedFingerprint, null);
+        }
+        String keyFingerprint = randomSource.getKeyFingerprint();
+        if (keyFingerprint != null) {
+            journal.append(KEY, keyFingerprint, null);
+        }
+        journal.flush();
+        return journal;
+    }
+
+    /**
+     * Reads the journal of a previous run and continues it. The random source must be created with the same seed or key as in the previous run.
+     */
+    public static @NotNull CheckpointJournal resume(@NotNull String documentDirectory, @NotNull String anonymizedDirectory, @NotNull RandomSource randomSource)
+            throws IOException {
+        File file = getFile(anonymizedDirectory);
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            // the end of a batch which was not written completely is dropped, its files are written again
+            long length = getCompleteLength(channel);
+            channel.truncate(length);
+            channel.position(length);
+            return resume(file, documentDirectory, anonymizedDirectory, randomSource, channel);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private static @NotNull CheckpointJournal resume(@NotNull File file, @NotNull String documentDirectory, @NotNull String anonymizedDirectory,
+            @NotNull RandomSource randomSource, @NotNull FileChannel channel) throws IOException {
+        Set<String> completedXmlFiles = new HashSet<String>();
+        Map<String, String> claimedAttachments = new LinkedHashMap<String, String>();
+        Set<String> writtenAttachments = new HashSet<String>();
+        Map<String, String> properties = new HashMap<String, String>();
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            if (!HEADER.equals(reader.readLine())) {
+                throw new IOException("File \"" + file + "\" is not a journal of the anonymizer."); //$NON-NLS-1$ //$NON-NLS-2$
+            }
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t", -1); //$NON-NLS-1$
+                if (fields.length < 2) {
+                    throw new IOException("Journal \"" + file + "\" contains an invalid record: " + line); //$NON-NLS-1$ //$NON-NLS-2$
+                }
+                String value = FileUtils.unescapeRecordField(fields[1]);
+                switch (fields[0]) {
+                case XML:
+                    completedXmlFiles.add(value);
+                    break;
+                case CLAIMED:
+                    if (fields.length == 3) {
+                        claimedAttachments.put(value, FileUtils.unescapeRecordField(fields[2]));
+                    }
+                    break;
+                case WRITTEN:
+                    writtenAttachments.add(value);
+                    break;
+                default:
+                    properties.put(fields[0], value);
+                    break;
+                }
+            }
+        }
+        if (!Objects.equals(randomSource.getSeedFingerprint(), properties.get(SEED))) {
+            throw new IOException("Journal \"" + file + "\" was written with another seed."); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+        if (!Objects.equals(randomSource.getKeyFingerprint(), properties.get(KEY))) {
+            throw new IOException("Journal \"" + file + "\" was written with another key."); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+        return new CheckpointJournal(file, documentDirectory, anonymizedDirectory, channel, completedXmlFiles, claimedAttachments, writtenAttachments);
+    }
+
+    // length up to the last line break
+    private static long getCompleteLength(@NotNull FileChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        long end = channel.size();
+        while (end > 0) {
+            long start = Math.max(0, end - buffer.capacity());
+            buffer.clear();
+            buffer.limit((int) (end - start));
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, start + buffer.position()) < 0) {
+                    break;
+                }
+            }
+            for (int i = buffer.position() - 1; i >= 0; i--) {
+                if (buffer.get(i) == '\n') {
+                    return start + i + 1;
+                }
+            }
+            end = start;
+        }
+        return 0;
+    }
+
+    public boolean isXmlCompleted(@NotNull File xmlFile) {
+        return completedXmlFiles.contains(FileUtils.getRelativePath(documentDirectory, xmlFile));
+    }
+
+    public int getCompletedXmlCount() {
+        return completedXmlFiles.size();
+    }
+
+    /**
+     * Attachments claimed by the previous run, by their original file. Their names are already referenced from written XML files.
+     */
+    public @NotNull Map<File, File> getClaimedAttachments() {
+        Map<File, File> claimed = new LinkedHashMap<File, File>();
+        for (Map.Entry<String, String> entry : claimedAttachments.entrySet()) {
+            claimed.put(new File(documentDirectory, entry.getKey()), new File(anonymizedDirectory, entry.getValue()));
+        }
+        return claimed;
+    }
+
+    public boolean isAttachmentWritten(@NotNull File originalFile) {
+        return writtenAttachments.contains(FileUtils.getRelativePath(documentDirectory, originalFile));
+    }
+
+    public int getWrittenAttachmentCount() {
+        return writtenAttachments.size();
+    }
+
+    public synchronized void attachmentClaimed(@NotNull File originalFile, @NotNull File newFile) throws IOException {
+        append(CLAIMED, FileUtils.getRelativePath(documentDirectory, originalFile), FileUtils.getRelativePath(anonymizedDirectory, newFile));
+    }
+
+    public synchronized void attachmentWritten(@NotNull File originalFile) throws IOException {
+        append(WRITTEN, FileUtils.getRelativePath(documentDirectory, originalFile), null);
+    }
+
+    public synchronized void xmlWritten(@NotNull File xmlFile) throws IOException {
+        append(XML, FileUtils.getRelativePath(documentDirectory, xmlFile), null);
+    }
+
+    private void append(@NotNull String type, @NotNull String value, @Nullable String secondValue) throws IOException {
+        batch.append(type).append('\t');
+        FileUtils.escapeRecordField(value, batch);
+        if (secondValue != null) {
+            batch.append('\t');
+            FileUtils.escapeRecordField(secondValue, batch);
+        }
+        batch.append('\n');
+        batchRecords++;
+        if (batchRecords >= BATCH_RECORDS || System.nanoTime() - lastFlush >= BATCH_NANOS) {
+            flush();
+        }
+    }
+
+    public synchronized void flush() throws IOException {
+        if (batch.length() > 0) {
+            ByteBuffer bytes = StandardCharsets.UTF_8.encode(batch.toString());
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+            channel.force(false);
+            batch.setLength(0);
+        }
+        batchRecords = 0;
+        lastFlush = System.nanoTime();
+    }
+
+    /**
+     * The run is complete, the journal is not needed anymore.
+     */
+    public synchronized void finish() throws IOException {
+        batch.setLength(0);
+        channel.close();
+        Files.deleteIfExists(file.toPath());
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (channel.isOpen()) {
+            try {
+                flush();
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright 2016 Polarion AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.siemens.polarion.anonymizer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Records the {@link Manifest} of a run and carries forward the outputs of a previous run whose sources did not change. The output of every file
+ * depends only on its own content and path, so an unchanged source with the same output path gets the same output as in the previous run and its
+ * old output is linked, or copied when the file system does not support links, instead of being anonymized again.
+ * <p>
+ * When the previous output directory is the output directory itself, unchanged outputs stay in place and the outputs of removed or renamed sources
+ * are deleted by {@link #finish()}. Without a previous manifest every file is written and only the new manifest is recorded.
+ */
+public class DeltaRun {
+    @NotNull
+    private final String documentDirectory;
+    @NotNull
+    private final String anonymizedDirectory;
+    @Nullable
+    private final String previousDirectory;
+    @Nullable
+    private final Manifest previous;
+    @NotNull
+    private final Manifest manifest;
+    private final boolean inPlace;
+    @NotNull
+    private final AtomicInteger carriedCount = new AtomicInteger();
+    @NotNull
+    private final AtomicInteger writtenCount = new AtomicInteger();
+    private int removedCount;
+
+    public DeltaRun(@NotNull String documentDirectory, @NotNull String anonymizedDirectory, @Nullable String previousDirectory, @Nullable Manifest previous,
+            @NotNull RandomSource randomSource) throws IOException {
+        if (previous != null) {
+            if (!Objects.equals(randomSource.getSeedFingerprint(), previous.getSeedFingerprint())) {
+                throw new IOException("Manifest of \"" + previousDirectory + "\" was written with another seed."); //$NON-NLS-1$ //$NON-NLS-2$
+            }
+            if (!Objects.equals(randomSource.getKeyFingerprint(), previous.getKeyFingerprint())) {
+                throw new IOException("Manifest of \"" + previousDirectory + "\" was written with another key."); //$NON-NLS-1$ //$NON-NLS-2$
+            }
+        }
+        this.documentDirectory = documentDirectory;
+        this.anonymizedDirectory = anonymizedDirectory;
+        this.previousDirectory = previousDirectory;
+        this.previous = previous;
+        manifest = new Manifest(randomSource.getSeedFingerprint(), randomSource.getKeyFingerprint());
+        inPlace = previousDirectory != null && isSameDirectory(previousDirectory, anonymizedDirectory);
+    }
+
+    public static boolean isSameDirectory(@NotNull String first, @NotNull String second) {
+        return Paths.get(first).toAbsolutePath().normalize().equals(Paths.get(second).toAbsolutePath().normalize());
+    }
+
+    public boolean isInPlace() {
+        return inPlace;
+    }
+
+    /**
+     * Hashes the sources, files whose size and modification time did not change since the previous run are not read.
+     */
+    public void scan(@NotNull Collection<File> sources, int threads) throws Exception {
+        try (WorkerPool pool = new WorkerPool(threads, "manifest-scanner")) { //$NON-NLS-1$
+            for (File source : sources) {
+                pool.submit(() -> scan(source));
+            }
+            pool.awaitCompletion();
+        }
+    }
+
+    @NotNull
+    private Manifest.Entry scan(@NotNull File source) throws IOException {
+        String sourcePath = FileUtils.getRelativePath(documentDirectory, source);
+        Manifest.Entry entry = Manifest.scan(source, previous != null ? previous.get(sourcePath) : null);
+        manifest.put(sourcePath, entry);
+        return entry;
+    }
+
+    /**
+     * New location of the output of the source in the previous run, <code>null</code> if the source was not part of it.
+     */
+    public @Nullable File getPreviousOutput(@NotNull File source) {
+        Manifest.Entry previousEntry = previous != null ? previous.get(FileUtils.getRelativePath(documentDirectory, source)) : null;
+        return previousEntry != null && previousEntry.output != null ? new File(anonymizedDirectory, previousEntry.output) : null;
+    }
+
+    /**
+     * Carries forward the previous output when the source did not change and gets the same output path, otherwise removes an existing output, so it
+     * is written again and a link to the output of another run is not written through.
+     */
+    public boolean carryForward(@NotNull File source, @NotNull File output) throws IOException {
+        String sourcePath = FileUtils.getRelativePath(documentDirectory, source);
+        Manifest.Entry previousEntry = previous != null ? previous.get(sourcePath) : null;
+        if (previousEntry != null) {
+            Manifest.Entry entry = manifest.get(sourcePath);
+            if (entry == null) {
+                // referenced file which was not found by the scan
+                entry = scan(source);
+            }
+            String outputPath = FileUtils.getRelativePath(anonymizedDirectory, output);
+            File previousOutput = new File(previousDirectory, outputPath);
+            if (outputPath.equals(previousEntry.output) && entry.hasSameContent(previousEntry) && previousOutput.isFile()) {
+                if (!inPlace) {
+                    FileUtils.tryToCreateDirForFile(output);
+                    FileUtils.linkOrCopy(previousOutput, output);
+                }
+                carriedCount.incrementAndGet();
+                return true;
+            }
+        }
+        Files.deleteIfExists(output.toPath());
+        return false;
+    }
+
+    /**
+     * Records the output of the source, it must be called for carried forward outputs as well.
+     */
+    public void written(@NotNull File source, @NotNull File output) throws IOException {
+        String sourcePath = FileUtils.getRelativePath(documentDirectory, source);
+        Manifest.Entry entry = manifest.get(sourcePath);
+        if (entry == null) {
+            entry = scan(source);
+        }
+        manifest.put(sourcePath, entry.withOutput(FileUtils.getRelativePath(anonymizedDirectory, output)));
+        writtenCount.incrementAndGet();
+    }
+
+    public int getCarriedCount() {
+        return carriedCount.get();
+    }
+
+    // outputs which were anonymized again
+    public int getWrittenCount() {
+        return writtenCount.get() - carriedCount.get();
+    }
+
+    public int getRemovedCount() {
+        return removedCount;
+    }
+
+    /**
+     * Deletes the outputs of the previous run which were not produced again when the run is done in place, then writes the new manifest.
+     */
+    public void finish() throws IOException {
+        if (inPlace && previous != null) {
+            Set<String> outputs = new HashSet<String>();
+            for (Manifest.Entry entry : manifest.getEntries().values()) {
+                outputs.add(entry.output);
+            }
+            for (Manifest.Entry previousEntry : previous.getEntries().values()) {
+                if (previousEntry.output != null && !outputs.contains(previousEntry.output)) {
+                    File output = new File(anonymizedDirectory, previousEntry.output);
+                    if (Files.deleteIfExists(output.toPath())) {
+                        removedCount++;
+                        deleteEmptyParents(output);
+                    }
+                }
+            }
+        }
+        manifest.write(Manifest.getFile(anonymizedDirectory));
+    }
+
+    // directories of removed work items are not left behind
+    private void deleteEmptyParents(@NotNull File file) {
+        File root = new File(anonymizedDirectory).getAbsoluteFile();
+        for (File parent = file.getAbsoluteFile().getParentFile(); parent != null && !parent.equals(root); parent = parent.getParentFile()) {
+            if (!parent.delete()) {
+                return;
+            }
+        }
+    }
+
+}
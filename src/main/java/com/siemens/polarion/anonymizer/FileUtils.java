@@ -15,96 +15,91 @@
  */
 package com.siemens.polarion.anonymizer;
 
-import java.io.BufferedOutputStream;
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
-import java.nio.charset.Charset;
+import java.nio.channels.FileChannel;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
 import java.util.Locale;
-import java.util.Random;
-
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.OutputKeys;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.jetbrains.annotations.NotNull;
-import org.w3c.dom.Document;
-import org.xml.sax.SAXException;
 
 public class FileUtils {
     @NotNull
     private static final Logger log = LogManager.getLogger(FileUtils.class);
 
-    protected static @NotNull Document createDocFromFile(@NotNull File inputFile) throws ParserConfigurationException, SAXException, IOException {
-        Document doc = null;
-        DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
-        DocumentBuilder dBuilder = dbFactory.newDocumentBuilder();
-        doc = dBuilder.parse(inputFile);
-        doc.getDocumentElement().normalize();
-        return doc;
-    }
-
-    protected static void createFileFromDoc(@NotNull File outputFile, @NotNull Document doc) throws IOException, TransformerException {
-        tryToCreateDirForFile(outputFile);
-        if (!outputFile.createNewFile()) {
-            log.warn("File \"" + outputFile + "\" already exists."); //$NON-NLS-1$ //$NON-NLS-2$
-        }
-        TransformerFactory tf = TransformerFactory.newInstance();
-        Transformer transformer = tf.newTransformer();
-        transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes"); //$NON-NLS-1$
-        BufferedWriter bwr = Files.newBufferedWriter(outputFile.toPath(), Charset.forName("UTF-8")); //$NON-NLS-1$
-        bwr.write("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>\n"); //$NON-NLS-1$
-        transformer.transform(new DOMSource(doc), new StreamResult(bwr));
-    }
-
-    protected static void renameAndCopyAttachmentFile(@NotNull String directory, @NotNull String originalName, @NotNull String newName) throws IOException {
+    protected static void renameAndRandomizeAttachmentFile(@NotNull AttachmentWriter attachmentWriter, @NotNull String directory, @NotNull String originalName, @NotNull String newName) throws IOException {
         File originalFile = new File(directory + "/attachments/" + originalName); //$NON-NLS-1$
         File newFile = new File(directory + Anonymizer.anonymizedSuffix + "/attachments/" + newName); //$NON-NLS-1$
         tryToCreateDirForFile(newFile);
-        Files.copy(originalFile.toPath(), newFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        attachmentWriter.write(originalFile, newFile);
     }
 
-    protected static void renameAndCopyFile(@NotNull String originalDirectory, @NotNull String originalName, @NotNull String newDirectory, @NotNull String newName) throws IOException {
+    protected static void renameAndRandomizeFile(@NotNull AttachmentWriter attachmentWriter, @NotNull String originalDirectory, @NotNull String originalName, @NotNull String newDirectory, @NotNull String newName)
+            throws IOException {
         File originalFile = new File(originalDirectory + "/" + originalName); //$NON-NLS-1$
         File newFile = new File(newDirectory + "/" + newName); //$NON-NLS-1$
         tryToCreateDirForFile(newFile);
         if (originalFile.exists()) {
             try {
-                Files.copy(originalFile.toPath(), newFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                attachmentWriter.write(originalFile, newFile);
             } catch (IOException e) {
-                throw new IOException("Failed to copy file \"" + originalFile + "\" to \"" + newFile + "\"", e); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+                throw new IOException("Failed to write randomized file \"" + newFile + "\" for \"" + originalFile + "\"", e); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
             }
         } else {
             log.warn("File \"" + originalFile + "\" was not found!"); //$NON-NLS-1$ //$NON-NLS-2$
         }
     }
 
-    private static void tryToCreateDirForFile(File inputFile) throws IOException {
+    static void tryToCreateDirForFile(@NotNull File inputFile) throws IOException {
         File parentFile = inputFile.getParentFile();
-        if (!parentFile.exists() && !parentFile.mkdirs()) {
+        // checking the directory after mkdirs() fails keeps this safe when another thread creates it at the same time
+        if (!parentFile.mkdirs() && !parentFile.isDirectory()) {
             throw new IOException("Directory \"" + parentFile + "\" cannot be created."); //$NON-NLS-1$ //$NON-NLS-2$
         }
     }
 
+    // hard link when the file system supports it, the output is never written through, it is deleted before it is written again
+    static void linkOrCopy(@NotNull File existingFile, @NotNull File newFile) throws IOException {
+        try {
+            Files.createLink(newFile.toPath(), existingFile.toPath());
+        } catch (IOException | UnsupportedOperationException e) {
+            copy(existingFile, newFile);
+        }
+    }
+
+    // byte-preserving copy, large files are transferred by the kernel without going through buffers of the process
+    static void copy(@NotNull File existingFile, @NotNull File newFile) throws IOException {
+        if (existingFile.length() < MappedInputStream.MAPPING_THRESHOLD) {
+            Files.copy(existingFile.toPath(), newFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            return;
+        }
+        Files.deleteIfExists(newFile.toPath());
+        try (FileChannel in = FileChannel.open(existingFile.toPath(), StandardOpenOption.READ);
+                FileChannel out = FileChannel.open(newFile.toPath(), StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW)) {
+            long size = in.size();
+            long position = 0;
+            while (position < size) {
+                long transferred = in.transferTo(position, size - position, out);
+                if (transferred <= 0) {
+                    throw new IOException("File \"" + existingFile + "\" was truncated while it was copied."); //$NON-NLS-1$ //$NON-NLS-2$
+                }
+                position += transferred;
+            }
+        }
+    }
+
     protected static @NotNull ArrayList<File> findXMLFiles(@NotNull String path) throws IOException {
         final ArrayList<File> xmlList = new ArrayList<File>();
         Path root = Paths.get(path);
@@ -145,36 +140,19 @@ public class FileUtils {
         return false;
     }
 
-    protected static void randomizeFilesContent(@NotNull String directory, final boolean verbose) throws IOException {
-        final Random rnd = new Random();
-        Path root = Paths.get(directory);
-        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
-            @Override
-            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-                String extension = getExtension(file);
-                if (extension.equals("jpg") || extension.equals("jpeg") || extension.equals("png") || extension.equals("bmp") || extension.equals("gif")) { //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$
-                    PictureRandomizer.randomizePictureContent(verbose, file.toFile());
-                } else {
-                    if (!extension.equals("xml")) { //$NON-NLS-1$
-                        randomizeFileContent(verbose, rnd, file.toFile());
-                    }
-                }
-
-                return FileVisitResult.CONTINUE;
-            }
-        });
+    // path of the file relative to the directory with '/' as separator, the path of a file outside of the directory is absolute
+    static @NotNull String getRelativePath(@NotNull String directory, @NotNull File file) {
+        Path root = Paths.get(directory).toAbsolutePath().normalize();
+        Path path = file.toPath().toAbsolutePath().normalize();
+        if (path.startsWith(root)) {
+            path = root.relativize(path);
+        }
+        return path.toString().replace(File.separatorChar, '/');
     }
 
-    static void randomizeFileContent(boolean verbose, @NotNull Random rnd, @NotNull File file) throws IOException {
-        if (verbose) {
-            log.info("OTHER FILE: " + file.getAbsolutePath()); //$NON-NLS-1$
-        }
-        long length = file.length();
-        try (BufferedOutputStream buffOutStream = new BufferedOutputStream(new FileOutputStream(file))) {
-            for (int i = 0; i < length; i++) {
-                buffOutStream.write(rnd.nextInt());
-            }
-        }
+    static boolean isPicture(@NotNull Path file) {
+        String extension = getExtension(file);
+        return extension.equals("jpg") || extension.equals("jpeg") || extension.equals("png") || extension.equals("bmp") || extension.equals("gif"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$
     }
 
     protected static @NotNull String getExtension(@NotNull Path file) {
@@ -193,4 +171,45 @@ public class FileUtils {
         return URLDecoder.decode(fileName, "UTF-8"); //$NON-NLS-1$
     }
 
+    // tab separated records of the journal and the manifest, the separators in paths are escaped
+    static void escapeRecordField(@NotNull String value, @NotNull StringBuilder output) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+            case '\\':
+                output.append("\\\\"); //$NON-NLS-1$
+                break;
+            case '\t':
+                output.append("\\t"); //$NON-NLS-1$
+                break;
+            case '\n':
+                output.append("\\n"); //$NON-NLS-1$
+                break;
+            case '\r':
+                output.append("\\r"); //$NON-NLS-1$
+                break;
+            default:
+                output.append(c);
+                break;
+            }
+        }
+    }
+
+    static @NotNull String unescapeRecordField(@NotNull String value) {
+        if (value.indexOf('\\') < 0) {
+            return value;
+        }
+        StringBuilder output = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' && i + 1 < value.length()) {
+                char next = value.charAt(++i);
+                output.append(next == 't' ? '\t' : next == 'n' ? '\n' : next == 'r' ? '\r' : next);
+            } else {
+                output.append(c);
+            }
+        }
+        return output.toString();
+    }
+
 }
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2016 Polarion AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.siemens.polarion.anonymizer;
+
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+
+import javax.crypto.Mac;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * HMAC-SHA256 of keys with a secret of the user. Without the secret the original keys cannot be found from the hashes, with the same secret
+ * separate runs and processes get the same hashes without sharing any state.
+ */
+public class KeyedHash {
+    @NotNull
+    private static final String ALGORITHM = "HmacSHA256"; //$NON-NLS-1$
+
+    @NotNull
+    private final ThreadLocal<Hasher> hashers;
+
+    // Mac is not thread safe, every thread has its own one with buffers for the input and the output
+    private static final class Hasher {
+        @NotNull
+        final Mac mac;
+        @NotNull
+        byte[] input = new byte[256];
+        @NotNull
+        final byte[] output;
+
+        Hasher(@NotNull SecretKeySpec key) {
+            try {
+                mac = Mac.getInstance(ALGORITHM);
+                mac.init(key);
+            } catch (GeneralSecurityException e) {
+                // HmacSHA256 is available in every Java platform
+                throw new IllegalStateException(e);
+            }
+            output = new byte[mac.getMacLength()];
+        }
+    }
+
+    public KeyedHash(@NotNull byte[] secret) {
+        if (secret.length == 0) {
+            throw new IllegalArgumentException("Secret must not be empty."); //$NON-NLS-1$
+        }
+        SecretKeySpec key = new SecretKeySpec(secret, ALGORITHM);
+        // fails early if the algorithm is not available
+        new Hasher(key);
+        hashers = ThreadLocal.withInitial(() -> new Hasher(key));
+    }
+
+    /**
+     * Hash of the parts, every part is prefixed by its length, so ("ab", "c") and ("a", "bc") give different hashes.
+     */
+    public long hash(@NotNull String... parts) {
+        Hasher hasher = hashers.get();
+        int length = 0;
+        for (String part : parts) {
+            length += 4 + part.length() * 2;
+        }
+        if (hasher.input.length < length) {
+            hasher.input = Arrays.copyOf(hasher.input, Math.max(length, hasher.input.length * 2));
+        }
+        byte[] input = hasher.input;
+        int position = 0;
+        for (String part : parts) {
+            int partLength = part.length();
+            input[position++] = (byte) (partLength >>> 24);
+            input[position++] = (byte) (partLength >>> 16);
+            input[position++] = (byte) (partLength >>> 8);
+            input[position++] = (byte) partLength;
+            for (int i = 0; i < partLength; i++) {
+                char c = part.charAt(i);
+                input[position++] = (byte) (c >>> 8);
+                input[position++] = (byte) c;
+            }
+        }
+        Mac mac = hasher.mac;
+        mac.update(input, 0, position);
+        byte[] output = hasher.output;
+        try {
+            mac.doFinal(output, 0);
+        } catch (ShortBufferException e) {
+            throw new IllegalStateException(e);
+        }
+        long hash = 0;
+        for (int i = 0; i < Long.BYTES; i++) {
+            hash = (hash << 8) | (output[i] & 0xFF);
+        }
+        return hash;
+    }
+
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright 2016 Polarion AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.siemens.polarion.anonymizer;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Source files of a run with the hashes of their content and their output files, written next to the output directory as
+ * <code>&lt;directory&gt;_anonymized.manifest</code>. A delta run compares the current sources with the manifest of the previous run and anonymizes
+ * only the files which were added or changed.
+ */
+public class Manifest {
+    @NotNull
+    public static final String SUFFIX = ".manifest"; //$NON-NLS-1$
+    @NotNull
+    private static final String HEADER = "polarion-anonymizer-manifest 2"; //$NON-NLS-1$
+    @NotNull
+    private static final String SEED = "seed"; //$NON-NLS-1$
+    @NotNull
+    private static final String KEY = "key"; //$NON-NLS-1$
+    @NotNull
+    private static final String FILE = "F"; //$NON-NLS-1$
+    private static final int BUFFER_SIZE = 64 * 1024;
+    @NotNull
+    private static final ThreadLocal<ByteBuffer> hashBuffer = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(BUFFER_SIZE));
+
+    // the seed and the key are secret, only their fingerprints are recorded
+    @Nullable
+    private final String seedFingerprint;
+    @Nullable
+    private final String keyFingerprint;
+    // by the path of the source relative to the document directory
+    @NotNull
+    private final Map<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+    public static final class Entry {
+        final long size;
+        final long modified;
+        @NotNull
+        final String hash;
+        // path relative to the output directory, null while the output is not known
+        @Nullable
+        final String output;
+
+        Entry(long size, long modified, @NotNull String hash, @Nullable String output) {
+            this.size = size;
+            this.modified = modified;
+            this.hash = hash;
+            this.output = output;
+        }
+
+        @NotNull
+        Entry withOutput(@NotNull String output) {
+            return new Entry(size, modified, hash, output);
+        }
+
+        boolean hasSameContent(@NotNull Entry other) {
+            return size == other.size && hash.equals(other.hash);
+        }
+    }
+
+    public Manifest(@Nullable String seedFingerprint, @Nullable String keyFingerprint) {
+        this.seedFingerprint = seedFingerprint;
+        this.keyFingerprint = keyFingerprint;
+    }
+
+    public static @NotNull File getFile(@NotNull String anonymizedDirectory) {
+        return new File(anonymizedDirectory + SUFFIX);
+    }
+
+    public @Nullable String getSeedFingerprint() {
+        return seedFingerprint;
+    }
+
+    public @Nullable String getKeyFingerprint() {
+        return keyFingerprint;
+    }
+
+    public @Nullable Entry get(@NotNull String source) {
+        return entries.get(source);
+    }
+
+    public void put(@NotNull String source, @NotNull Entry entry) {
+        entries.put(source, entry);
+    }
+
+    public @NotNull Map<String, Entry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * State of the source file. The hash of the previous entry is used when the size and the modification time did not change, otherwise the file is
+     * read.
+     */
+    public static @NotNull Entry scan(@NotNull File source, @Nullable Entry previous) throws IOException {
+        long size = Files.size(source.toPath());
+        long modified = Files.getLastModifiedTime(source.toPath()).toMillis();
+        if (previous != null && previous.size == size && previous.modified == modified) {
+            return new Entry(size, modified, previous.hash, null);
+        }
+        return new Entry(size, modified, hash(source), null);
+    }
+
+    static @NotNull String hash(@NotNull File file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256"); //$NON-NLS-1$
+        } catch (NoSuchAlgorithmException e) {
+            // SHA-256 is available in every Java platform
+            throw new IllegalStateException(e);
+        }
+        ByteBuffer buffer = hashBuffer.get();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            buffer.clear();
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+        StringBuilder hash = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hash.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hash.toString();
+    }
+
+    public static @NotNull Manifest read(@NotNull File file) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            if (!HEADER.equals(reader.readLine())) {
+                throw new IOException("File \"" + file + "\" is not a manifest of the anonymizer."); //$NON-NLS-1$ //$NON-NLS-2$
+            }
+            String seedFingerprint = null;
+            String keyFingerprint = null;
+            Map<String, Entry> entries = new TreeMap<String, Entry>();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t", -1); //$NON-NLS-1$
+                try {
+                    if (fields[0].equals(SEED) && fields.length == 2) {
+                        seedFingerprint = fields[1];
+                    } else if (fields[0].equals(KEY) && fields.length == 2) {
+                        keyFingerprint = fields[1];
+                    } else if (fields[0].equals(FILE) && fields.length == 6) {
+                        entries.put(FileUtils.unescapeRecordField(fields[1]),
+                                new Entry(Long.parseLong(fields[2]), Long.parseLong(fields[3]), fields[4], FileUtils.unescapeRecordField(fields[5])));
+                    } else {
+                        throw new IOException("Manifest \"" + file + "\" contains an invalid record: " + line); //$NON-NLS-1$ //$NON-NLS-2$
+                    }
+                } catch (NumberFormatException e) {
+                    throw new IOException("Manifest \"" + file + "\" contains an invalid record: " + line, e); //$NON-NLS-1$ //$NON-NLS-2$
+                }
+            }
+            Manifest manifest = new Manifest(seedFingerprint, keyFingerprint);
+            manifest.entries.putAll(entries);
+            return manifest;
+        }
+    }
+
+    /**
+     * Writes the manifest to a temporary file which then replaces the old one, so an interrupted run does not leave a broken manifest.
+     */
+    public void write(@NotNull File file) throws IOException {
+        File temporaryFile = new File(file.getPath() + ".tmp"); //$NON-NLS-1$
+        try (BufferedWriter writer = Files.newBufferedWriter(temporaryFile.toPath(), StandardCharsets.UTF_8)) {
+            StringBuilder line = new StringBuilder();
+            line.append(HEADER).append('\n');
+            if (seedFingerprint != null) {
+                line.append(SEED).append('\t').append(seedFingerprint).append('\n');
+            }
+            if (keyFingerprint != null) {
+                line.append(KEY).append('\t').append(keyFingerprint).append('\n');
+            }
+            writer.write(line.toString());
+            for (Map.Entry<String, Entry> entry : new TreeMap<String, Entry>(entries).entrySet()) {
+                Entry value = entry.getValue();
+                if (value.output == null) {
+                    // source which did not get any output
+                    continue;
+                }
+                line.setLength(0);
+                line.append(FILE).append('\t');
+                FileUtils.escapeRecordField(entry.getKey(), line);
+                line.append('\t').append(value.size).append('\t').append(value.modified).append('\t').append(value.hash).append('\t');
+                FileUtils.escapeRecordField(value.output, line);
+                line.append('\n');
+                writer.write(line.toString());
+            }
+        }
+        Files.move(temporaryFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2016 Polarion AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.siemens.polarion.anonymizer;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Reads a file through memory mapped regions, so the parsers read the pages of the file directly instead of copying them through read calls. The
+ * regions are mapped one after another, a single mapping is limited to 2 GB. Files smaller than {@link #MAPPING_THRESHOLD} are read through a
+ * buffered stream, mapping them costs more than reading them.
+ */
+public class MappedInputStream extends InputStream {
+    static final long MAPPING_THRESHOLD = 1024 * 1024;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long REGION_SIZE = 256L * 1024 * 1024;
+
+    @NotNull
+    private final FileChannel channel;
+    private final long size;
+    private final long regionSize;
+    // position of the current region in the file
+    private long regionStart;
+    @Nullable
+    private MappedByteBuffer region;
+
+    MappedInputStream(@NotNull FileChannel channel, long regionSize) throws IOException {
+        this.channel = channel;
+        this.size = channel.size();
+        this.regionSize = regionSize;
+        region = map(0);
+    }
+
+    /**
+     * Opens the file for reading, large files are mapped.
+     */
+    public static @NotNull InputStream open(@NotNull File file) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        long size;
+        try {
+            size = channel.size();
+            if (size >= MAPPING_THRESHOLD) {
+                return new MappedInputStream(channel, REGION_SIZE);
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        // the buffer of a small file is not larger than the file
+        return new BufferedInputStream(Channels.newInputStream(channel), (int) Math.max(1, Math.min(size, BUFFER_SIZE)));
+    }
+
+    @Override
+    public int read() throws IOException {
+        MappedByteBuffer buffer = nextRegion();
+        return buffer != null ? buffer.get() & 0xFF : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        MappedByteBuffer buffer = nextRegion();
+        if (buffer == null) {
+            return -1;
+        }
+        int n = Math.min(len, buffer.remaining());
+        buffer.get(b, off, n);
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        MappedByteBuffer buffer = nextRegion();
+        if (buffer == null || n <= 0) {
+            return 0;
+        }
+        int skipped = (int) Math.min(n, buffer.remaining());
+        buffer.position(buffer.position() + skipped);
+        return skipped;
+    }
+
+    @Override
+    public int available() throws IOException {
+        MappedByteBuffer buffer = region;
+        return buffer != null ? (int) Math.min(size - regionStart - buffer.position(), Integer.MAX_VALUE) : 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        // the regions are unmapped when they are collected
+        region = null;
+        channel.close();
+    }
+
+    // the current region, the next one when it is read to the end, null at the end of the file
+    private @Nullable MappedByteBuffer nextRegion() throws IOException {
+        MappedByteBuffer buffer = region;
+        if (buffer == null) {
+            throw new IOException("Stream is closed."); //$NON-NLS-1$
+        }
+        if (!buffer.hasRemaining()) {
+            if (regionStart + buffer.capacity() >= size) {
+                return null;
+            }
+            buffer = map(regionStart + buffer.capacity());
+            region = buffer;
+        }
+        return buffer;
+    }
+
+    private @NotNull MappedByteBuffer map(long start) throws IOException {
+        regionStart = start;
+        return channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(regionSize, size - start));
+    }
+
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2016 Polarion AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.siemens.polarion.anonymizer;
+
+import java.io.InterruptedIOException;
+
+/**
+ * Limits the memory used by tasks running at the same time. A task waits until its memory fits into the budget, a task needing more than the whole
+ * budget is admitted when no other task is running.
+ */
+public class MemoryBudget {
+    private final long limit;
+    private long used;
+
+    public MemoryBudget(long limit) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Memory budget must be positive, but was " + limit + "."); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+        this.limit = limit;
+    }
+
+    public long getLimit() {
+        return limit;
+    }
+
+    /**
+     * Waits until the memory is available and returns the amount which has to be passed to {@link #release(long)} when the task is finished.
+     */
+    public synchronized long acquire(long bytes) throws InterruptedIOException {
+        long granted = Math.min(Math.max(bytes, 0), limit);
+        while (used > 0 && used + granted > limit) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Waiting for memory was interrupted."); //$NON-NLS-1$
+            }
+        }
+        used += granted;
+        return granted;
+    }
+
+    public synchronized void release(long granted) {
+        used -= granted;
+        notifyAll();
+    }
+
+    synchronized long getUsed() {
+        return used;
+    }
+
+}
@@ -15,56 +15,189 @@
  */
 package com.siemens.polarion.anonymizer;
 
+import java.awt.Dimension;
 import java.awt.image.BufferedImage;
-import java.io.BufferedInputStream;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.util.Random;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.LongAdder;
 
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 public class PictureRandomizer {
-    private static final Random rnd = new Random();
     private static final int PIXEL_BLOCK_SIZE = 15;
     @NotNull
     private static final Logger log = LogManager.getLogger(PictureRandomizer.class);
+    @NotNull
+    private static final LongAdder headerReads = new LongAdder();
+    @NotNull
+    private static final LongAdder headerReadTime = new LongAdder();
+    @NotNull
+    private static final LongAdder undecodedPixels = new LongAdder();
+    @NotNull
+    private static final LongAdder fullDecodes = new LongAdder();
+    @NotNull
+    private static final LongAdder fullDecodeTime = new LongAdder();
 
-    protected static void randomizePictureContent(boolean verbose, @NotNull File file) throws IOException {
-        String suffix = FileUtils.getExtension(file.toPath());
+    /**
+     * Writes a random picture with the dimensions of the original picture to the new file. Returns <code>false</code> when the original file cannot
+     * be read as a picture or its format cannot be written, the new file does not exist in that case.
+     */
+    protected static boolean randomizePictureContent(boolean verbose, @NotNull File originalFile, @NotNull File newFile) throws IOException {
+        return randomizePictureContent(verbose, originalFile, newFile, null, new SplittableRandom());
+    }
+
+    /**
+     * Same as {@link #randomizePictureContent(boolean, File, File)}, the memory of the random picture is taken from the budget while it exists and
+     * the colors are drawn from the given stream.
+     */
+    protected static boolean randomizePictureContent(boolean verbose, @NotNull File originalFile, @NotNull File newFile, @Nullable MemoryBudget budget,
+            @NotNull SplittableRandom random) throws IOException {
+        String suffix = FileUtils.getExtension(originalFile.toPath());
         if (verbose) {
-            log.info("PICTURE: " + file.getAbsolutePath()); //$NON-NLS-1$
+            log.info("PICTURE: " + newFile.getAbsolutePath()); //$NON-NLS-1$
+        }
+        Dimension dimension = readDimension(originalFile);
+        if (dimension == null) {
+            return false;
+        }
+        // the file is not truncated by the image output stream
+        Files.deleteIfExists(newFile.toPath());
+        boolean written;
+        try (ImageOutputStream out = ImageIO.createImageOutputStream(newFile)) {
+            written = writeRandomPicture(dimension, suffix, budget, random, out);
+        }
+        if (!written) {
+            Files.deleteIfExists(newFile.toPath());
+        }
+        return written;
+    }
+
+    /**
+     * Writes a random picture of the dimension in the format given by the suffix. The memory of the picture is taken from the budget while it exists.
+     * Returns <code>false</code> when there is no writer for the format, nothing is written in that case.
+     */
+    static boolean writeRandomPicture(@NotNull Dimension dimension, @NotNull String suffix, @Nullable MemoryBudget budget, @NotNull SplittableRandom random,
+            @NotNull ImageOutputStream out) throws IOException {
+        long granted = budget != null ? budget.acquire(getMemorySize(dimension)) : 0;
+        try {
+            // the writers of formats without alpha channel do not accept pictures with it
+            int type = hasAlpha(suffix) ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+            BufferedImage image = fillImageContent(new BufferedImage(dimension.width, dimension.height, type), random);
+            return ImageIO.write(image, suffix, out);
+        } finally {
+            if (budget != null) {
+                budget.release(granted);
+            }
         }
-        BufferedImage image = null;
-        image = ImageIO.read(new BufferedInputStream(new FileInputStream(file)));
-        int width = image.getWidth();
-        int height = image.getHeight();
-        if (!suffix.equals("bmp")) { //$NON-NLS-1$
-            image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
-        } else {
-            image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    }
+
+    private static boolean hasAlpha(@NotNull String suffix) {
+        return !suffix.equals("jpg") && !suffix.equals("jpeg") && !suffix.equals("bmp"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+    }
+
+    // the random picture is backed by one int per pixel
+    static long getMemorySize(@NotNull Dimension dimension) {
+        return (long) dimension.width * dimension.height * Integer.BYTES;
+    }
+
+    /**
+     * Returns the dimension of the picture, or <code>null</code> when the file cannot be read as a picture. The dimension is read from the header of
+     * the picture by an {@link ImageReader} without decoding the pixels, the picture is fully decoded only when no reader can read the header.
+     */
+    static @Nullable Dimension readDimension(@NotNull File file) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(file)) {
+            return in != null ? readDimension(in) : null;
+        }
+    }
+
+    /**
+     * Same as {@link #readDimension(File)} for a picture read from a stream, the stream must be able to seek back to its start.
+     */
+    static @Nullable Dimension readDimension(@NotNull ImageInputStream in) throws IOException {
+        long start = System.nanoTime();
+        Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+        while (readers.hasNext()) {
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                Dimension dimension = new Dimension(reader.getWidth(0), reader.getHeight(0));
+                headerReads.increment();
+                headerReadTime.add(System.nanoTime() - start);
+                undecodedPixels.add((long) dimension.width * dimension.height);
+                return dimension;
+            } catch (IOException | RuntimeException e) {
+                // header cannot be read by this reader, try the next one
+                in.seek(0);
+            } finally {
+                reader.dispose();
+            }
+        }
+        start = System.nanoTime();
+        in.seek(0);
+        BufferedImage image = ImageIO.read(in);
+        fullDecodes.increment();
+        fullDecodeTime.add(System.nanoTime() - start);
+        return image != null ? new Dimension(image.getWidth(), image.getHeight()) : null;
+    }
+
+    // the statistics are kept for the whole JVM, every run starts them again
+    static void resetStatistics() {
+        headerReads.reset();
+        headerReadTime.reset();
+        undecodedPixels.reset();
+        fullDecodes.reset();
+        fullDecodeTime.reset();
+    }
+
+    static long getHeaderReadCount() {
+        return headerReads.sum();
+    }
+
+    static void logStatistics() {
+        if (headerReads.sum() == 0 && fullDecodes.sum() == 0) {
+            return;
+        }
+        log.info(String.format(Locale.ENGLISH, "Picture dimensions read from headers: %d in %.3f ms, %d megapixels were not decoded", //$NON-NLS-1$
+                headerReads.sum(), headerReadTime.sum() / 1_000_000.0, undecodedPixels.sum() / 1_000_000));
+        if (fullDecodes.sum() > 0) {
+            log.info(String.format(Locale.ENGLISH, "Pictures fully decoded: %d in %.3f ms", fullDecodes.sum(), fullDecodeTime.sum() / 1_000_000.0)); //$NON-NLS-1$
         }
-        image = fillImageContent(image);
-        ImageIO.write(image, suffix, file);
     }
 
     protected static @NotNull BufferedImage fillImageContent(@NotNull BufferedImage image) {
+        return fillImageContent(image, new SplittableRandom());
+    }
+
+    protected static @NotNull BufferedImage fillImageContent(@NotNull BufferedImage image, @NotNull SplittableRandom random) {
+        int type = image.getType();
+        WritableRaster raster = image.getRaster();
+        if ((type == BufferedImage.TYPE_INT_ARGB || type == BufferedImage.TYPE_INT_RGB) && raster.getDataBuffer() instanceof DataBufferInt
+                && raster.getSampleModel() instanceof SinglePixelPackedSampleModel && raster.getSampleModelTranslateX() == 0 && raster.getSampleModelTranslateY() == 0) {
+            fillPixels(((DataBufferInt) raster.getDataBuffer()).getData(), raster.getDataBuffer().getOffset(),
+                    ((SinglePixelPackedSampleModel) raster.getSampleModel()).getScanlineStride(), image.getWidth(), image.getHeight(), type == BufferedImage.TYPE_INT_ARGB,
+                    random);
+            return image;
+        }
+        boolean alpha = type == BufferedImage.TYPE_INT_ARGB;
         for (int x = 0; x < image.getWidth(); x += PIXEL_BLOCK_SIZE) {
             for (int y = 0; y < image.getHeight(); y += PIXEL_BLOCK_SIZE) {
-                int r = rnd.nextInt(256);
-                int g = rnd.nextInt(256);
-                int b = rnd.nextInt(256);
-                int p;
-                if (image.getType() == BufferedImage.TYPE_INT_ARGB) {
-                    int a = 255;
-                    p = (a << 24) | (r << 16) | (g << 8) | b;
-                } else {
-                    p = (r << 16) | (g << 8) | b;
-                }
+                int p = randomColor(alpha, random);
                 for (int i = 0; i < PIXEL_BLOCK_SIZE && x + i < image.getWidth(); i++) {
                     for (int j = 0; j < PIXEL_BLOCK_SIZE && y + j < image.getHeight(); j++) {
                         image.setRGB(x + i, y + j, p);
@@ -74,4 +207,22 @@ public class PictureRandomizer {
         }
         return image;
     }
+
+    // fills the first pixel row of every block row span by span and copies it to the other pixel rows of the block row
+    private static void fillPixels(@NotNull int[] data, int offset, int scanlineStride, int width, int height, boolean alpha, @NotNull SplittableRandom random) {
+        for (int y = 0; y < height; y += PIXEL_BLOCK_SIZE) {
+            int rowStart = offset + y * scanlineStride;
+            for (int x = 0; x < width; x += PIXEL_BLOCK_SIZE) {
+                Arrays.fill(data, rowStart + x, rowStart + Math.min(x + PIXEL_BLOCK_SIZE, width), randomColor(alpha, random));
+            }
+            for (int j = 1; j < PIXEL_BLOCK_SIZE && y + j < height; j++) {
+                System.arraycopy(data, rowStart, data, rowStart + j * scanlineStride, width);
+            }
+        }
+    }
+
+    private static int randomColor(boolean alpha, @NotNull SplittableRandom random) {
+        int rgb = random.nextInt() & 0xFFFFFF;
+        return alpha ? 0xFF000000 | rgb : rgb;
+    }
 }
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2016 Polarion AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.siemens.polarion.anonymizer;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiFunction;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Pseudonyms of repeated field values, e.g. user IDs or enum IDs, keyed by the kind of the field and the original value. The cache is split into
+ * segments, each of them is a LRU map with its own lock, so threads looking up different values rarely wait for each other. The pseudonyms are
+ * derived only from the kind and the value, so a value evicted from the cache gets the same pseudonym again.
+ */
+public class PseudonymCache {
+    private static final int SEGMENT_COUNT = 16;
+
+    @NotNull
+    private final Segment[] segments = new Segment[SEGMENT_COUNT];
+    @NotNull
+    private final LongAdder hits = new LongAdder();
+    @NotNull
+    private final LongAdder misses = new LongAdder();
+    @NotNull
+    private final LongAdder evictions = new LongAdder();
+
+    private static final class Key {
+        @NotNull
+        final String kind;
+        @NotNull
+        final String value;
+        private final int hash;
+
+        Key(@NotNull String kind, @NotNull String value) {
+            this.kind = kind;
+            this.value = value;
+            hash = 31 * kind.hashCode() + value.hashCode();
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return hash == other.hash && kind.equals(other.kind) && value.equals(other.value);
+        }
+    }
+
+    private final class Segment extends LinkedHashMap<Key, String> {
+        private static final long serialVersionUID = 1L;
+        private final int maxSize;
+
+        Segment(int maxSize) {
+            super(16, 0.75f, true);
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, String> eldest) {
+            if (size() > maxSize) {
+                evictions.increment();
+                return true;
+            }
+            return false;
+        }
+    }
+
+    public PseudonymCache(int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("Size of pseudonym cache must be positive, but was " + maxSize + "."); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+        for (int i = 0; i < SEGMENT_COUNT; i++) {
+            segments[i] = new Segment(Math.max(1, (maxSize + SEGMENT_COUNT - 1 - i) / SEGMENT_COUNT));
+        }
+    }
+
+    /**
+     * Returns the pseudonym of the value, the pseudonym is created by the given function when it is not cached. The function is called without a
+     * lock held, so it must give the same pseudonym for the same kind and value.
+     */
+    public @NotNull String get(@NotNull String kind, @NotNull String value, @NotNull BiFunction<String, String, String> pseudonymizer) {
+        Key key = new Key(kind, value);
+        Segment segment = segments[(key.hash ^ (key.hash >>> 16)) & (SEGMENT_COUNT - 1)];
+        String pseudonym;
+        synchronized (segment) {
+            pseudonym = segment.get(key);
+        }
+        if (pseudonym != null) {
+            hits.increment();
+            return pseudonym;
+        }
+        misses.increment();
+        pseudonym = pseudonymizer.apply(kind, value);
+        synchronized (segment) {
+            segment.put(key, pseudonym);
+        }
+        return pseudonym;
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+}
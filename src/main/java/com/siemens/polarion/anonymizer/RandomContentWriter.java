@@ -0,0 +1,118 @@
+/*
+ * Copyright 2016 Polarion AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.siemens.polarion.anonymizer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.SplittableRandom;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Writes random content of a given length. The content is generated in blocks, eight bytes per random number, into a reusable per-thread direct
+ * buffer which is written to a {@link FileChannel}, so large files are written close to the speed of the disk.
+ * <p>
+ * Placeholder files have the requested length too, but only their header is generated.
+ */
+public class RandomContentWriter {
+    static final int BLOCK_SIZE = 1024 * 1024;
+    @NotNull
+    private static final ThreadLocal<ByteBuffer> block = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(BLOCK_SIZE).order(ByteOrder.nativeOrder()));
+    // shared by all threads through duplicates, it is never written
+    @NotNull
+    private static final ByteBuffer zeros = ByteBuffer.allocateDirect(BLOCK_SIZE);
+
+    private RandomContentWriter() {
+    }
+
+    public static void write(@NotNull SplittableRandom random, long length, @NotNull File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            write(random, length, channel);
+        }
+    }
+
+    public static void write(@NotNull SplittableRandom random, long length, @NotNull WritableByteChannel channel) throws IOException {
+        ByteBuffer buffer = block.get();
+        long remaining = length;
+        while (remaining > 0) {
+            int blockLength = (int) Math.min(BLOCK_SIZE, remaining);
+            fill(random, buffer, blockLength);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            remaining -= blockLength;
+        }
+    }
+
+    /**
+     * Creates a file of the given length of which only the header is random. The rest is not written at all, so the file is sparse where the file
+     * system supports it.
+     */
+    public static void writePlaceholder(@NotNull SplittableRandom random, long length, int headerLength, @NotNull File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.SPARSE)) {
+            long header = Math.min(headerLength, length);
+            write(random, header, channel);
+            if (length > header) {
+                // writing the last byte extends the file without allocating the skipped range
+                ByteBuffer lastByte = ByteBuffer.allocate(1);
+                while (lastByte.hasRemaining()) {
+                    channel.write(lastByte, length - 1);
+                }
+            }
+        }
+    }
+
+    /**
+     * Placeholder written to a stream which cannot skip the content, e.g. an entry of an archive. The content after the header is written as zeros.
+     */
+    public static void writePlaceholder(@NotNull SplittableRandom random, long length, int headerLength, @NotNull WritableByteChannel channel) throws IOException {
+        long header = Math.min(headerLength, length);
+        write(random, header, channel);
+        ByteBuffer buffer = zeros.duplicate();
+        long remaining = length - header;
+        while (remaining > 0) {
+            buffer.clear();
+            buffer.limit((int) Math.min(BLOCK_SIZE, remaining));
+            remaining -= buffer.remaining();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+
+    private static void fill(@NotNull SplittableRandom random, @NotNull ByteBuffer buffer, int length) {
+        buffer.clear();
+        int longs = length >>> 3;
+        for (int i = 0; i < longs; i++) {
+            buffer.putLong(random.nextLong());
+        }
+        if (buffer.position() < length) {
+            long tail = random.nextLong();
+            while (buffer.position() < length) {
+                buffer.put((byte) tail);
+                tail >>>= 8;
+            }
+        }
+        buffer.flip();
+    }
+
+}
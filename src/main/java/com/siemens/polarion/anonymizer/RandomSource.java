@@ -0,0 +1,112 @@
+/*
+ * Copyright 2016 Polarion AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.siemens.polarion.anonymizer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.SplittableRandom;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Random streams of one run. Every stream is derived only from the seed of the run and the key of the randomized data, e.g. the relative path of a
+ * file, so the output does not depend on the number of threads or on the order in which the data are processed. The streams are not shared, the
+ * threads using them do not need any synchronization. In keyed mode the streams are derived from a {@link KeyedHash} of the key instead, so they
+ * depend only on the secret and separate processes with the same secret give the same names and pseudonyms.
+ */
+public class RandomSource {
+    // key kinds, streams of different kinds are independent even for the same key
+    @NotNull
+    public static final String XML = "xml"; //$NON-NLS-1$
+    @NotNull
+    public static final String FILE_NAME = "file-name"; //$NON-NLS-1$
+    @NotNull
+    public static final String CONTENT = "content"; //$NON-NLS-1$
+    @NotNull
+    public static final String PSEUDONYM = "pseudonym"; //$NON-NLS-1$
+    // group of plain text values randomized in keyed mode
+    @NotNull
+    public static final String PLAIN_TEXT = "plain-text"; //$NON-NLS-1$
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final long seed;
+    @Nullable
+    private final KeyedHash keyedHash;
+
+    public RandomSource(long seed) {
+        this(seed, null);
+    }
+
+    public RandomSource(long seed, @Nullable KeyedHash keyedHash) {
+        this.seed = seed;
+        this.keyedHash = keyedHash;
+    }
+
+    // seed for runs without --seed, it is logged so such a run can be repeated
+    public static long newSeed() {
+        return new SplittableRandom().nextLong();
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public boolean isKeyed() {
+        return keyedHash != null;
+    }
+
+    // identifies the key without revealing it, e.g. in the journal of a run
+    public @Nullable String getKeyFingerprint() {
+        return keyedHash != null ? Long.toHexString(keyedHash.hash("key-fingerprint")) : null; //$NON-NLS-1$
+    }
+
+    // identifies the seed without revealing it, the seed is not used in keyed mode
+    public @Nullable String getSeedFingerprint() {
+        if (keyedHash != null) {
+            return null;
+        }
+        return Long.toHexString(new KeyedHash(Long.toString(seed).getBytes(StandardCharsets.UTF_8)).hash("seed-fingerprint")); //$NON-NLS-1$
+    }
+
+    public @NotNull SplittableRandom stream(@NotNull String kind, @NotNull String key) {
+        if (keyedHash != null) {
+            return new SplittableRandom(keyedHash.hash(kind, key)).split();
+        }
+        long hash = hash(hash(FNV_OFFSET_BASIS, kind), key);
+        // split() gives the stream its own mixed seed and gamma, so the streams of similar keys are not correlated
+        return new SplittableRandom(seed ^ hash).split();
+    }
+
+    // stream of a key within a group of keys, e.g. of a value of one field kind
+    public @NotNull SplittableRandom stream(@NotNull String kind, @NotNull String group, @NotNull String key) {
+        if (keyedHash != null) {
+            return new SplittableRandom(keyedHash.hash(kind, group, key)).split();
+        }
+        long hash = hash(hash(hash(FNV_OFFSET_BASIS, kind), group), key);
+        return new SplittableRandom(seed ^ hash).split();
+    }
+
+    private static long hash(long hash, @NotNull String value) {
+        for (int i = 0; i < value.length(); i++) {
+            hash = (hash ^ value.charAt(i)) * FNV_PRIME;
+        }
+        // separator, so ("ab", "c") and ("a", "bc") give different hashes
+        return (hash ^ 0xFFFF) * FNV_PRIME;
+    }
+
+}
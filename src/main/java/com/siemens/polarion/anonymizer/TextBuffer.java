@@ -0,0 +1,111 @@
+/*
+ * Copyright 2016 Polarion AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.siemens.polarion.anonymizer;
+
+import java.util.Arrays;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Reusable char sink of the {@link TextRandomizer}. The array grows when needed and is kept when the buffer is cleared, so randomizing text into the
+ * same buffer again does not allocate.
+ */
+public class TextBuffer implements CharSequence {
+    private static final int INITIAL_CAPACITY = 256;
+
+    @NotNull
+    private char[] chars;
+    private int length;
+
+    public TextBuffer() {
+        this(INITIAL_CAPACITY);
+    }
+
+    public TextBuffer(int capacity) {
+        chars = new char[Math.max(capacity, 16)];
+    }
+
+    public void clear() {
+        length = 0;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", length: " + length); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+        return chars[index];
+    }
+
+    @Override
+    public @NotNull CharSequence subSequence(int start, int end) {
+        if (start < 0 || end > length || start > end) {
+            throw new IndexOutOfBoundsException("Range: " + start + "-" + end + ", length: " + length); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        }
+        return new String(chars, start, end - start);
+    }
+
+    /**
+     * The chars of the buffer, valid up to {@link #length()}. The array is replaced when the buffer grows.
+     */
+    @NotNull
+    char[] array() {
+        return chars;
+    }
+
+    public void append(char c) {
+        if (length == chars.length) {
+            grow(length + 1);
+        }
+        chars[length++] = c;
+    }
+
+    public void append(@NotNull CharSequence text) {
+        append(text, 0, text.length());
+    }
+
+    public void append(@NotNull CharSequence text, int start, int end) {
+        int count = end - start;
+        if (length + count > chars.length) {
+            grow(length + count);
+        }
+        if (text instanceof String) {
+            ((String) text).getChars(start, end, chars, length);
+        } else if (text instanceof TextBuffer) {
+            System.arraycopy(((TextBuffer) text).chars, start, chars, length, count);
+        } else {
+            for (int i = start; i < end; i++) {
+                chars[length + i - start] = text.charAt(i);
+            }
+        }
+        length += count;
+    }
+
+    private void grow(int minCapacity) {
+        chars = Arrays.copyOf(chars, Math.max(minCapacity, chars.length * 2));
+    }
+
+    @Override
+    public @NotNull String toString() {
+        return new String(chars, 0, length);
+    }
+
+}
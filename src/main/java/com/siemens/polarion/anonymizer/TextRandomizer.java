@@ -17,23 +17,34 @@ package com.siemens.polarion.anonymizer;
 
 import java.text.Normalizer;
 import java.text.Normalizer.Form;
-import java.util.Random;
+import java.util.Arrays;
+import java.util.SplittableRandom;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import org.jetbrains.annotations.NotNull;
 
 public class TextRandomizer {
-    private static final Random rnd;
     private static final char[] letterChars = new char[52];
     private static final char[] numberChars = new char[10];
+    // class of every ASCII char, chars above the table are letters or other chars according to Character.isLetter()
+    private static final byte[] charClasses = new byte[128];
+    private static final byte OTHER = 0;
+    private static final byte LETTER = 1;
+    private static final byte NUMBER = 2;
+    // longest entity name in HTML is 31 chars
+    private static final int MAX_REFERENCE_LENGTH = 40;
+    // Unicode block Combining Diacritical Marks
+    private static final char COMBINING_MARKS_START = '\u0300';
+    private static final char COMBINING_MARKS_END = '\u036f';
+    // end of Latin Extended-B, decompositions of chars below it consist of a base char and combining diacritical marks
+    private static final char LATIN_END = '\u0250';
     @NotNull
-    final private static Pattern patternForAltAttribute = Pattern.compile("(alt=\")([^\"]*)(\")"); //$NON-NLS-1$
+    private static final String[] deaccentedLatinChars = new String[LATIN_END - 0x80];
     @NotNull
     final private static Pattern patternForAttachmentFilesPrefix = Pattern.compile("(attachment\\d+-)(.*)"); //$NON-NLS-1$
 
     static {
-        rnd = new Random();
         for (char i = 'A'; i <= 'Z'; i++) {
             letterChars[i - 65] = i;
         }
@@ -43,75 +54,324 @@ public class TextRandomizer {
         for (char i = '0'; i <= '9'; i++) {
             numberChars[i - 48] = i;
         }
+        for (char c : letterChars) {
+            charClasses[c] = LETTER;
+        }
+        for (char c : numberChars) {
+            charClasses[c] = NUMBER;
+        }
+        for (char c = 0x80; c < LATIN_END; c++) {
+            deaccentedLatinChars[c - 0x80] = deaccentString(String.valueOf(c));
+        }
     }
 
-    protected @NotNull String plainTextRandomize(@NotNull String input) {
-        StringBuilder output = new StringBuilder();
-        input = deaccentString(input);
-        for (int i = 0; i < input.length(); i++) {
-            output.append(replaceChar(input.charAt(i), true));
+    @NotNull
+    private static final ThreadLocal<ScratchBuffers> scratchBuffers = ThreadLocal.withInitial(() -> new ScratchBuffers());
+    // random stream of the text randomized by the current thread
+    @NotNull
+    private final ThreadLocal<RandomChars> randomChars = ThreadLocal.withInitial(() -> new RandomChars(new SplittableRandom()));
+    @NotNull
+    final TextRule plainTextRule = this::plainTextRandomize;
+    @NotNull
+    final TextRule richTextRule = this::richTextRandomize;
+
+    /**
+     * Random letters and digits drawn from one random stream. Every random 64-bit word gives several of them, a letter takes six bits and a digit
+     * four bits, values outside of the range are skipped so all letters and digits are equally likely.
+     */
+    private static final class RandomChars {
+        @NotNull
+        private SplittableRandom random;
+        private long word;
+        private int bits;
+
+        RandomChars(@NotNull SplittableRandom random) {
+            this.random = random;
         }
-        return output.toString();
-    }
 
-    protected @NotNull String richTextRandomize(@NotNull String input) {
-        boolean replace = true;
-        boolean replaceNumbers = true;
-        boolean htmlEntityFound = false;
-        StringBuilder output = new StringBuilder();
-        input = deaccentString(input);
-        for (int i = 0; i < input.length(); i++) {
-            //replace chars between > and <
-            if (input.charAt(i) == '>') { //>
-                replace = true;
+        void reset(@NotNull SplittableRandom random) {
+            this.random = random;
+            bits = 0;
+        }
+
+        void restore(@NotNull SplittableRandom random, long word, int bits) {
+            this.random = random;
+            this.word = word;
+            this.bits = bits;
+        }
+
+        private int nextBits(int count) {
+            if (bits < count) {
+                word = random.nextLong();
+                bits = Long.SIZE;
             }
-            if (input.charAt(i) == '<') { //<
-                replace = false;
+            int value = (int) word & ((1 << count) - 1);
+            word >>>= count;
+            bits -= count;
+            return value;
+        }
+
+        char nextLetter() {
+            int index;
+            do {
+                index = nextBits(6);
+            } while (index >= letterChars.length);
+            return letterChars[index];
+        }
+
+        char nextNumber() {
+            int index;
+            do {
+                index = nextBits(4);
+            } while (index >= numberChars.length);
+            return numberChars[index];
+        }
+    }
+
+    /**
+     * Text randomized by the current thread is drawn from the given stream from now on, e.g. from the stream of the file processed by the thread.
+     */
+    protected void useRandom(@NotNull SplittableRandom random) {
+        randomChars.get().reset(random);
+    }
+
+    /**
+     * Randomization of a text into a buffer, the content of the buffer is replaced. The input must not be the output buffer.
+     */
+    @FunctionalInterface
+    interface TextRule {
+        void apply(@NotNull CharSequence input, @NotNull TextBuffer output);
+
+        /**
+         * Rule applying the given rule to the output of this rule. The intermediate text is kept in a scratch buffer of the thread.
+         */
+        default @NotNull TextRule andThen(@NotNull TextRule next) {
+            return (input, output) -> {
+                ScratchBuffers scratch = scratchBuffers.get();
+                TextBuffer intermediate = scratch.acquire();
+                try {
+                    apply(input, intermediate);
+                    next.apply(intermediate, output);
+                } finally {
+                    scratch.release();
+                }
+            };
+        }
+    }
+
+    // buffers of the current thread, one for each level of nested rules
+    private static final class ScratchBuffers {
+        @NotNull
+        private TextBuffer[] buffers = new TextBuffer[4];
+        private int depth;
+
+        @NotNull
+        TextBuffer acquire() {
+            if (depth == buffers.length) {
+                buffers = Arrays.copyOf(buffers, depth * 2);
             }
-            //do not replace chars between & and ;
-            if (input.charAt(i) == '&') { //&
-                replace = false;
-                htmlEntityFound = true;
+            TextBuffer buffer = buffers[depth];
+            if (buffer == null) {
+                buffer = new TextBuffer();
+                buffers[depth] = buffer;
             }
-            if ((input.charAt(i) == ';') && htmlEntityFound) { //;
-                replace = true;
-                htmlEntityFound = false;
+            depth++;
+            return buffer;
+        }
+
+        void release() {
+            depth--;
+        }
+    }
+
+    /**
+     * Applies the rule to the input using a scratch buffer of the current thread, only the returned string is allocated.
+     */
+    static @NotNull String apply(@NotNull TextRule rule, @NotNull String input) {
+        ScratchBuffers scratch = scratchBuffers.get();
+        TextBuffer output = scratch.acquire();
+        try {
+            rule.apply(input, output);
+            return output.toString();
+        } finally {
+            scratch.release();
+        }
+    }
+
+    /**
+     * Applies the rule with text drawn from the given stream, e.g. from the stream of a pseudonym. The stream of the current thread continues
+     * afterwards as if the rule was not applied.
+     */
+    protected @NotNull String apply(@NotNull TextRule rule, @NotNull String input, @NotNull SplittableRandom random) {
+        RandomChars chars = randomChars.get();
+        SplittableRandom threadRandom = chars.random;
+        long word = chars.word;
+        int bits = chars.bits;
+        chars.reset(random);
+        try {
+            return apply(rule, input);
+        } finally {
+            chars.restore(threadRandom, word, bits);
+        }
+    }
+
+    protected @NotNull String plainTextRandomize(@NotNull String input) {
+        return apply(plainTextRule, input);
+    }
+
+    private static @NotNull String plainTextRandomize(@NotNull String input, @NotNull RandomChars random) {
+        ScratchBuffers scratch = scratchBuffers.get();
+        TextBuffer output = scratch.acquire();
+        try {
+            plainTextRandomize(input, output, random);
+            return output.toString();
+        } finally {
+            scratch.release();
+        }
+    }
+
+    /**
+     * Writes the randomized text to the output, the content of the output is replaced.
+     */
+    protected void plainTextRandomize(@NotNull CharSequence input, @NotNull TextBuffer output) {
+        plainTextRandomize(input, output, randomChars.get());
+    }
+
+    private static void plainTextRandomize(@NotNull CharSequence input, @NotNull TextBuffer output, @NotNull RandomChars random) {
+        deaccent(input, output);
+        char[] text = output.array();
+        int length = output.length();
+        for (int i = 0; i < length; i++) {
+            text[i] = replaceChar(text[i], true, random);
+        }
+    }
+
+    protected @NotNull String richTextRandomize(@NotNull String input) {
+        return apply(richTextRule, input);
+    }
+
+    /**
+     * Randomizes the text of HTML in one pass. Tags are kept except for the values of <code>alt</code> attributes, which are randomized as text.
+     * Entities and numeric character references are kept too, an <code>&amp;</code> which does not start one is a plain char. Every char is replaced
+     * by one char, so the deaccented input is randomized in place in the output, whose content is replaced.
+     */
+    protected void richTextRandomize(@NotNull CharSequence input, @NotNull TextBuffer output) {
+        deaccent(input, output);
+        char[] text = output.array();
+        int length = output.length();
+        RandomChars random = randomChars.get();
+        int i = 0;
+        while (i < length) {
+            char c = text[i];
+            if (c == '<') {
+                i = skipTag(text, i + 1, length, random);
+            } else if (c == '&') {
+                i = skipReference(text, i, length);
+            } else {
+                text[i++] = replaceChar(c, true, random);
             }
-            //do not replace chars between &# and ;
-            if ((input.charAt(i) == '&') && (input.charAt(i + 1) == '#')) { //&#
-                replaceNumbers = false;
+        }
+    }
+
+    // returns the index after the tag, only values of alt attributes are randomized
+    private static int skipTag(@NotNull char[] text, int start, int length, @NotNull RandomChars random) {
+        int i = start;
+        while (i < length) {
+            char c = text[i];
+            if (c == '>') {
+                return i + 1;
+            } else if (c == '=') {
+                boolean alt = isAltAttribute(text, start, i);
+                i++;
+                while (i < length && Character.isWhitespace(text[i])) {
+                    i++;
+                }
+                i = skipAttributeValue(text, i, length, alt, random);
+            } else {
+                i++;
             }
-            if (input.charAt(i) == ';') { //;
-                replaceNumbers = true;
+        }
+        return length;
+    }
+
+    // checks the attribute name before the = at the given index
+    private static boolean isAltAttribute(@NotNull char[] text, int tagStart, int equalsIndex) {
+        int nameEnd = equalsIndex;
+        while (nameEnd > tagStart && Character.isWhitespace(text[nameEnd - 1])) {
+            nameEnd--;
+        }
+        int nameStart = nameEnd;
+        while (nameStart > tagStart && isAttributeNameChar(text[nameStart - 1])) {
+            nameStart--;
+        }
+        return nameEnd - nameStart == 3 && (text[nameStart] | 0x20) == 'a' && (text[nameStart + 1] | 0x20) == 'l' && (text[nameStart + 2] | 0x20) == 't';
+    }
+
+    private static boolean isAttributeNameChar(char c) {
+        return !Character.isWhitespace(c) && c != '=' && c != '"' && c != '\'' && c != '<' && c != '>' && c != '/';
+    }
+
+    // returns the index after the quoted or unquoted value
+    private static int skipAttributeValue(@NotNull char[] text, int start, int length, boolean randomize, @NotNull RandomChars random) {
+        if (start >= length) {
+            return length;
+        }
+        char quote = text[start];
+        boolean quoted = quote == '"' || quote == '\'';
+        int i = quoted ? start + 1 : start;
+        while (i < length) {
+            char c = text[i];
+            if (quoted ? c == quote : Character.isWhitespace(c) || c == '>') {
+                return quoted ? i + 1 : i;
             }
-            if (replace) {
-                output.append(replaceChar(input.charAt(i), replaceNumbers));
+            if (c == '&') {
+                i = skipReference(text, i, length);
             } else {
-                output.append(input.charAt(i));
+                if (randomize) {
+                    text[i] = replaceChar(c, true, random);
+                }
+                i++;
+            }
+        }
+        return length;
+    }
+
+    // returns the index after the entity or numeric character reference starting at the index, or after the & if there is none
+    private static int skipReference(@NotNull char[] text, int start, int length) {
+        int i = start + 1;
+        boolean numeric = i < length && text[i] == '#';
+        if (numeric) {
+            i++;
+            if (i < length && (text[i] == 'x' || text[i] == 'X')) {
+                i++;
             }
         }
-        return randomizeAltAttribute(output);
+        int nameStart = i;
+        while (i < length && i - start <= MAX_REFERENCE_LENGTH && isReferenceChar(text[i], numeric)) {
+            i++;
+        }
+        if (i > nameStart && i < length && text[i] == ';') {
+            return i + 1;
+        }
+        return start + 1;
     }
 
-    private @NotNull String randomizeAltAttribute(@NotNull StringBuilder input) {
-        Matcher m = patternForAltAttribute.matcher(input);
-        StringBuffer sb = new StringBuffer();
-        while (m.find()) {
-            String attributeValue = m.group(2);
-            attributeValue = plainTextRandomize(attributeValue);
-            m.appendReplacement(sb, "$1" + Matcher.quoteReplacement(attributeValue) + "$3"); //$NON-NLS-1$//$NON-NLS-2$
+    private static boolean isReferenceChar(char c, boolean numeric) {
+        if (numeric) {
+            return (c >= '0' && c <= '9') || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F');
         }
-        m.appendTail(sb);
-        return sb.toString();
+        return c < charClasses.length && charClasses[c] != OTHER;
     }
 
-    private char replaceChar(char character, boolean replaceNumbers) {
-        if (containsChar(letterChars, character)) {
-            int randomNumber = rnd.nextInt(letterChars.length);
-            return letterChars[randomNumber];
-        } else if (replaceNumbers && containsChar(numberChars, character)) {
-            int randomNumber = rnd.nextInt(numberChars.length);
-            return numberChars[randomNumber];
+    private static char replaceChar(char character, boolean replaceNumbers, @NotNull RandomChars random) {
+        if (character < charClasses.length) {
+            byte charClass = charClasses[character];
+            if (charClass == LETTER) {
+                return random.nextLetter();
+            } else if (charClass == NUMBER && replaceNumbers) {
+                return random.nextNumber();
+            }
+            return character;
         } else if (Character.isLetter(character)) {
             return 'W';
         } else {
@@ -119,28 +379,82 @@ public class TextRandomizer {
         }
     }
 
-    private @NotNull String deaccentString(@NotNull String data) {
-        data = Normalizer.normalize(data, Form.NFD);
-        data = data.replaceAll("\\p{InCombiningDiacriticalMarks}+", ""); //$NON-NLS-1$ //$NON-NLS-2$
-        return data;
+    /**
+     * Removes accents, the same as removing <code>\p{InCombiningDiacriticalMarks}</code> from the NFD form of the input. ASCII input is returned as
+     * it is without normalization.
+     */
+    static @NotNull String deaccentString(@NotNull String data) {
+        int length = data.length();
+        int i = 0;
+        while (i < length && data.charAt(i) < 0x80) {
+            i++;
+        }
+        if (i == length) {
+            return data;
+        }
+        String normalized = Normalizer.normalize(data, Form.NFD);
+        char[] output = new char[normalized.length()];
+        int outputLength = 0;
+        for (int j = 0; j < normalized.length(); j++) {
+            char c = normalized.charAt(j);
+            if (c < COMBINING_MARKS_START || c > COMBINING_MARKS_END) {
+                output[outputLength++] = c;
+            }
+        }
+        return new String(output, 0, outputLength);
+    }
+
+    /**
+     * Writes the input without accents to the output, the same as {@link #deaccentString(String)}. Latin chars are looked up in a table, only input
+     * with other non ASCII chars is normalized as a whole.
+     */
+    static void deaccent(@NotNull CharSequence input, @NotNull TextBuffer output) {
+        output.clear();
+        int length = input.length();
+        for (int i = 0; i < length; i++) {
+            char c = input.charAt(i);
+            if (c < 0x80) {
+                output.append(c);
+            } else if (c < LATIN_END) {
+                output.append(deaccentedLatinChars[c - 0x80]);
+            } else if (c < COMBINING_MARKS_START || c > COMBINING_MARKS_END) {
+                // the decomposition of other chars may depend on the chars around them
+                output.clear();
+                output.append(deaccentString(input.toString()));
+                return;
+            }
+        }
     }
 
     protected @NotNull String fileNameRandomize(@NotNull String input) {
+        return fileNameRandomize(input, randomChars.get());
+    }
+
+    // the name is drawn from its own stream, so it does not depend on which file refers to the attachment first
+    protected @NotNull String fileNameRandomize(@NotNull String input, @NotNull SplittableRandom random) {
+        return fileNameRandomize(input, new RandomChars(random));
+    }
+
+    private static @NotNull String fileNameRandomize(@NotNull String input, @NotNull RandomChars random) {
         Matcher m = patternForAttachmentFilesPrefix.matcher(input);
         if (m.matches()) {
-            return (m.group(1) + randomizeFileNameWithExtension(m.group(2)));
+            return (m.group(1) + randomizeFileNameWithExtension(m.group(2), random));
         } else {
-            return randomizeFileNameWithExtension(input);
+            return randomizeFileNameWithExtension(input, random);
         }
     }
 
     protected @NotNull String randomizeFileNameWithExtension(@NotNull String input) {
+        return randomizeFileNameWithExtension(input, randomChars.get());
+    }
+
+    private static @NotNull String randomizeFileNameWithExtension(@NotNull String input, @NotNull RandomChars random) {
         String output;
         int i = input.lastIndexOf("."); //$NON-NLS-1$
         if (i == -1) {
-            output = plainTextRandomize(input);
+            output = plainTextRandomize(input, random);
         } else {
-            output = plainTextRandomize(input.substring(0, i)) + input.substring(i);
+            output = plainTextRandomize(input.substring(0, i), random) + input.substring(i);
         }
         return output;
     }
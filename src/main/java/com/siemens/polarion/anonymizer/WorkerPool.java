@@ -0,0 +1,128 @@
+/*
+ * Copyright 2016 Polarion AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.siemens.polarion.anonymizer;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Bounded pool for per-file work. With a single thread the tasks run directly in the calling thread.
+ * The first failure stops the remaining tasks and is rethrown by {@link #awaitCompletion()}.
+ */
+public class WorkerPool implements AutoCloseable {
+    private static final int QUEUED_TASKS_PER_THREAD = 4;
+
+    @Nullable
+    private final ThreadPoolExecutor executor;
+    @NotNull
+    private final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+    public interface Task {
+        void run() throws Exception;
+    }
+
+    public WorkerPool(int threads, @NotNull final String name) {
+        if (threads > 1) {
+            final AtomicInteger threadCounter = new AtomicInteger();
+            ThreadFactory threadFactory = runnable -> {
+                Thread thread = new Thread(runnable, name + "-" + threadCounter.incrementAndGet()); //$NON-NLS-1$
+                thread.setDaemon(true);
+                return thread;
+            };
+            // full queue makes the submitting thread run the task itself, which keeps the number of pending tasks bounded
+            executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(threads * QUEUED_TASKS_PER_THREAD), threadFactory,
+                    new ThreadPoolExecutor.CallerRunsPolicy());
+        } else {
+            executor = null;
+        }
+    }
+
+    public void submit(@NotNull final Task task) throws Exception {
+        rethrowFailure();
+        if (executor == null) {
+            task.run();
+        } else {
+            executor.execute(() -> {
+                if (failure.get() == null) {
+                    try {
+                        task.run();
+                    } catch (Throwable t) {
+                        failure.compareAndSet(null, t);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Runs the task in the pool and returns its result. The failure of the task completes the future instead of stopping the remaining tasks, it is
+     * up to the caller to stop submitting them.
+     */
+    @NotNull
+    public <T> CompletableFuture<T> supply(@NotNull final Callable<T> task) throws Exception {
+        rethrowFailure();
+        final CompletableFuture<T> future = new CompletableFuture<T>();
+        Runnable runnable = () -> {
+            try {
+                future.complete(task.call());
+            } catch (Throwable t) {
+                future.completeExceptionally(t);
+            }
+        };
+        if (executor == null) {
+            runnable.run();
+        } else {
+            executor.execute(runnable);
+        }
+        return future;
+    }
+
+    public void awaitCompletion() throws Exception {
+        if (executor != null) {
+            executor.shutdown();
+            while (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+                // waiting for running tasks
+            }
+        }
+        rethrowFailure();
+    }
+
+    private void rethrowFailure() throws Exception {
+        Throwable t = failure.get();
+        if (t instanceof Exception) {
+            throw (Exception) t;
+        } else if (t instanceof Error) {
+            throw (Error) t;
+        }
+    }
+
+    @Override
+    public void close() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+}
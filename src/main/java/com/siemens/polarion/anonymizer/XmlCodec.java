@@ -0,0 +1,267 @@
+/*
+ * Copyright 2016 Polarion AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.siemens.polarion.anonymizer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.jetbrains.annotations.NotNull;
+import org.w3c.dom.Document;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.xml.sax.SAXException;
+
+/**
+ * Reads and writes XML documents with per-thread parsers and serializers, so factories are not looked up again for every file. The serializer writes
+ * UTF-8 directly and produces the same output as the identity <code>Transformer</code> used before.
+ */
+public class XmlCodec {
+    @NotNull
+    static final String XML_DECLARATION = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>\n"; //$NON-NLS-1$
+    private static final int BUFFER_SIZE = 64 * 1024;
+    // longest sequence written for one char is a numeric character reference
+    private static final int MAX_CHAR_LENGTH = 12;
+    @NotNull
+    private static final DocumentBuilderFactory documentBuilderFactory = DocumentBuilderFactory.newInstance();
+    @NotNull
+    private static final ThreadLocal<DocumentBuilder> documentBuilder = new ThreadLocal<DocumentBuilder>();
+    @NotNull
+    private static final ThreadLocal<XmlCodec> serializer = ThreadLocal.withInitial(() -> new XmlCodec());
+
+    @NotNull
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int position;
+    private OutputStream out;
+
+    private XmlCodec() {
+    }
+
+    public static @NotNull Document parse(@NotNull File inputFile) throws ParserConfigurationException, SAXException, IOException {
+        try (InputStream in = MappedInputStream.open(inputFile)) {
+            // the system identifier resolves relative references like when the parser opens the file
+            Document doc = getDocumentBuilder().parse(in, inputFile.toURI().toString());
+            doc.getDocumentElement().normalize();
+            return doc;
+        }
+    }
+
+    public static @NotNull Document parse(@NotNull InputStream in) throws ParserConfigurationException, SAXException, IOException {
+        Document doc = getDocumentBuilder().parse(in);
+        doc.getDocumentElement().normalize();
+        return doc;
+    }
+
+    public static @NotNull Document newDocument() throws ParserConfigurationException {
+        return getDocumentBuilder().newDocument();
+    }
+
+    public static void write(@NotNull Document doc, @NotNull File outputFile) throws IOException {
+        try (OutputStream out = Files.newOutputStream(outputFile.toPath())) {
+            write(doc, out);
+        }
+    }
+
+    public static void write(@NotNull Document doc, @NotNull OutputStream out) throws IOException {
+        XmlCodec codec = serializer.get();
+        codec.out = out;
+        codec.position = 0;
+        try {
+            codec.writeRaw(XML_DECLARATION);
+            for (Node child = doc.getFirstChild(); child != null; child = child.getNextSibling()) {
+                codec.writeNode(child);
+            }
+            codec.flushBuffer();
+            out.flush();
+        } finally {
+            codec.out = null;
+        }
+    }
+
+    private static @NotNull DocumentBuilder getDocumentBuilder() throws ParserConfigurationException {
+        DocumentBuilder builder = documentBuilder.get();
+        if (builder == null) {
+            // DocumentBuilderFactory is not thread safe
+            synchronized (documentBuilderFactory) {
+                builder = documentBuilderFactory.newDocumentBuilder();
+            }
+            documentBuilder.set(builder);
+        } else {
+            builder.reset();
+        }
+        return builder;
+    }
+
+    private void writeNode(@NotNull Node node) throws IOException {
+        switch (node.getNodeType()) {
+        case Node.ELEMENT_NODE:
+            writeRaw('<');
+            writeRaw(node.getNodeName());
+            NamedNodeMap attributes = node.getAttributes();
+            for (int i = 0; i < attributes.getLength(); i++) {
+                Node attribute = attributes.item(i);
+                writeRaw(' ');
+                writeRaw(attribute.getNodeName());
+                writeRaw("=\""); //$NON-NLS-1$
+                writeEscaped(attribute.getNodeValue(), true);
+                writeRaw('"');
+            }
+            if (node.hasChildNodes()) {
+                writeRaw('>');
+                for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+                    writeNode(child);
+                }
+                writeRaw("</"); //$NON-NLS-1$
+                writeRaw(node.getNodeName());
+                writeRaw('>');
+            } else {
+                writeRaw("/>"); //$NON-NLS-1$
+            }
+            break;
+        case Node.TEXT_NODE:
+            writeEscaped(node.getNodeValue(), false);
+            break;
+        case Node.CDATA_SECTION_NODE:
+            writeRaw("<![CDATA["); //$NON-NLS-1$
+            writeRaw(node.getNodeValue().replace("]]>", "]]]]><![CDATA[>")); //$NON-NLS-1$ //$NON-NLS-2$
+            writeRaw("]]>"); //$NON-NLS-1$
+            break;
+        case Node.COMMENT_NODE:
+            writeRaw("<!--"); //$NON-NLS-1$
+            writeRaw(node.getNodeValue());
+            writeRaw("-->"); //$NON-NLS-1$
+            break;
+        case Node.PROCESSING_INSTRUCTION_NODE:
+            writeRaw("<?"); //$NON-NLS-1$
+            writeRaw(node.getNodeName());
+            String data = node.getNodeValue();
+            if (data != null && !data.isEmpty()) {
+                writeRaw(' ');
+                writeRaw(data);
+            }
+            writeRaw("?>"); //$NON-NLS-1$
+            break;
+        case Node.ENTITY_REFERENCE_NODE:
+            for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+                writeNode(child);
+            }
+            break;
+        default:
+            // document type is not written by the identity transformer either
+            break;
+        }
+    }
+
+    private void writeEscaped(@NotNull String value, boolean attribute) throws IOException {
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            switch (c) {
+            case '&':
+                writeRaw("&amp;"); //$NON-NLS-1$
+                break;
+            case '<':
+                writeRaw("&lt;"); //$NON-NLS-1$
+                break;
+            case '>':
+                writeRaw("&gt;"); //$NON-NLS-1$
+                break;
+            case '"':
+                if (attribute) {
+                    writeRaw("&quot;"); //$NON-NLS-1$
+                } else {
+                    writeRaw(c);
+                }
+                break;
+            case '\n':
+            case '\t':
+                if (attribute) {
+                    writeCharReference(c);
+                } else {
+                    writeRaw(c);
+                }
+                break;
+            default:
+                if (c < 0x20 || (!attribute && c >= 0x7F && c <= 0x9F)) {
+                    writeCharReference(c);
+                } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    writeCharReference(Character.toCodePoint(c, value.charAt(++i)));
+                } else {
+                    writeRaw(c);
+                }
+                break;
+            }
+        }
+    }
+
+    private void writeCharReference(int codePoint) throws IOException {
+        writeRaw("&#"); //$NON-NLS-1$
+        writeRaw(Integer.toString(codePoint));
+        writeRaw(';');
+    }
+
+    private void writeRaw(@NotNull String value) throws IOException {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                writeCodePoint(Character.toCodePoint(c, value.charAt(++i)));
+            } else {
+                writeRaw(c);
+            }
+        }
+    }
+
+    private void writeRaw(char c) throws IOException {
+        if (position > BUFFER_SIZE - MAX_CHAR_LENGTH) {
+            flushBuffer();
+        }
+        if (c < 0x80) {
+            buffer[position++] = (byte) c;
+        } else if (c < 0x800) {
+            buffer[position++] = (byte) (0xC0 | (c >> 6));
+            buffer[position++] = (byte) (0x80 | (c & 0x3F));
+        } else if (Character.isSurrogate(c)) {
+            // unpaired surrogate cannot be encoded
+            buffer[position++] = '?';
+        } else {
+            buffer[position++] = (byte) (0xE0 | (c >> 12));
+            buffer[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+            buffer[position++] = (byte) (0x80 | (c & 0x3F));
+        }
+    }
+
+    private void writeCodePoint(int codePoint) throws IOException {
+        if (position > BUFFER_SIZE - MAX_CHAR_LENGTH) {
+            flushBuffer();
+        }
+        buffer[position++] = (byte) (0xF0 | (codePoint >> 18));
+        buffer[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+        buffer[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+        buffer[position++] = (byte) (0x80 | (codePoint & 0x3F));
+    }
+
+    private void flushBuffer() throws IOException {
+        out.write(buffer, 0, position);
+        position = 0;
+    }
+
+}
@@ -0,0 +1,267 @@
+/*
+ * Copyright 2016 Polarion AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.siemens.polarion.anonymizer;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.jetbrains.annotations.NotNull;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.Text;
+
+/**
+ * Streaming variant of {@link Anonymizer#anonymizeAndMoveXML(File, String)}. Everything except <code>field</code> elements and rich text
+ * <code>item</code> elements is copied from the input to the output event by event. Only these elements are read into a small DOM fragment, so the
+ * same rules as in the DOM path can be applied to them, and written out again.
+ */
+public class XmlStreamAnonymizer {
+    @NotNull
+    private static final ThreadLocal<XMLInputFactory> inputFactory = ThreadLocal.withInitial(() -> {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        // the same view of the document as the non namespace aware DOM parser
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.FALSE);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.FALSE);
+        return factory;
+    });
+    @NotNull
+    private static final ThreadLocal<XMLOutputFactory> outputFactory = ThreadLocal.withInitial(() -> XMLOutputFactory.newInstance());
+
+    @NotNull
+    private final Anonymizer anonymizer;
+    @NotNull
+    private final File inputFile;
+    @NotNull
+    private final String documentDirectory;
+    private Document fragmentDocument;
+
+    public XmlStreamAnonymizer(@NotNull Anonymizer anonymizer, @NotNull File inputFile, @NotNull String documentDirectory) {
+        this.anonymizer = anonymizer;
+        this.inputFile = inputFile;
+        this.documentDirectory = documentDirectory;
+    }
+
+    public void anonymize(@NotNull InputStream in, @NotNull OutputStream out) throws Exception {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        writer.write(XmlCodec.XML_DECLARATION);
+        XMLStreamReader reader = inputFactory.get().createXMLStreamReader(in);
+        XMLStreamWriter xmlWriter = outputFactory.get().createXMLStreamWriter(writer);
+        try {
+            rewrite(reader, xmlWriter);
+            xmlWriter.flush();
+            writer.flush();
+        } finally {
+            reader.close();
+            xmlWriter.close();
+        }
+    }
+
+    private void rewrite(@NotNull XMLStreamReader reader, @NotNull XMLStreamWriter writer) throws Exception {
+        int depth = 0;
+        int event = reader.next();
+        while (event != XMLStreamConstants.END_DOCUMENT) {
+            switch (event) {
+            case XMLStreamConstants.START_ELEMENT:
+                if (isAnonymizedElement(reader)) {
+                    writeNode(writer, anonymizeElement(readElement(reader)));
+                    break;
+                }
+                String name = reader.getLocalName();
+                int attributeCount = reader.getAttributeCount();
+                String[] attributes = new String[attributeCount * 2];
+                for (int i = 0; i < attributeCount; i++) {
+                    attributes[i * 2] = reader.getAttributeLocalName(i);
+                    attributes[i * 2 + 1] = reader.getAttributeValue(i);
+                }
+                event = reader.next();
+                if (event == XMLStreamConstants.END_ELEMENT) {
+                    writer.writeEmptyElement(name);
+                    writeAttributes(writer, attributes);
+                    break;
+                }
+                writer.writeStartElement(name);
+                writeAttributes(writer, attributes);
+                depth++;
+                // the event following the start tag was already read
+                continue;
+            case XMLStreamConstants.END_ELEMENT:
+                writer.writeEndElement();
+                depth--;
+                break;
+            case XMLStreamConstants.CHARACTERS:
+            case XMLStreamConstants.SPACE:
+                if (depth > 0) {
+                    writer.writeCharacters(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                }
+                break;
+            case XMLStreamConstants.CDATA:
+                writer.writeCData(reader.getText());
+                break;
+            case XMLStreamConstants.COMMENT:
+                writer.writeComment(reader.getText());
+                break;
+            case XMLStreamConstants.PROCESSING_INSTRUCTION:
+                writer.writeProcessingInstruction(reader.getPITarget(), reader.getPIData());
+                break;
+            default:
+                // DTD is not written by the DOM path either
+                break;
+            }
+            event = reader.next();
+        }
+    }
+
+    private static boolean isAnonymizedElement(@NotNull XMLStreamReader reader) {
+        String name = reader.getLocalName();
+        if ("field".equals(name)) { //$NON-NLS-1$
+            return true;
+        }
+        return "item".equals(name) && "text/html".equals(reader.getAttributeValue(null, "text-type")); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+    }
+
+    @NotNull
+    private Element anonymizeElement(@NotNull Element element) throws Exception {
+        anonymizer.anonymizeTree(inputFile, documentDirectory, element);
+        return element;
+    }
+
+    @NotNull
+    private Element readElement(@NotNull XMLStreamReader reader) throws XMLStreamException, IOException {
+        Document doc = getFragmentDocument();
+        Element root = createElement(doc, reader);
+        Node current = root;
+        while (true) {
+            switch (reader.next()) {
+            case XMLStreamConstants.START_ELEMENT:
+                Element child = createElement(doc, reader);
+                current.appendChild(child);
+                current = child;
+                break;
+            case XMLStreamConstants.END_ELEMENT:
+                if (current == root) {
+                    return root;
+                }
+                current = current.getParentNode();
+                break;
+            case XMLStreamConstants.CHARACTERS:
+            case XMLStreamConstants.SPACE:
+                // adjacent text is merged, as Node.normalize() does in the DOM path
+                Node last = current.getLastChild();
+                if (last != null && last.getNodeType() == Node.TEXT_NODE) {
+                    ((Text) last).appendData(reader.getText());
+                } else {
+                    current.appendChild(doc.createTextNode(reader.getText()));
+                }
+                break;
+            case XMLStreamConstants.CDATA:
+                current.appendChild(doc.createCDATASection(reader.getText()));
+                break;
+            case XMLStreamConstants.COMMENT:
+                current.appendChild(doc.createComment(reader.getText()));
+                break;
+            case XMLStreamConstants.PROCESSING_INSTRUCTION:
+                current.appendChild(doc.createProcessingInstruction(reader.getPITarget(), reader.getPIData()));
+                break;
+            case XMLStreamConstants.END_DOCUMENT:
+                throw new IOException("Unexpected end of document in \"" + inputFile + "\"."); //$NON-NLS-1$ //$NON-NLS-2$
+            default:
+                break;
+            }
+        }
+    }
+
+    @NotNull
+    private static Element createElement(@NotNull Document doc, @NotNull XMLStreamReader reader) {
+        Element element = doc.createElement(reader.getLocalName());
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            element.setAttribute(reader.getAttributeLocalName(i), reader.getAttributeValue(i));
+        }
+        return element;
+    }
+
+    private static void writeNode(@NotNull XMLStreamWriter writer, @NotNull Node node) throws XMLStreamException {
+        switch (node.getNodeType()) {
+        case Node.ELEMENT_NODE:
+            if (node.hasChildNodes()) {
+                writer.writeStartElement(node.getNodeName());
+                writeAttributes(writer, node.getAttributes());
+                for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+                    writeNode(writer, child);
+                }
+                writer.writeEndElement();
+            } else {
+                writer.writeEmptyElement(node.getNodeName());
+                writeAttributes(writer, node.getAttributes());
+            }
+            break;
+        case Node.TEXT_NODE:
+            writer.writeCharacters(node.getNodeValue());
+            break;
+        case Node.CDATA_SECTION_NODE:
+            writer.writeCData(node.getNodeValue());
+            break;
+        case Node.COMMENT_NODE:
+            writer.writeComment(node.getNodeValue());
+            break;
+        case Node.PROCESSING_INSTRUCTION_NODE:
+            writer.writeProcessingInstruction(node.getNodeName(), node.getNodeValue());
+            break;
+        default:
+            break;
+        }
+    }
+
+    private static void writeAttributes(@NotNull XMLStreamWriter writer, @NotNull NamedNodeMap attributes) throws XMLStreamException {
+        for (int i = 0; i < attributes.getLength(); i++) {
+            Node attribute = attributes.item(i);
+            writer.writeAttribute(attribute.getNodeName(), attribute.getNodeValue());
+        }
+    }
+
+    private static void writeAttributes(@NotNull XMLStreamWriter writer, @NotNull String[] attributes) throws XMLStreamException {
+        for (int i = 0; i < attributes.length; i += 2) {
+            writer.writeAttribute(attributes[i], attributes[i + 1]);
+        }
+    }
+
+    @NotNull
+    private Document getFragmentDocument() throws IOException {
+        if (fragmentDocument == null) {
+            try {
+                fragmentDocument = XmlCodec.newDocument();
+            } catch (Exception e) {
+                throw new IOException("XML document cannot be created.", e); //$NON-NLS-1$
+            }
+        }
+        return fragmentDocument;
+    }
+
+}
@@ -20,7 +20,11 @@ import org.junit.runners.Suite;
 import org.junit.runners.Suite.SuiteClasses;
 
 @RunWith(Suite.class)
-@SuiteClasses({ TextRandomizerTests.class, PictureRandomizerTests.class, FileUtilsTests.class, XmlTests.class, ParamsTests.class
+@SuiteClasses({ TextRandomizerTests.class, PictureRandomizerTests.class, FileUtilsTests.class, XmlTests.class, ParamsTests.class,
+        WorkerPoolTests.class, XmlStreamAnonymizerTests.class, XmlCodecTests.class,
+        AttachmentRegistryTests.class, RandomContentWriterTests.class, MemoryBudgetTests.class,
+        RandomSourceTests.class, PseudonymCacheTests.class, CheckpointJournalTests.class, DeltaRunTests.class,
+        ArchiveAnonymizerTests.class, ArchiveWriterTests.class, MappedInputStreamTests.class, ExportGeneratorTests.class
 })
 
 public class AppTest {
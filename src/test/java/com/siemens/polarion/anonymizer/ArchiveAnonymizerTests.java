@@ -0,0 +1,262 @@
+/*
+ * Copyright 2016 Polarion AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.siemens.polarion.anonymizer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+import javax.imageio.ImageIO;
+
+import org.apache.commons.compress.archivers.ArchiveEntry;
+import org.apache.commons.compress.archivers.ArchiveInputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveInputStream;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
+import org.jetbrains.annotations.NotNull;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ArchiveAnonymizerTests {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void outputFileHasSameFormat() {
+        assertEquals(new File("/data/export_anonymized.zip"), ArchiveAnonymizer.getOutputFile("/data/export.zip")); //$NON-NLS-1$ //$NON-NLS-2$
+        assertEquals(new File("/data/export_anonymized.tar.gz"), ArchiveAnonymizer.getOutputFile("/data/export.tar.gz")); //$NON-NLS-1$ //$NON-NLS-2$
+        assertEquals(new File("/data/export_anonymized.TGZ"), ArchiveAnonymizer.getOutputFile("/data/export.TGZ")); //$NON-NLS-1$ //$NON-NLS-2$
+    }
+
+    @Test
+    public void zipGivesSameOutputAsDirectory() throws Exception {
+        Map<String, byte[]> expected = anonymizeDirectory();
+        File archive = new File(tempFolder.getRoot(), "export.zip"); //$NON-NLS-1$
+        try (ZipArchiveOutputStream out = new ZipArchiveOutputStream(archive)) {
+            // the export is packed with its directory
+            out.putArchiveEntry(new ZipArchiveEntry("export/")); //$NON-NLS-1$
+            out.closeArchiveEntry();
+            for (Map.Entry<String, byte[]> entry : readFiles(createExport("zip")).entrySet()) { //$NON-NLS-1$
+                out.putArchiveEntry(new ZipArchiveEntry("export/" + entry.getKey())); //$NON-NLS-1$
+                out.write(entry.getValue());
+                out.closeArchiveEntry();
+            }
+        }
+        // the entries are anonymized and compressed in parallel
+        new Anonymizer(new AnonymizerParams(new String[] { "--seed", "42", "--threads", "4", archive.getPath() })).run(); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+        Map<String, byte[]> actual = readArchive(new File(tempFolder.getRoot(), "export_anonymized.zip"), "export_anonymized/"); //$NON-NLS-1$ //$NON-NLS-2$
+        assertSameFiles(expected, actual);
+        // pictures without alpha channel are written by the pool of the archive writer as well
+        int photos = 0;
+        for (Map.Entry<String, byte[]> entry : actual.entrySet()) {
+            if (entry.getKey().endsWith(".jpg")) { //$NON-NLS-1$
+                BufferedImage image = ImageIO.read(new ByteArrayInputStream(entry.getValue()));
+                assertEquals(entry.getKey(), 10, image.getWidth());
+                photos++;
+            }
+        }
+        assertEquals(3, photos);
+    }
+
+    @Test
+    public void zipWithoutDirectoryEntriesKeepsDirectory() throws Exception {
+        Map<String, byte[]> expected = anonymizeDirectory();
+        File archive = new File(tempFolder.getRoot(), "flat.zip"); //$NON-NLS-1$
+        try (ZipArchiveOutputStream out = new ZipArchiveOutputStream(archive)) {
+            // like "zip -r -D", only the files are packed with the path of the export directory
+            for (Map.Entry<String, byte[]> entry : readFiles(createExport("flat")).entrySet()) { //$NON-NLS-1$
+                out.putArchiveEntry(new ZipArchiveEntry("export/" + entry.getKey())); //$NON-NLS-1$
+                out.write(entry.getValue());
+                out.closeArchiveEntry();
+            }
+        }
+        new Anonymizer(new AnonymizerParams(new String[] { "--seed", "42", archive.getPath() })).run(); //$NON-NLS-1$ //$NON-NLS-2$
+        assertSameFiles(expected, readArchive(new File(tempFolder.getRoot(), "flat_anonymized.zip"), "export_anonymized/")); //$NON-NLS-1$ //$NON-NLS-2$
+    }
+
+    @Test
+    public void tarGzGivesSameOutputAsDirectory() throws Exception {
+        Map<String, byte[]> expected = anonymizeDirectory();
+        File archive = new File(tempFolder.getRoot(), "export.tar.gz"); //$NON-NLS-1$
+        try (TarArchiveOutputStream out = new TarArchiveOutputStream(new GzipCompressorOutputStream(Files.newOutputStream(archive.toPath())))) {
+            // the content of the export directory is packed
+            for (Map.Entry<String, byte[]> entry : readFiles(createExport("tar")).entrySet()) { //$NON-NLS-1$
+                TarArchiveEntry tarEntry = new TarArchiveEntry(entry.getKey());
+                tarEntry.setSize(entry.getValue().length);
+                out.putArchiveEntry(tarEntry);
+                out.write(entry.getValue());
+                out.closeArchiveEntry();
+            }
+        }
+        new Anonymizer(new AnonymizerParams(new String[] { "--seed", "42", "--streaming", archive.getPath() })).run(); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        assertSameFiles(expected, readArchive(new File(tempFolder.getRoot(), "export_anonymized.tar.gz"), "")); //$NON-NLS-1$ //$NON-NLS-2$
+    }
+
+    @Test
+    public void onlyXmlEntriesAboveLimitAreStreamed() throws Exception {
+        Map<String, String> largeFiles = new TreeMap<String, String>();
+        largeFiles.put("workitems/WI-8/workitem.xml", largeWorkItem(ArchiveAnonymizer.XML_MEMORY_LIMIT)); //$NON-NLS-1$
+        largeFiles.put("workitems/WI-9/workitem.xml", largeWorkItem(ArchiveAnonymizer.XML_MEMORY_LIMIT + 1)); //$NON-NLS-1$
+        File export = createExport("large", largeFiles); //$NON-NLS-1$
+        File archive = new File(tempFolder.getRoot(), "large.zip"); //$NON-NLS-1$
+        try (ZipArchiveOutputStream out = new ZipArchiveOutputStream(archive)) {
+            for (Map.Entry<String, byte[]> entry : readFiles(export).entrySet()) {
+                out.putArchiveEntry(new ZipArchiveEntry(entry.getKey()));
+                out.write(entry.getValue());
+                out.closeArchiveEntry();
+            }
+        }
+        new Anonymizer(new AnonymizerParams(new String[] { "--seed", "42", "--threads", "2", archive.getPath() })).run(); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+        Map<String, byte[]> actual = readArchive(new File(tempFolder.getRoot(), "large_anonymized.zip"), ""); //$NON-NLS-1$ //$NON-NLS-2$
+
+        File directory = createExport("directory", largeFiles); //$NON-NLS-1$
+        new Anonymizer(new AnonymizerParams(new String[] { "--seed", "42", directory.getPath() })).run(); //$NON-NLS-1$ //$NON-NLS-2$
+        Map<String, byte[]> expected = readFiles(new File(directory.getPath() + Anonymizer.anonymizedSuffix));
+        File streamedDirectory = createExport("streamed", largeFiles); //$NON-NLS-1$
+        new Anonymizer(new AnonymizerParams(new String[] { "--seed", "42", "--streaming", streamedDirectory.getPath() })).run(); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        Map<String, byte[]> streamed = readFiles(new File(streamedDirectory.getPath() + Anonymizer.anonymizedSuffix));
+        // the CDATA section is kept only by the DOM anonymizer, so the outputs show which one anonymized the entry
+        assertFalse(Arrays.equals(expected.get("workitems/WI-9/workitem.xml"), streamed.get("workitems/WI-9/workitem.xml"))); //$NON-NLS-1$ //$NON-NLS-2$
+        // the entry of the limit size is anonymized like in directory mode, the larger one like with --streaming
+        expected.put("workitems/WI-9/workitem.xml", streamed.get("workitems/WI-9/workitem.xml")); //$NON-NLS-1$ //$NON-NLS-2$
+        assertSameFiles(expected, actual);
+    }
+
+    // work item of the given length in bytes
+    @NotNull
+    private static String largeWorkItem(int length) {
+        String end = "</work-item>"; //$NON-NLS-1$
+        StringBuilder xml = new StringBuilder("<work-item><field id=\"title\">Large</field><notes><![CDATA[kept <as> CDATA]]></notes>\n"); //$NON-NLS-1$
+        for (int i = 0; xml.length() + 100 + end.length() < length; i++) {
+            xml.append("<field id=\"notes\" type=\"text\">Note ").append(i).append(" of the large work item</field>\n"); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+        while (xml.length() + end.length() < length) {
+            xml.append(' ');
+        }
+        return xml.append(end).toString();
+    }
+
+    @NotNull
+    private Map<String, byte[]> anonymizeDirectory() throws Exception {
+        File export = createExport("directory"); //$NON-NLS-1$
+        new Anonymizer(new AnonymizerParams(new String[] { "--seed", "42", export.getPath() })).run(); //$NON-NLS-1$ //$NON-NLS-2$
+        return readFiles(new File(export.getPath() + Anonymizer.anonymizedSuffix));
+    }
+
+    @NotNull
+    private File createExport(@NotNull String name, @NotNull Map<String, String> otherFiles) throws Exception {
+        File documentDirectory = createExport(name);
+        for (Map.Entry<String, String> file : otherFiles.entrySet()) {
+            write(documentDirectory, file.getKey(), file.getValue());
+        }
+        return documentDirectory;
+    }
+
+    @NotNull
+    private File createExport(@NotNull String name) throws Exception {
+        File documentDirectory = tempFolder.newFolder(name);
+        for (int i = 1; i <= 3; i++) {
+            write(documentDirectory, "workitems/WI-" + i + "/workitem.xml", "<work-item><field id=\"title\">Title " + i + "</field>" //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+                    + "<field id=\"description\" text-type=\"text/html\">&lt;p&gt;Text " + i + "&lt;img src=\"attachment:spec" + i + ".txt\"/&gt;" //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+                    + "&lt;img src=\"workitemimg:1-shot.png\"/&gt;&lt;img src=\"workitemimg:2-photo.jpg\"/&gt;&lt;/p&gt;</field></work-item>"); //$NON-NLS-1$
+            write(documentDirectory, "attachments/spec" + i + ".txt", String.join("", Collections.nCopies(100 * i, "spec"))); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+            File picture = new File(documentDirectory, "workitems/WI-" + i + "/attachment1-shot.png"); //$NON-NLS-1$ //$NON-NLS-2$
+            ImageIO.write(new BufferedImage(20 * i, 10, BufferedImage.TYPE_INT_RGB), "png", picture); //$NON-NLS-1$
+            File photo = new File(documentDirectory, "workitems/WI-" + i + "/attachment2-photo.jpg"); //$NON-NLS-1$ //$NON-NLS-2$
+            ImageIO.write(new BufferedImage(10, 20 * i, BufferedImage.TYPE_INT_RGB), "jpg", photo); //$NON-NLS-1$
+        }
+        write(documentDirectory, "attachments/orphan.bin", "orphan"); //$NON-NLS-1$ //$NON-NLS-2$
+        write(documentDirectory, "module.xml", "<module><field id=\"author\">admin</field></module>"); //$NON-NLS-1$ //$NON-NLS-2$
+        return documentDirectory;
+    }
+
+    private static void write(@NotNull File documentDirectory, @NotNull String path, @NotNull String content) throws Exception {
+        File file = new File(documentDirectory, path);
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void assertSameFiles(@NotNull Map<String, byte[]> expected, @NotNull Map<String, byte[]> actual) {
+        assertEquals(expected.keySet(), actual.keySet());
+        for (Map.Entry<String, byte[]> entry : expected.entrySet()) {
+            assertArrayEquals(entry.getKey(), entry.getValue(), actual.get(entry.getKey()));
+        }
+    }
+
+    @NotNull
+    private static Map<String, byte[]> readFiles(@NotNull File directory) throws Exception {
+        Path root = directory.toPath();
+        Map<String, byte[]> files = new TreeMap<String, byte[]>();
+        try (Stream<Path> paths = Files.walk(root)) {
+            for (Path path : (Iterable<Path>) paths::iterator) {
+                if (Files.isRegularFile(path)) {
+                    files.put(root.relativize(path).toString().replace(File.separatorChar, '/'), Files.readAllBytes(path));
+                }
+            }
+        }
+        return files;
+    }
+
+    @NotNull
+    private static Map<String, byte[]> readArchive(@NotNull File archive, @NotNull String prefix) throws Exception {
+        Map<String, byte[]> files = new TreeMap<String, byte[]>();
+        try (InputStream fileIn = Files.newInputStream(archive.toPath());
+                ArchiveInputStream<?> in = archive.getName().endsWith(".zip") ? new ZipArchiveInputStream(fileIn) //$NON-NLS-1$
+                        : new TarArchiveInputStream(new GzipCompressorInputStream(fileIn))) {
+            ArchiveEntry entry;
+            while ((entry = in.getNextEntry()) != null) {
+                assertEquals(entry.getName(), prefix, entry.getName().substring(0, prefix.length()));
+                files.put(entry.getName().substring(prefix.length()), readAll(in));
+            }
+        }
+        return files;
+    }
+
+    @NotNull
+    private static byte[] readAll(@NotNull InputStream in) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n = in.read(buffer)) >= 0) {
+            bytes.write(buffer, 0, n);
+        }
+        return bytes.toByteArray();
+    }
+
+}
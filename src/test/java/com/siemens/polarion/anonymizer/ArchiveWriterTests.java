@@ -0,0 +1,259 @@
+/*
+ * Copyright 2016 Polarion AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.siemens.polarion.anonymizer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+
+import org.apache.commons.compress.archivers.ArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveInputStream;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
+import org.jetbrains.annotations.NotNull;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ArchiveWriterTests {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void zipEntriesAreWrittenInOrder() throws Exception {
+        File archive = write("parallel.zip", ArchiveWriter.Format.ZIP, 4); //$NON-NLS-1$
+        List<String> names = new ArrayList<String>();
+        try (ZipFile zip = ZipFile.builder().setFile(archive).get()) {
+            for (ZipArchiveEntry entry : Collections.list(zip.getEntries())) {
+                names.add(entry.getName());
+                // random content does not go through the compressor
+                assertEquals(entry.getName(), entry.getName().endsWith(".bin") ? ZipEntry.STORED : ZipEntry.DEFLATED, entry.getMethod()); //$NON-NLS-1$
+                try (InputStream in = zip.getInputStream(entry)) {
+                    assertArrayEquals(entry.getName(), content(entry.getName()), readAll(in));
+                }
+            }
+        }
+        assertEquals(expectedNames(), names);
+    }
+
+    @Test
+    public void zipDoesNotDependOnThreads() throws Exception {
+        File single = write("single.zip", ArchiveWriter.Format.ZIP, 1); //$NON-NLS-1$
+        File parallel = write("parallel.zip", ArchiveWriter.Format.ZIP, 4); //$NON-NLS-1$
+        // the compressed data are the same, the entry times may differ
+        try (ZipFile singleZip = ZipFile.builder().setFile(single).get(); ZipFile parallelZip = ZipFile.builder().setFile(parallel).get()) {
+            List<ZipArchiveEntry> singleEntries = Collections.list(singleZip.getEntries());
+            List<ZipArchiveEntry> parallelEntries = Collections.list(parallelZip.getEntries());
+            assertEquals(singleEntries.size(), parallelEntries.size());
+            for (int i = 0; i < singleEntries.size(); i++) {
+                try (InputStream singleIn = singleZip.getRawInputStream(singleEntries.get(i));
+                        InputStream parallelIn = parallelZip.getRawInputStream(parallelEntries.get(i))) {
+                    assertArrayEquals(singleEntries.get(i).getName(), readAll(singleIn), readAll(parallelIn));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void tarGzContainsAllEntries() throws Exception {
+        File archive = write("parallel.tar.gz", ArchiveWriter.Format.TAR_GZ, 4); //$NON-NLS-1$
+        List<String> names = new ArrayList<String>();
+        try (TarArchiveInputStream in = new TarArchiveInputStream(new GzipCompressorInputStream(Files.newInputStream(archive.toPath())))) {
+            ArchiveEntry entry;
+            while ((entry = in.getNextEntry()) != null) {
+                names.add(entry.getName());
+                assertArrayEquals(entry.getName(), content(entry.getName()), readAll(in));
+            }
+        }
+        assertEquals(expectedNames(), names);
+    }
+
+    @Test
+    public void spilledEntriesAreSame() throws Exception {
+        File inMemory = write("memory.zip", ArchiveWriter.Format.ZIP, 4); //$NON-NLS-1$
+        // every entry larger than 1000 bytes goes through a temporary file
+        File spilled = write("spilled.zip", ArchiveWriter.Format.ZIP, 4, 1000); //$NON-NLS-1$
+        try (ZipFile memoryZip = ZipFile.builder().setFile(inMemory).get(); ZipFile spilledZip = ZipFile.builder().setFile(spilled).get()) {
+            List<ZipArchiveEntry> memoryEntries = Collections.list(memoryZip.getEntries());
+            List<ZipArchiveEntry> spilledEntries = Collections.list(spilledZip.getEntries());
+            assertEquals(memoryEntries.size(), spilledEntries.size());
+            for (int i = 0; i < memoryEntries.size(); i++) {
+                try (InputStream memoryIn = memoryZip.getRawInputStream(memoryEntries.get(i));
+                        InputStream spilledIn = spilledZip.getRawInputStream(spilledEntries.get(i))) {
+                    assertArrayEquals(memoryEntries.get(i).getName(), readAll(memoryIn), readAll(spilledIn));
+                }
+            }
+        }
+        File tar = write("spilled.tar.gz", ArchiveWriter.Format.TAR_GZ, 4, 1000); //$NON-NLS-1$
+        try (TarArchiveInputStream in = new TarArchiveInputStream(new GzipCompressorInputStream(Files.newInputStream(tar.toPath())))) {
+            ArchiveEntry entry;
+            while ((entry = in.getNextEntry()) != null) {
+                assertArrayEquals(entry.getName(), content(entry.getName()), readAll(in));
+            }
+        }
+        // the temporary files are deleted
+        assertEquals(Arrays.asList("memory.zip", "spilled.tar.gz", "spilled.zip"), sortedFileNames()); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+    }
+
+    @Test
+    public void failureIsRethrown() throws Exception {
+        File archive = new File(tempFolder.getRoot(), "failed.zip"); //$NON-NLS-1$
+        try (ArchiveWriter writer = new ArchiveWriter(archive, ArchiveWriter.Format.ZIP, 4)) {
+            for (int i = 0; i < 100; i++) {
+                final int entryNumber = i;
+                writer.add("entry" + i + ".xml", true, out -> { //$NON-NLS-1$ //$NON-NLS-2$
+                    if (entryNumber == 50) {
+                        throw new IOException("entry failed"); //$NON-NLS-1$
+                    }
+                    out.write(content("entry" + entryNumber + ".xml")); //$NON-NLS-1$ //$NON-NLS-2$
+                });
+            }
+            writer.finish();
+            fail("Exception expected"); //$NON-NLS-1$
+        } catch (IOException e) {
+            assertEquals("entry failed", e.getMessage()); //$NON-NLS-1$
+        }
+    }
+
+    @Test
+    public void spilledEntriesAreDeletedAfterFailure() throws Exception {
+        File archive = new File(tempFolder.getRoot(), "failed.zip"); //$NON-NLS-1$
+        try (ArchiveWriter writer = new ArchiveWriter(archive, ArchiveWriter.Format.ZIP, 4, 100)) {
+            for (int i = 0; i < 100; i++) {
+                final int entryNumber = i;
+                writer.add("entry" + i + ".bin", false, out -> { //$NON-NLS-1$ //$NON-NLS-2$
+                    out.write(content("small" + entryNumber)); //$NON-NLS-1$
+                    if (entryNumber == 50) {
+                        throw new IOException("entry failed"); //$NON-NLS-1$
+                    }
+                });
+            }
+            writer.finish();
+            fail("Exception expected"); //$NON-NLS-1$
+        } catch (IOException e) {
+            assertEquals("entry failed", e.getMessage()); //$NON-NLS-1$
+        }
+        // the entries collected on the pool when the writer was closed are deleted when they are complete
+        long deadline = System.currentTimeMillis() + 10000;
+        while (sortedFileNames().size() > 1 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(Collections.singletonList("failed.zip"), sortedFileNames()); //$NON-NLS-1$
+    }
+
+    @NotNull
+    private List<String> sortedFileNames() {
+        List<String> names = new ArrayList<String>(Arrays.asList(tempFolder.getRoot().list()));
+        Collections.sort(names);
+        return names;
+    }
+
+    @Test
+    public void zipIsReadableAsStream() throws Exception {
+        File archive = write("stream.zip", ArchiveWriter.Format.ZIP, 4); //$NON-NLS-1$
+        int count = 0;
+        try (ZipArchiveInputStream in = new ZipArchiveInputStream(Files.newInputStream(archive.toPath()))) {
+            ArchiveEntry entry;
+            while ((entry = in.getNextEntry()) != null) {
+                assertArrayEquals(entry.getName(), content(entry.getName()), readAll(in));
+                count++;
+            }
+        }
+        assertEquals(expectedNames().size(), count);
+    }
+
+    @NotNull
+    private File write(@NotNull String name, @NotNull ArchiveWriter.Format format, int threads) throws Exception {
+        return write(name, format, threads, ArchiveWriter.SPILL_THRESHOLD);
+    }
+
+    @NotNull
+    private File write(@NotNull String name, @NotNull ArchiveWriter.Format format, int threads, long spillThreshold) throws Exception {
+        File archive = new File(tempFolder.getRoot(), name);
+        try (ArchiveWriter writer = new ArchiveWriter(archive, format, threads, spillThreshold)) {
+            for (String entryName : expectedNames()) {
+                byte[] content = content(entryName);
+                if (entryName.endsWith("0/workitem.xml")) { //$NON-NLS-1$
+                    // produced by the calling thread between the entries compressed on the pool
+                    writer.addInline(entryName, true, out -> out.write(content));
+                } else if (entryName.endsWith(".xml")) { //$NON-NLS-1$
+                    writer.add(entryName, true, out -> out.write(content));
+                } else if (entryName.contains("small")) { //$NON-NLS-1$
+                    writer.add(entryName, false, out -> out.write(content));
+                } else {
+                    writer.addDirect(entryName, content.length, false, out -> out.write(content));
+                }
+            }
+            writer.finish();
+        }
+        return archive;
+    }
+
+    @NotNull
+    private static List<String> expectedNames() {
+        List<String> names = new ArrayList<String>();
+        for (int i = 0; i < 40; i++) {
+            names.add("workitems/WI-" + i + "/workitem.xml"); //$NON-NLS-1$ //$NON-NLS-2$
+            if (i % 10 == 0) {
+                names.add("attachments/small" + i + ".bin"); //$NON-NLS-1$ //$NON-NLS-2$
+                names.add("attachments/large" + i + ".bin"); //$NON-NLS-1$ //$NON-NLS-2$
+            }
+        }
+        return names;
+    }
+
+    @NotNull
+    private static byte[] content(@NotNull String name) {
+        if (name.endsWith(".xml")) { //$NON-NLS-1$
+            StringBuilder xml = new StringBuilder("<work-item>"); //$NON-NLS-1$
+            for (int i = 0; i < 1000; i++) {
+                xml.append("<field id=\"title\">").append(name).append(' ').append(i).append("</field>"); //$NON-NLS-1$ //$NON-NLS-2$
+            }
+            return xml.append("</work-item>").toString().getBytes(StandardCharsets.UTF_8); //$NON-NLS-1$
+        }
+        byte[] bytes = new byte[name.contains("small") ? 1000 : 200 * 1024]; //$NON-NLS-1$
+        new Random(name.hashCode()).nextBytes(bytes);
+        return bytes;
+    }
+
+    @NotNull
+    private static byte[] readAll(@NotNull InputStream in) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n = in.read(buffer)) >= 0) {
+            bytes.write(buffer, 0, n);
+        }
+        return bytes.toByteArray();
+    }
+
+}
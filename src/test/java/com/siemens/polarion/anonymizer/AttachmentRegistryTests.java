@@ -0,0 +1,94 @@
+/*
+ * Copyright 2016 Polarion AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.siemens.polarion.anonymizer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class AttachmentRegistryTests {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void claimedFilesAreNotInSweep() throws Exception {
+        File first = tempFolder.newFile("first.txt"); //$NON-NLS-1$
+        File second = tempFolder.newFile("second.txt"); //$NON-NLS-1$
+        File third = tempFolder.newFile("third.txt"); //$NON-NLS-1$
+        AttachmentRegistry registry = new AttachmentRegistry();
+        registry.registerAll(Arrays.asList(first, second, third));
+        assertEquals(3, registry.size());
+
+        assertTrue(registry.claim(new File(tempFolder.getRoot(), "sub/../second.txt"))); //$NON-NLS-1$
+        assertFalse(registry.claim(second));
+
+        assertEquals(Arrays.asList(first, third), registry.getUnclaimed());
+        assertEquals(1, registry.getReferencedCount());
+        assertEquals(2, registry.getOrphanedCount());
+        assertEquals(0, registry.getMissingCount());
+    }
+
+    @Test
+    public void unregisteredReferences() throws Exception {
+        File outside = tempFolder.newFile("outside.txt"); //$NON-NLS-1$
+        File missing = new File(tempFolder.getRoot(), "missing.txt"); //$NON-NLS-1$
+        AttachmentRegistry registry = new AttachmentRegistry();
+
+        assertTrue(registry.claim(outside));
+        assertFalse(registry.claim(outside));
+        // there is nothing to write for a missing file
+        assertFalse(registry.claim(missing));
+        assertFalse(registry.claim(missing));
+
+        assertEquals(1, registry.getReferencedCount());
+        assertEquals(1, registry.getMissingCount());
+        assertTrue(registry.getUnclaimed().isEmpty());
+    }
+
+    @Test
+    public void danglingReferenceIsReported() throws Exception {
+        File documentDirectory = tempFolder.newFolder("data"); //$NON-NLS-1$
+        File workItem = new File(documentDirectory, "workitems/WI-1/workitem.xml"); //$NON-NLS-1$
+        workItem.getParentFile().mkdirs();
+        Files.write(workItem.toPath(), ("<work-item><field id=\"description\" text-type=\"text/html\">" //$NON-NLS-1$
+                + "&lt;img src=\"attachment:missing.pdf\"/&gt;&lt;img src=\"workitemimg:1-missing.png\"/&gt;</field></work-item>").getBytes(StandardCharsets.UTF_8)); //$NON-NLS-1$
+        new File(documentDirectory, "attachments").mkdirs(); //$NON-NLS-1$
+        // the run is not stopped by the attachments which do not exist
+        new Anonymizer(new AnonymizerParams(new String[] { "--seed", "42", documentDirectory.getPath() })).run(); //$NON-NLS-1$ //$NON-NLS-2$
+        File anonymized = new File(documentDirectory.getPath() + Anonymizer.anonymizedSuffix);
+        assertTrue(new File(anonymized, "workitems/WI-1/workitem.xml").exists()); //$NON-NLS-1$
+        assertFalse(new File(anonymized, "attachments").exists()); //$NON-NLS-1$
+    }
+
+    @Test
+    public void duplicateRegistrationIsIgnored() throws Exception {
+        File file = tempFolder.newFile("file.txt"); //$NON-NLS-1$
+        AttachmentRegistry registry = new AttachmentRegistry();
+        registry.registerAll(Arrays.asList(file, new File(file.getAbsolutePath())));
+        assertEquals(1, registry.size());
+    }
+
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright 2016 Polarion AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.siemens.polarion.anonymizer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CheckpointJournalTests {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void recordsAreReadOnResume() throws Exception {
+        String documentDirectory = tempFolder.newFolder("data").getPath(); //$NON-NLS-1$
+        String anonymizedDirectory = documentDirectory + Anonymizer.anonymizedSuffix;
+        File xml = new File(documentDirectory, "workitems/WI-1/workitem.xml"); //$NON-NLS-1$
+        File attachment = new File(documentDirectory, "attachments/a\tb.txt"); //$NON-NLS-1$
+        File picture = new File(documentDirectory, "attachments/shot.png"); //$NON-NLS-1$
+        try (CheckpointJournal journal = CheckpointJournal.create(documentDirectory, anonymizedDirectory, new RandomSource(1234567890123L))) {
+            journal.attachmentClaimed(attachment, new File(anonymizedDirectory, "attachments/xY\\z.txt")); //$NON-NLS-1$
+            journal.attachmentWritten(attachment);
+            journal.attachmentClaimed(picture, new File(anonymizedDirectory, "attachments/Abcd.png")); //$NON-NLS-1$
+            journal.xmlWritten(xml);
+        }
+        // only the fingerprint of the secret seed is recorded
+        String content = new String(Files.readAllBytes(CheckpointJournal.getFile(anonymizedDirectory).toPath()), StandardCharsets.UTF_8);
+        assertFalse(content.contains("1234567890123")); //$NON-NLS-1$
+        try (CheckpointJournal journal = CheckpointJournal.resume(documentDirectory, anonymizedDirectory, new RandomSource(1234567890123L))) {
+            assertTrue(journal.isXmlCompleted(xml));
+            assertFalse(journal.isXmlCompleted(new File(documentDirectory, "workitems/WI-2/workitem.xml"))); //$NON-NLS-1$
+            assertTrue(journal.isAttachmentWritten(attachment));
+            assertFalse(journal.isAttachmentWritten(picture));
+            Map<File, File> claimed = journal.getClaimedAttachments();
+            assertEquals(new File(anonymizedDirectory, "attachments/xY\\z.txt"), claimed.get(attachment)); //$NON-NLS-1$
+            assertEquals(new File(anonymizedDirectory, "attachments/Abcd.png"), claimed.get(picture)); //$NON-NLS-1$
+            journal.finish();
+        }
+        assertFalse(CheckpointJournal.getFile(anonymizedDirectory).exists());
+    }
+
+    @Test
+    public void incompleteRecordIsDropped() throws Exception {
+        String documentDirectory = tempFolder.newFolder("data").getPath(); //$NON-NLS-1$
+        String anonymizedDirectory = documentDirectory + Anonymizer.anonymizedSuffix;
+        File xml = new File(documentDirectory, "module.xml"); //$NON-NLS-1$
+        try (CheckpointJournal journal = CheckpointJournal.create(documentDirectory, anonymizedDirectory, new RandomSource(1))) {
+            journal.xmlWritten(xml);
+        }
+        Files.write(CheckpointJournal.getFile(anonymizedDirectory).toPath(), "X\tother".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND); //$NON-NLS-1$
+        File other = new File(documentDirectory, "other"); //$NON-NLS-1$
+        try (CheckpointJournal journal = CheckpointJournal.resume(documentDirectory, anonymizedDirectory, new RandomSource(1))) {
+            assertTrue(journal.isXmlCompleted(xml));
+            assertFalse(journal.isXmlCompleted(other));
+            journal.xmlWritten(other);
+        }
+        try (CheckpointJournal journal = CheckpointJournal.resume(documentDirectory, anonymizedDirectory, new RandomSource(1))) {
+            assertTrue(journal.isXmlCompleted(other));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void otherSeedIsRejected() throws Exception {
+        String documentDirectory = tempFolder.newFolder("data").getPath(); //$NON-NLS-1$
+        String anonymizedDirectory = documentDirectory + Anonymizer.anonymizedSuffix;
+        CheckpointJournal.create(documentDirectory, anonymizedDirectory, new RandomSource(1)).close();
+        CheckpointJournal.resume(documentDirectory, anonymizedDirectory, new RandomSource(2)).close();
+    }
+
+    @Test
+    public void resumedRunGivesSameOutputAsCompleteRun() throws Exception {
+        File complete = createExport("complete"); //$NON-NLS-1$
+        new Anonymizer(new AnonymizerParams(new String[] { "--seed", "42", complete.getPath() })).run(); //$NON-NLS-1$ //$NON-NLS-2$
+
+        File interrupted = createExport("interrupted"); //$NON-NLS-1$
+        File brokenFile = new File(interrupted, "workitems/WI-4/workitem.xml"); //$NON-NLS-1$
+        byte[] workItem = Files.readAllBytes(brokenFile.toPath());
+        Files.write(brokenFile.toPath(), "<work-item><field".getBytes(StandardCharsets.UTF_8)); //$NON-NLS-1$
+        try {
+            new Anonymizer(new AnonymizerParams(new String[] { "--seed", "42", interrupted.getPath() })).run(); //$NON-NLS-1$ //$NON-NLS-2$
+            fail("Broken XML file was anonymized."); //$NON-NLS-1$
+        } catch (Exception e) {
+            // the run is interrupted by the broken file
+        }
+        String anonymizedDirectory = interrupted.getPath() + Anonymizer.anonymizedSuffix;
+        assertTrue(CheckpointJournal.getFile(anonymizedDirectory).exists());
+        Files.write(brokenFile.toPath(), workItem);
+
+        new Anonymizer(new AnonymizerParams(new String[] { "--seed", "42", "--resume", interrupted.getPath() })).run(); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        assertFalse(CheckpointJournal.getFile(anonymizedDirectory).exists());
+        Map<String, byte[]> expected = readOutput(complete);
+        Map<String, byte[]> resumed = readOutput(interrupted);
+        assertEquals(expected.keySet(), resumed.keySet());
+        for (Map.Entry<String, byte[]> entry : expected.entrySet()) {
+            assertArrayEquals(entry.getKey(), entry.getValue(), resumed.get(entry.getKey()));
+        }
+    }
+
+    @NotNull
+    private File createExport(@NotNull String name) throws Exception {
+        File documentDirectory = tempFolder.newFolder(name);
+        for (int i = 1; i <= 6; i++) {
+            write(documentDirectory, "workitems/WI-" + i + "/workitem.xml", "<work-item><field id=\"title\">Title " + i + "</field>" //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+                    + "<field id=\"description\" text-type=\"text/html\">&lt;p&gt;Text " + i + "&lt;img src=\"attachment:spec" + i + ".txt\"/&gt;&lt;/p&gt;</field></work-item>"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+            write(documentDirectory, "attachments/spec" + i + ".txt", String.join("", Collections.nCopies(100 * i, "spec"))); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+        }
+        write(documentDirectory, "attachments/orphan.bin", "orphan"); //$NON-NLS-1$ //$NON-NLS-2$
+        return documentDirectory;
+    }
+
+    private static void write(@NotNull File documentDirectory, @NotNull String path, @NotNull String content) throws Exception {
+        File file = new File(documentDirectory, path);
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @NotNull
+    private static Map<String, byte[]> readOutput(@NotNull File documentDirectory) throws Exception {
+        Path output = new File(documentDirectory.getPath() + Anonymizer.anonymizedSuffix).toPath();
+        Map<String, byte[]> files = new TreeMap<String, byte[]>();
+        try (Stream<Path> paths = Files.walk(output)) {
+            for (Path path : (Iterable<Path>) paths::iterator) {
+                if (Files.isRegularFile(path)) {
+                    files.put(output.relativize(path).toString().replace(File.separatorChar, '/'), Files.readAllBytes(path));
+                }
+            }
+        }
+        return files;
+    }
+
+}
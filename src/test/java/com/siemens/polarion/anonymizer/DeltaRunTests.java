@@ -0,0 +1,193 @@
+/*
+ * Copyright 2016 Polarion AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.siemens.polarion.anonymizer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class DeltaRunTests {
+    @NotNull
+    private static final FileTime OLD_TIME = FileTime.fromMillis(1000000000000L);
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void manifestIsReadBack() throws Exception {
+        File file = tempFolder.newFile("run.manifest"); //$NON-NLS-1$
+        Manifest manifest = new Manifest("def", "abc"); //$NON-NLS-1$ //$NON-NLS-2$
+        manifest.put("attachments/a\tb.txt", new Manifest.Entry(3, 4, "hash", "attachments/x\\y.txt")); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        manifest.put("module.xml", new Manifest.Entry(5, 6, "other", null)); //$NON-NLS-1$ //$NON-NLS-2$
+        manifest.write(file);
+        Manifest read = Manifest.read(file);
+        assertEquals("def", read.getSeedFingerprint()); //$NON-NLS-1$
+        assertEquals("abc", read.getKeyFingerprint()); //$NON-NLS-1$
+        // sources without output are not recorded
+        assertEquals(Collections.singleton("attachments/a\tb.txt"), read.getEntries().keySet()); //$NON-NLS-1$
+        Manifest.Entry entry = read.get("attachments/a\tb.txt"); //$NON-NLS-1$
+        assertNotNull(entry);
+        assertEquals(3, entry.size);
+        assertEquals(4, entry.modified);
+        assertEquals("hash", entry.hash); //$NON-NLS-1$
+        assertEquals("attachments/x\\y.txt", entry.output); //$NON-NLS-1$
+    }
+
+    @Test
+    public void inPlaceDeltaGivesSameOutputAsCompleteRun() throws Exception {
+        File export = createExport("export"); //$NON-NLS-1$
+        new Anonymizer(new AnonymizerParams(new String[] { "--seed", "1234567890123", "--manifest", export.getPath() })).run(); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        String anonymizedDirectory = export.getPath() + Anonymizer.anonymizedSuffix;
+        // only the fingerprint of the secret seed is recorded
+        byte[] manifest = Files.readAllBytes(Manifest.getFile(anonymizedDirectory).toPath());
+        assertFalse(new String(manifest, StandardCharsets.UTF_8).contains("1234567890123")); //$NON-NLS-1$
+        touchOutput(export);
+
+        changeExport(export);
+        new Anonymizer(new AnonymizerParams(new String[] { "--seed", "1234567890123", "--delta", anonymizedDirectory, export.getPath() })).run(); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+
+        File complete = createExport("complete"); //$NON-NLS-1$
+        changeExport(complete);
+        new Anonymizer(new AnonymizerParams(new String[] { "--seed", "1234567890123", complete.getPath() })).run(); //$NON-NLS-1$ //$NON-NLS-2$
+        assertSameOutput(complete, export);
+
+        // unchanged files are not written again
+        File anonymized = new File(anonymizedDirectory);
+        assertEquals(OLD_TIME, Files.getLastModifiedTime(new File(anonymized, "workitems/WI-1/workitem.xml").toPath())); //$NON-NLS-1$
+        assertNotEquals(OLD_TIME, Files.getLastModifiedTime(new File(anonymized, "workitems/WI-2/workitem.xml").toPath())); //$NON-NLS-1$
+        assertFalse(new File(anonymized, "workitems/WI-3").exists()); //$NON-NLS-1$
+    }
+
+    @Test
+    public void deltaToNewDirectoryLinksUnchangedOutputs() throws Exception {
+        File previous = createExport("previous"); //$NON-NLS-1$
+        new Anonymizer(new AnonymizerParams(new String[] { "--seed", "42", "--manifest", previous.getPath() })).run(); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        String previousDirectory = previous.getPath() + Anonymizer.anonymizedSuffix;
+
+        File current = createExport("current"); //$NON-NLS-1$
+        changeExport(current);
+        new Anonymizer(new AnonymizerParams(new String[] { "--seed", "42", "--delta", previousDirectory, current.getPath() })).run(); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        assertTrue(Manifest.getFile(current.getPath() + Anonymizer.anonymizedSuffix).exists());
+
+        File complete = createExport("complete"); //$NON-NLS-1$
+        changeExport(complete);
+        new Anonymizer(new AnonymizerParams(new String[] { "--seed", "42", complete.getPath() })).run(); //$NON-NLS-1$ //$NON-NLS-2$
+        assertSameOutput(complete, current);
+
+        Path currentXml = new File(current.getPath() + Anonymizer.anonymizedSuffix, "workitems/WI-1/workitem.xml").toPath(); //$NON-NLS-1$
+        assertTrue(Files.isSameFile(new File(previousDirectory, "workitems/WI-1/workitem.xml").toPath(), currentXml)); //$NON-NLS-1$
+        Path changedXml = new File(current.getPath() + Anonymizer.anonymizedSuffix, "workitems/WI-2/workitem.xml").toPath(); //$NON-NLS-1$
+        assertFalse(Files.isSameFile(new File(previousDirectory, "workitems/WI-2/workitem.xml").toPath(), changedXml)); //$NON-NLS-1$
+        // the previous run is not changed by the delta run
+        assertTrue(new File(previousDirectory, "workitems/WI-3/workitem.xml").exists()); //$NON-NLS-1$
+    }
+
+    @Test(expected = IOException.class)
+    public void otherSeedIsRejected() throws Exception {
+        File export = createExport("export"); //$NON-NLS-1$
+        new Anonymizer(new AnonymizerParams(new String[] { "--seed", "1", "--manifest", export.getPath() })).run(); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        String anonymizedDirectory = export.getPath() + Anonymizer.anonymizedSuffix;
+        new Anonymizer(new AnonymizerParams(new String[] { "--seed", "2", "--delta", anonymizedDirectory, export.getPath() })).run(); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+    }
+
+    @NotNull
+    private File createExport(@NotNull String name) throws Exception {
+        File documentDirectory = tempFolder.newFolder(name);
+        for (int i = 1; i <= 4; i++) {
+            write(documentDirectory, "workitems/WI-" + i + "/workitem.xml", workItem(i, "Title " + i)); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+            write(documentDirectory, "attachments/spec" + i + ".txt", String.join("", Collections.nCopies(100 * i, "spec"))); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+        }
+        write(documentDirectory, "attachments/orphan.bin", "orphan"); //$NON-NLS-1$ //$NON-NLS-2$
+        return documentDirectory;
+    }
+
+    // changes a work item, removes another one with its attachment and adds a new one
+    private static void changeExport(@NotNull File documentDirectory) throws Exception {
+        write(documentDirectory, "workitems/WI-2/workitem.xml", workItem(2, "Changed title")); //$NON-NLS-1$ //$NON-NLS-2$
+        Files.delete(new File(documentDirectory, "workitems/WI-3/workitem.xml").toPath()); //$NON-NLS-1$
+        Files.delete(new File(documentDirectory, "workitems/WI-3").toPath()); //$NON-NLS-1$
+        Files.delete(new File(documentDirectory, "attachments/spec3.txt").toPath()); //$NON-NLS-1$
+        write(documentDirectory, "workitems/WI-5/workitem.xml", workItem(5, "Title 5")); //$NON-NLS-1$ //$NON-NLS-2$
+        write(documentDirectory, "attachments/spec5.txt", "new spec"); //$NON-NLS-1$ //$NON-NLS-2$
+        write(documentDirectory, "attachments/orphan.bin", "changed orphan"); //$NON-NLS-1$ //$NON-NLS-2$
+    }
+
+    @NotNull
+    private static String workItem(int i, @NotNull String title) {
+        return "<work-item><field id=\"title\">" + title + "</field>" //$NON-NLS-1$ //$NON-NLS-2$
+                + "<field id=\"description\" text-type=\"text/html\">&lt;p&gt;Text " + i + "&lt;img src=\"attachment:spec" + i + ".txt\"/&gt;&lt;/p&gt;</field></work-item>"; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+    }
+
+    private static void write(@NotNull File documentDirectory, @NotNull String path, @NotNull String content) throws Exception {
+        File file = new File(documentDirectory, path);
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // outputs which are written again get a new modification time
+    private static void touchOutput(@NotNull File documentDirectory) throws Exception {
+        try (Stream<Path> paths = Files.walk(new File(documentDirectory.getPath() + Anonymizer.anonymizedSuffix).toPath())) {
+            for (Path path : (Iterable<Path>) paths::iterator) {
+                if (Files.isRegularFile(path)) {
+                    Files.setLastModifiedTime(path, OLD_TIME);
+                }
+            }
+        }
+    }
+
+    private static void assertSameOutput(@NotNull File expectedDirectory, @NotNull File actualDirectory) throws Exception {
+        Map<String, byte[]> expected = readOutput(expectedDirectory);
+        Map<String, byte[]> actual = readOutput(actualDirectory);
+        assertEquals(expected.keySet(), actual.keySet());
+        for (Map.Entry<String, byte[]> entry : expected.entrySet()) {
+            assertArrayEquals(entry.getKey(), entry.getValue(), actual.get(entry.getKey()));
+        }
+    }
+
+    @NotNull
+    private static Map<String, byte[]> readOutput(@NotNull File documentDirectory) throws Exception {
+        Path output = new File(documentDirectory.getPath() + Anonymizer.anonymizedSuffix).toPath();
+        Map<String, byte[]> files = new TreeMap<String, byte[]>();
+        try (Stream<Path> paths = Files.walk(output)) {
+            for (Path path : (Iterable<Path>) paths::iterator) {
+                if (Files.isRegularFile(path)) {
+                    files.put(output.relativize(path).toString().replace(File.separatorChar, '/'), Files.readAllBytes(path));
+                }
+            }
+        }
+        return files;
+    }
+
+}
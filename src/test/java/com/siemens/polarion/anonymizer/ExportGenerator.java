@@ -0,0 +1,403 @@
+/*
+ * Copyright 2016 Polarion AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.siemens.polarion.anonymizer;
+
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.imageio.ImageIO;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Generates a synthetic Polarion export for scale and load testing of the anonymizer. The export has the shape of a real one: work items in
+ * <code>workitems/&lt;id&gt;/workitem.xml</code> with fields of every type and text type handled by the anonymizer, rich text with
+ * <code>attachment:</code> references to the shared attachments in <code>attachments</code> and <code>workitemimg:</code> references to the
+ * numbered <code>attachmentN-</code> pictures of the work item, binary attachments with a log-normal size distribution and a
+ * <code>module.xml</code> of a LiveDoc with the first work items.
+ * <p>
+ * Every work item and every shared attachment is generated from its own random stream derived from the seed and its number, so the same seed gives
+ * the same export regardless of the number of threads.
+ */
+public class ExportGenerator {
+    @NotNull
+    private static final Logger log = LogManager.getLogger(ExportGenerator.class);
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+    // the random streams of work items and shared attachments do not overlap
+    private static final long ATTACHMENT_STREAMS = 1L << 40;
+    // spread of the log-normal size distribution, the largest attachments are capped
+    private static final double SIZE_SIGMA = 1.5;
+    private static final int MAX_SIZE_FACTOR = 64;
+    // the module of a LiveDoc with more work items would be too large for the DOM anonymizer
+    private static final int MAX_MODULE_WORKITEMS = 10000;
+    private static final int USERS = 200;
+    private static final int PROGRESS_INTERVAL = 100000;
+    @NotNull
+    private static final String XML_HEADER = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>\n"; //$NON-NLS-1$
+    @NotNull
+    private static final String[] WORDS = { "system", "shall", "brake", "pressure", "sensor", "signal", "engine", "driver", "monitor", "value", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$ //$NON-NLS-7$ //$NON-NLS-8$ //$NON-NLS-9$ //$NON-NLS-10$
+            "limit", "start", "report", "error", "state", "mode", "degraded", "supply", "voltage", "message", "Überwachung", "příkaz", "réglage", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$ //$NON-NLS-7$ //$NON-NLS-8$ //$NON-NLS-9$ //$NON-NLS-10$ //$NON-NLS-11$ //$NON-NLS-12$ //$NON-NLS-13$
+            "the", "of", "and", "within", "10", "ms", "2.5", "V" }; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$ //$NON-NLS-7$ //$NON-NLS-8$
+    @NotNull
+    private static final String[] TYPES = { "requirement", "task", "defect", "testcase" }; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+    @NotNull
+    private static final String[] STATUSES = { "draft", "reviewed", "approved", "rejected" }; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+    @NotNull
+    private static final String[] SEVERITIES = { "must_have", "should_have", "nice_to_have" }; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+    @NotNull
+    private static final String[] BINARY_EXTENSIONS = { "pdf", "docx", "xlsx", "zip", "txt" }; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$
+    @NotNull
+    private static final String[] PICTURE_EXTENSIONS = { "png", "jpg" }; //$NON-NLS-1$ //$NON-NLS-2$
+
+    @NotNull
+    private final File outputDirectory;
+    private final long seed;
+    private final int workItemCount;
+    private final int attachmentCount;
+    private final double pictureRatio;
+    @NotNull
+    private final List<Dimension> pictureSizes;
+    private final long attachmentSize;
+    private final int threads;
+    @NotNull
+    private final AtomicInteger generatedCount = new AtomicInteger();
+    @NotNull
+    private final AtomicInteger pictureCount = new AtomicInteger();
+    @NotNull
+    private final AtomicInteger binaryCount = new AtomicInteger();
+    @NotNull
+    private final AtomicLong byteCount = new AtomicLong();
+
+    public ExportGenerator(@NotNull File outputDirectory, long seed, int workItemCount, int attachmentCount, double pictureRatio, @NotNull List<Dimension> pictureSizes,
+            long attachmentSize, int threads) {
+        this.outputDirectory = outputDirectory;
+        this.seed = seed;
+        this.workItemCount = workItemCount;
+        this.attachmentCount = attachmentCount;
+        this.pictureRatio = pictureRatio;
+        this.pictureSizes = pictureSizes;
+        this.attachmentSize = attachmentSize;
+        this.threads = threads;
+    }
+
+    public void generate() throws Exception {
+        if (outputDirectory.exists()) {
+            throw new IOException("Directory \"" + outputDirectory + "\" already exists, remove it please."); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+        long start = System.nanoTime();
+        try (WorkerPool pool = new WorkerPool(threads, "export-generator")) { //$NON-NLS-1$
+            for (int i = 0; i < attachmentCount; i++) {
+                final int number = i;
+                pool.submit(() -> writeSharedAttachment(number));
+            }
+            for (int i = 0; i < workItemCount; i++) {
+                final int number = i;
+                pool.submit(() -> writeWorkItem(number));
+            }
+            pool.awaitCompletion();
+        }
+        writeModule();
+        log.info("Work items: " + workItemCount + ", shared attachments: " + attachmentCount + ", pictures: " + pictureCount.get() + ", binary attachments: " //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+                + binaryCount.get() + ", " + byteCount.get() / (1024 * 1024) + " MB in " + (System.nanoTime() - start) / 1_000_000 + " ms"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+    }
+
+    @NotNull
+    private SplittableRandom random(long stream) {
+        return new SplittableRandom(seed * GOLDEN_GAMMA + stream);
+    }
+
+    @NotNull
+    private static String workItemId(int number) {
+        return "WI-" + (number + 1); //$NON-NLS-1$
+    }
+
+    // names contain spaces, so the references are URL encoded like in the exports
+    @NotNull
+    private static String sharedAttachmentName(int number) {
+        return "Specification " + (number + 1) + "." + BINARY_EXTENSIONS[number % BINARY_EXTENSIONS.length]; //$NON-NLS-1$ //$NON-NLS-2$
+    }
+
+    private void writeSharedAttachment(int number) throws IOException {
+        writeBinary(new File(outputDirectory, "attachments/" + sharedAttachmentName(number)), random(ATTACHMENT_STREAMS + number)); //$NON-NLS-1$
+    }
+
+    private void writeWorkItem(int number) throws IOException {
+        SplittableRandom random = random(number);
+        File directory = new File(outputDirectory, "workitems/" + workItemId(number)); //$NON-NLS-1$
+        FileUtils.tryToCreateDirForFile(new File(directory, "workitem.xml")); //$NON-NLS-1$
+        // numbered attachments of the work item, pictures are referenced from the description
+        List<String> pictures = new ArrayList<String>();
+        int attachments = random.nextInt(4);
+        for (int i = 1; i <= attachments; i++) {
+            if (random.nextDouble() < pictureRatio) {
+                String name = "picture " + i + "." + PICTURE_EXTENSIONS[random.nextInt(PICTURE_EXTENSIONS.length)]; //$NON-NLS-1$ //$NON-NLS-2$
+                writePicture(new File(directory, "attachment" + i + "-" + name), random); //$NON-NLS-1$ //$NON-NLS-2$
+                pictures.add(i + "-" + name); //$NON-NLS-1$
+            } else {
+                writeBinary(new File(directory, "attachment" + i + "-document " + i + "." + BINARY_EXTENSIONS[random.nextInt(BINARY_EXTENSIONS.length)]), random); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+            }
+        }
+
+        StringBuilder xml = new StringBuilder(4096);
+        xml.append(XML_HEADER).append("<work-item>\n"); //$NON-NLS-1$
+        appendField(xml, "author", null, null, user(random)); //$NON-NLS-1$
+        appendField(xml, "assignee", null, null, user(random)); //$NON-NLS-1$
+        appendField(xml, "title", null, null, words(random, 3 + random.nextInt(8))); //$NON-NLS-1$
+        appendField(xml, "type", null, null, TYPES[random.nextInt(TYPES.length)]); //$NON-NLS-1$
+        appendField(xml, "status", null, null, STATUSES[random.nextInt(STATUSES.length)]); //$NON-NLS-1$
+        appendField(xml, "created", null, null, String.format(Locale.ENGLISH, "2015-%02d-%02d 12:34:56.306 +0100", 1 + random.nextInt(12), 1 + random.nextInt(28))); //$NON-NLS-1$ //$NON-NLS-2$
+        appendField(xml, "severity", "enum:@severity", null, SEVERITIES[random.nextInt(SEVERITIES.length)]); //$NON-NLS-1$ //$NON-NLS-2$
+        appendField(xml, "customer", "string", null, words(random, 2)); //$NON-NLS-1$ //$NON-NLS-2$
+        appendField(xml, "notes", "text", null, words(random, 5 + random.nextInt(20))); //$NON-NLS-1$ //$NON-NLS-2$
+        appendField(xml, "count", "integer", null, Integer.toString(random.nextInt(1000))); //$NON-NLS-1$ //$NON-NLS-2$
+        appendField(xml, "ratio", "float", null, String.format(Locale.ENGLISH, "%.3f", random.nextDouble())); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        appendField(xml, "cost", "currency", null, String.format(Locale.ENGLISH, "%.2f", random.nextDouble() * 10000)); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        appendField(xml, "rationale", null, "text/plain", words(random, 10 + random.nextInt(30))); //$NON-NLS-1$ //$NON-NLS-2$
+        appendField(xml, "description", null, "text/html", richText(random, pictures)); //$NON-NLS-1$ //$NON-NLS-2$
+        // comments are items of a structured field with their own text type
+        xml.append("    <field id=\"comments\">\n"); //$NON-NLS-1$
+        int comments = random.nextInt(3);
+        for (int i = 0; i < comments; i++) {
+            xml.append("        <list><struct><item id=\"author\">").append(user(random)).append("</item><item id=\"text\" text-type=\"text/html\">"); //$NON-NLS-1$ //$NON-NLS-2$
+            appendEscaped(xml, "<p>" + words(random, 5 + random.nextInt(15)) + "</p>"); //$NON-NLS-1$ //$NON-NLS-2$
+            xml.append("</item></struct></list>\n"); //$NON-NLS-1$
+        }
+        xml.append("    </field>\n"); //$NON-NLS-1$
+        xml.append("    <field id=\"linkedWorkItems\">\n"); //$NON-NLS-1$
+        int links = random.nextInt(4);
+        for (int i = 0; i < links; i++) {
+            xml.append("        <list><struct><item id=\"role\">relates_to</item><item id=\"workItem\">").append(workItemId(random.nextInt(workItemCount))) //$NON-NLS-1$
+                    .append("</item></struct></list>\n"); //$NON-NLS-1$
+        }
+        xml.append("    </field>\n</work-item>\n"); //$NON-NLS-1$
+        write(new File(directory, "workitem.xml"), xml); //$NON-NLS-1$
+
+        int generated = generatedCount.incrementAndGet();
+        if (generated % PROGRESS_INTERVAL == 0) {
+            log.info("Generated work items: " + generated); //$NON-NLS-1$
+        }
+    }
+
+    @NotNull
+    private String richText(@NotNull SplittableRandom random, @NotNull List<String> pictures) throws UnsupportedEncodingException {
+        StringBuilder html = new StringBuilder();
+        int paragraphs = 1 + random.nextInt(5);
+        for (int i = 0; i < paragraphs; i++) {
+            html.append("<p>").append(words(random, 10 + random.nextInt(40))).append(" <b>").append(words(random, 2)).append("</b></p>"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        }
+        for (String picture : pictures) {
+            html.append("<p><img src=\"workitemimg:").append(URLEncoder.encode(picture, "UTF-8").replace("+", "%20")).append("\"/></p>"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$
+        }
+        if (attachmentCount > 0) {
+            int references = random.nextInt(3);
+            for (int i = 0; i < references; i++) {
+                String name = sharedAttachmentName(random.nextInt(attachmentCount));
+                html.append("<p><img src=\"attachment:").append(URLEncoder.encode(name, "UTF-8").replace("+", "%20")).append("\"/></p>"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$
+            }
+        }
+        return html.toString();
+    }
+
+    // LiveDoc with the headings of the first work items
+    private void writeModule() throws IOException {
+        SplittableRandom random = random(-1);
+        StringBuilder html = new StringBuilder();
+        int workItems = Math.min(workItemCount, MAX_MODULE_WORKITEMS);
+        for (int i = 0; i < workItems; i++) {
+            html.append("<h2 id=\"polarion_wiki macro name=module-workitem;params=id=").append(workItemId(i)).append("\"></h2>"); //$NON-NLS-1$ //$NON-NLS-2$
+            if (i % 10 == 0) {
+                html.append("<p>").append(words(random, 20 + random.nextInt(40))).append("</p>"); //$NON-NLS-1$ //$NON-NLS-2$
+            }
+        }
+        StringBuilder xml = new StringBuilder(html.length() * 2);
+        xml.append(XML_HEADER).append("<module>\n"); //$NON-NLS-1$
+        appendField(xml, "author", null, null, user(random)); //$NON-NLS-1$
+        appendField(xml, "title", null, null, words(random, 4)); //$NON-NLS-1$
+        appendField(xml, "status", "enum:@status", null, STATUSES[random.nextInt(STATUSES.length)]); //$NON-NLS-1$ //$NON-NLS-2$
+        appendField(xml, "homePageContent", null, "text/html", html.toString()); //$NON-NLS-1$ //$NON-NLS-2$
+        xml.append("</module>\n"); //$NON-NLS-1$
+        FileUtils.tryToCreateDirForFile(new File(outputDirectory, "module.xml")); //$NON-NLS-1$
+        write(new File(outputDirectory, "module.xml"), xml); //$NON-NLS-1$
+    }
+
+    private static void appendField(@NotNull StringBuilder xml, @NotNull String id, String type, String textType, @NotNull String value) {
+        xml.append("    <field id=\"").append(id).append('"'); //$NON-NLS-1$
+        if (type != null) {
+            xml.append(" type=\"").append(type).append('"'); //$NON-NLS-1$
+        }
+        if (textType != null) {
+            xml.append(" text-type=\"").append(textType).append('"'); //$NON-NLS-1$
+        }
+        xml.append('>');
+        appendEscaped(xml, value);
+        xml.append("</field>\n"); //$NON-NLS-1$
+    }
+
+    private static void appendEscaped(@NotNull StringBuilder xml, @NotNull String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '<') {
+                xml.append("&lt;"); //$NON-NLS-1$
+            } else if (c == '>') {
+                xml.append("&gt;"); //$NON-NLS-1$
+            } else if (c == '&') {
+                xml.append("&amp;"); //$NON-NLS-1$
+            } else {
+                xml.append(c);
+            }
+        }
+    }
+
+    @NotNull
+    private static String user(@NotNull SplittableRandom random) {
+        return "user" + random.nextInt(USERS); //$NON-NLS-1$
+    }
+
+    @NotNull
+    private static String words(@NotNull SplittableRandom random, int count) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                text.append(' ');
+            }
+            text.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return text.toString();
+    }
+
+    private void write(@NotNull File file, @NotNull CharSequence content) throws IOException {
+        byte[] bytes = content.toString().getBytes(StandardCharsets.UTF_8);
+        Files.write(file.toPath(), bytes);
+        byteCount.addAndGet(bytes.length);
+    }
+
+    private void writePicture(@NotNull File file, @NotNull SplittableRandom random) throws IOException {
+        Dimension size = pictureSizes.get(random.nextInt(pictureSizes.size()));
+        BufferedImage image = PictureRandomizer.fillImageContent(new BufferedImage(size.width, size.height, BufferedImage.TYPE_INT_RGB), random);
+        if (!ImageIO.write(image, FileUtils.getExtension(file.toPath()), file)) {
+            throw new IOException("Picture \"" + file + "\" cannot be written."); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+        pictureCount.incrementAndGet();
+        byteCount.addAndGet(file.length());
+    }
+
+    // log-normal sizes around the median, like the mix of small documents and few large files in the exports
+    private void writeBinary(@NotNull File file, @NotNull SplittableRandom random) throws IOException {
+        double gaussian = Math.sqrt(-2 * Math.log(1 - random.nextDouble())) * Math.cos(2 * Math.PI * random.nextDouble());
+        long size = (long) Math.max(1, Math.min(attachmentSize * (double) MAX_SIZE_FACTOR, attachmentSize * Math.exp(SIZE_SIGMA * gaussian)));
+        FileUtils.tryToCreateDirForFile(file);
+        RandomContentWriter.write(random.split(), size, file);
+        binaryCount.incrementAndGet();
+        byteCount.addAndGet(size);
+    }
+
+    public static void main(@NotNull String[] args) {
+        try {
+            long seed = 1;
+            int workItems = 1000;
+            int attachments = -1;
+            double pictureRatio = 0.5;
+            List<Dimension> pictureSizes = parseSizes("--picture-sizes", "320x240,1024x768"); //$NON-NLS-1$ //$NON-NLS-2$
+            long attachmentSize = 64 * 1024;
+            int threads = 1;
+            String outputDirectory = null;
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                if (arg.equals("--seed")) { //$NON-NLS-1$
+                    seed = Long.parseLong(optionValue(args, ++i, arg));
+                } else if (arg.equals("--workitems")) { //$NON-NLS-1$
+                    workItems = parseNumber(arg, optionValue(args, ++i, arg));
+                } else if (arg.equals("--attachments")) { //$NON-NLS-1$
+                    attachments = parseNumber(arg, optionValue(args, ++i, arg));
+                } else if (arg.equals("--picture-ratio")) { //$NON-NLS-1$
+                    pictureRatio = Double.parseDouble(optionValue(args, ++i, arg));
+                } else if (arg.equals("--picture-sizes")) { //$NON-NLS-1$
+                    pictureSizes = parseSizes(arg, optionValue(args, ++i, arg));
+                } else if (arg.equals("--attachment-size")) { //$NON-NLS-1$
+                    attachmentSize = parseNumber(arg, optionValue(args, ++i, arg));
+                } else if (arg.equals("--threads")) { //$NON-NLS-1$
+                    threads = Math.max(1, parseNumber(arg, optionValue(args, ++i, arg)));
+                } else if (outputDirectory == null) {
+                    outputDirectory = arg;
+                } else {
+                    throw new Exception("Wrong number of parameters."); //$NON-NLS-1$
+                }
+            }
+            if (outputDirectory == null) {
+                throw new Exception("Usage: ExportGenerator [--seed N] [--workitems N] [--attachments N] [--picture-ratio R] [--picture-sizes WxH,...] " //$NON-NLS-1$
+                        + "[--attachment-size BYTES] [--threads N] OUTPUT_DIRECTORY"); //$NON-NLS-1$
+            }
+            new ExportGenerator(new File(outputDirectory), seed, workItems, attachments >= 0 ? attachments : workItems / 10, pictureRatio, pictureSizes, attachmentSize, threads)
+                    .generate();
+        } catch (Exception e) {
+            log.error(e.getMessage(), e instanceof NumberFormatException ? null : e);
+            System.exit(1);
+        }
+    }
+
+    @NotNull
+    private static String optionValue(@NotNull String[] args, int index, @NotNull String option) throws Exception {
+        if (index >= args.length) {
+            throw new Exception("Value of parameter " + option + " was not specified!"); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+        return args[index];
+    }
+
+    private static int parseNumber(@NotNull String option, @NotNull String value) throws Exception {
+        try {
+            int number = Integer.parseInt(value);
+            if (number >= 0) {
+                return number;
+            }
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        throw new Exception("Value of parameter " + option + " must be zero or a positive number, but was \"" + value + "\"."); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+    }
+
+    @NotNull
+    private static List<Dimension> parseSizes(@NotNull String option, @NotNull String value) throws Exception {
+        List<Dimension> sizes = new ArrayList<Dimension>();
+        for (String size : value.split(",")) { //$NON-NLS-1$
+            String[] parts = size.trim().split("x"); //$NON-NLS-1$
+            try {
+                if (parts.length == 2 && Integer.parseInt(parts[0]) > 0 && Integer.parseInt(parts[1]) > 0) {
+                    sizes.add(new Dimension(Integer.parseInt(parts[0]), Integer.parseInt(parts[1])));
+                    continue;
+                }
+            } catch (NumberFormatException e) {
+                // reported below
+            }
+            throw new Exception("Value of parameter " + option + " must be a list of sizes like 640x480, but was \"" + value + "\"."); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        }
+        return sizes;
+    }
+
+}
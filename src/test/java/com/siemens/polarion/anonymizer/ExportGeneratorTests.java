@@ -0,0 +1,114 @@
+/*
+ * Copyright 2016 Polarion AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.siemens.polarion.anonymizer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Dimension;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ExportGeneratorTests {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void sameSeedGivesSameExport() throws Exception {
+        Map<String, byte[]> single = readFiles(generate("single", 7, 1)); //$NON-NLS-1$
+        Map<String, byte[]> parallel = readFiles(generate("parallel", 7, 4)); //$NON-NLS-1$
+        assertEquals(single.keySet(), parallel.keySet());
+        for (Map.Entry<String, byte[]> entry : single.entrySet()) {
+            assertArrayEquals(entry.getKey(), entry.getValue(), parallel.get(entry.getKey()));
+        }
+        assertTrue(single.containsKey("module.xml")); //$NON-NLS-1$
+        assertTrue(single.containsKey("workitems/WI-50/workitem.xml")); //$NON-NLS-1$
+    }
+
+    @Test
+    public void exportContainsReferencedAttachments() throws Exception {
+        Map<String, byte[]> files = readFiles(generate("references", 3, 1)); //$NON-NLS-1$
+        boolean pictureReference = false;
+        boolean attachmentReference = false;
+        boolean accented = false;
+        for (Map.Entry<String, byte[]> entry : files.entrySet()) {
+            String content = new String(entry.getValue(), StandardCharsets.UTF_8);
+            // the accented words survive the compilation of the sources
+            assertFalse(entry.getKey(), entry.getKey().endsWith(".xml") && content.contains("\ufffd")); //$NON-NLS-1$ //$NON-NLS-2$
+            accented |= content.contains("\u00dcberwachung"); //$NON-NLS-1$
+            pictureReference |= content.contains("src=\"workitemimg:"); //$NON-NLS-1$
+            attachmentReference |= content.contains("src=\"attachment:Specification%20"); //$NON-NLS-1$
+        }
+        assertTrue(pictureReference);
+        assertTrue(attachmentReference);
+        assertTrue(accented);
+        assertTrue(files.containsKey("attachments/Specification 1.pdf")); //$NON-NLS-1$
+    }
+
+    @Test
+    public void exportIsAnonymized() throws Exception {
+        File export = generate("export", 11, 1); //$NON-NLS-1$
+        new Anonymizer(new AnonymizerParams(new String[] { "--seed", "42", export.getPath() })).run(); //$NON-NLS-1$ //$NON-NLS-2$
+        Map<String, byte[]> anonymized = readFiles(new File(export.getPath() + Anonymizer.anonymizedSuffix));
+        // every file of the export is written, the work item directories and attachments are renamed
+        assertEquals(readFiles(export).size(), anonymized.size());
+        assertTrue(anonymized.containsKey("module.xml")); //$NON-NLS-1$
+        // the shared attachments are renamed and the references to them follow the new names
+        for (Map.Entry<String, byte[]> entry : anonymized.entrySet()) {
+            assertFalse(entry.getKey(), entry.getKey().contains("Specification")); //$NON-NLS-1$
+            if (entry.getKey().endsWith(".xml")) { //$NON-NLS-1$
+                String content = new String(entry.getValue(), StandardCharsets.UTF_8);
+                assertFalse(entry.getKey(), content.contains("Specification")); //$NON-NLS-1$
+            }
+        }
+    }
+
+    @NotNull
+    private File generate(@NotNull String name, long seed, int threads) throws Exception {
+        File export = new File(tempFolder.getRoot(), name);
+        new ExportGenerator(export, seed, 50, 5, 0.5, Arrays.asList(new Dimension(16, 8), new Dimension(24, 24)), 200, threads).generate();
+        return export;
+    }
+
+    @NotNull
+    private static Map<String, byte[]> readFiles(@NotNull File directory) throws Exception {
+        Path root = directory.toPath();
+        Map<String, byte[]> files = new TreeMap<String, byte[]>();
+        try (Stream<Path> paths = Files.walk(root)) {
+            for (Path path : (Iterable<Path>) paths::iterator) {
+                if (Files.isRegularFile(path)) {
+                    files.put(root.relativize(path).toString().replace(File.separatorChar, '/'), Files.readAllBytes(path));
+                }
+            }
+        }
+        return files;
+    }
+
+}
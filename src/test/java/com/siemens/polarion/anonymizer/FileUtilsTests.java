@@ -15,6 +15,7 @@
  */
 package com.siemens.polarion.anonymizer;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 
@@ -25,9 +26,11 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.security.MessageDigest;
 import java.util.Arrays;
 import java.util.Random;
+import java.util.SplittableRandom;
 
 import org.jetbrains.annotations.NotNull;
 import org.junit.Rule;
@@ -58,7 +61,7 @@ public class FileUtilsTests {
         URL url = this.getClass().getResource("/comment.xml"); //$NON-NLS-1$
         File testFile = new File(url.getFile());
         final File tempFile = tempFolder.newFile("tempFile.txt"); //$NON-NLS-1$
-        FileUtils.createFileFromDoc(tempFile, FileUtils.createDocFromFile(testFile));
+        XmlCodec.write(XmlCodec.parse(testFile), tempFile);
         String origFileContent = new String(Files.readAllBytes(testFile.toPath()), StandardCharsets.US_ASCII);
         String newFileContent = new String(Files.readAllBytes(tempFile.toPath()), StandardCharsets.US_ASCII);
         origFileContent = origFileContent.replace("\n", "").replace("\r", ""); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
@@ -66,6 +69,18 @@ public class FileUtilsTests {
         assertEquals(origFileContent, newFileContent);
     }
 
+    @Test
+    public void largeFileIsCopied() throws Exception {
+        byte[] content = new byte[(int) MappedInputStream.MAPPING_THRESHOLD * 3 + 7];
+        new Random(42).nextBytes(content);
+        File original = tempFolder.newFile("original.bin"); //$NON-NLS-1$
+        Files.write(original.toPath(), content);
+        File copy = tempFolder.newFile("copy.bin"); //$NON-NLS-1$
+        Files.write(copy.toPath(), new byte[(int) MappedInputStream.MAPPING_THRESHOLD * 4]);
+        FileUtils.copy(original, copy);
+        assertArrayEquals(content, Files.readAllBytes(copy.toPath()));
+    }
+
     @Test
     public void fileNameDecoderTest() throws Exception {
         String input = "%2B%20"; //$NON-NLS-1$
@@ -75,15 +90,28 @@ public class FileUtilsTests {
 
     @Test
     public void randomizeFileContentTest() throws Exception {
-        Random rnd = new Random();
         URL url = this.getClass().getResource("/file.a"); //$NON-NLS-1$
-        File testFile = new File(url.getFile());
+        // the resource is not changed, so every run starts from the same content
+        File testFile = tempFolder.newFile("file.a"); //$NON-NLS-1$
+        Files.copy(new File(url.getFile()).toPath(), testFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
         byte[] file1sha1 = getSHA1(testFile);
-        FileUtils.randomizeFileContent(false, rnd, testFile);
+        RandomContentWriter.write(new SplittableRandom(1), testFile.length(), testFile);
         byte[] file2sha1 = getSHA1(testFile);
         assertFalse(Arrays.equals(file1sha1, file2sha1));
     }
 
+    @Test
+    public void attachmentWriterTest() throws Exception {
+        URL url = this.getClass().getResource("/file.a"); //$NON-NLS-1$
+        File testFile = new File(url.getFile());
+        byte[] originalSha1 = getSHA1(testFile);
+        File newFile = new File(tempFolder.getRoot(), "renamed.a"); //$NON-NLS-1$
+        new AttachmentWriter(false, new RandomSource(1), testFile.getParent()).write(testFile, newFile);
+        assertArrayEquals(originalSha1, getSHA1(testFile));
+        assertEquals(testFile.length(), newFile.length());
+        assertFalse(Arrays.equals(originalSha1, getSHA1(newFile)));
+    }
+
     private byte[] getSHA1(@NotNull File file) throws Exception {
         MessageDigest md = MessageDigest.getInstance("SHA1"); //$NON-NLS-1$
         FileInputStream fis = new FileInputStream(file);
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2016 Polarion AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.siemens.polarion.anonymizer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MappedInputStreamTests {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void largeFileIsMapped() throws Exception {
+        byte[] content = randomBytes((int) MappedInputStream.MAPPING_THRESHOLD + 123);
+        File file = write("large.bin", content); //$NON-NLS-1$
+        try (InputStream in = MappedInputStream.open(file)) {
+            assertTrue(in instanceof MappedInputStream);
+            assertEquals(content.length, in.available());
+            assertArrayEquals(content, readAll(in));
+        }
+    }
+
+    @Test
+    public void smallFileIsNotMapped() throws Exception {
+        byte[] content = randomBytes(1000);
+        File file = write("small.bin", content); //$NON-NLS-1$
+        try (InputStream in = MappedInputStream.open(file)) {
+            assertFalse(in instanceof MappedInputStream);
+            assertArrayEquals(content, readAll(in));
+        }
+    }
+
+    @Test
+    public void regionsAreReadInSequence() throws Exception {
+        byte[] content = randomBytes(10000);
+        File file = write("regions.bin", content); //$NON-NLS-1$
+        try (InputStream in = new MappedInputStream(FileChannel.open(file.toPath(), StandardOpenOption.READ), 999)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            // single bytes, skipped bytes and blocks crossing the ends of the regions
+            for (int i = 0; i < 1500; i++) {
+                out.write(in.read());
+            }
+            assertEquals(498, in.skip(1000));
+            out.write(content, 1500, 498);
+            byte[] block = new byte[700];
+            int n;
+            while ((n = in.read(block, 0, block.length)) >= 0) {
+                out.write(block, 0, n);
+            }
+            assertEquals(-1, in.read());
+            assertArrayEquals(content, out.toByteArray());
+        }
+    }
+
+    @NotNull
+    private File write(@NotNull String name, @NotNull byte[] content) throws Exception {
+        File file = tempFolder.newFile(name);
+        Files.write(file.toPath(), content);
+        return file;
+    }
+
+    @NotNull
+    private static byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+        return bytes;
+    }
+
+    @NotNull
+    private static byte[] readAll(@NotNull InputStream in) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n = in.read(buffer, 0, buffer.length)) >= 0) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+}
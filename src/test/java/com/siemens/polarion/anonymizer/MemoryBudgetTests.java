@@ -0,0 +1,108 @@
+/*
+ * Copyright 2016 Polarion AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.siemens.polarion.anonymizer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MemoryBudgetTests {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void tasksWithinBudgetRunTogether() throws Exception {
+        MemoryBudget budget = new MemoryBudget(100);
+        long first = budget.acquire(40);
+        long second = budget.acquire(60);
+        assertEquals(100, budget.getUsed());
+        budget.release(first);
+        budget.release(second);
+        assertEquals(0, budget.getUsed());
+    }
+
+    @Test
+    public void taskWaitsForMemory() throws Exception {
+        MemoryBudget budget = new MemoryBudget(100);
+        long first = budget.acquire(80);
+        CountDownLatch acquired = new CountDownLatch(1);
+        Thread thread = new Thread(() -> {
+            try {
+                budget.release(budget.acquire(50));
+                acquired.countDown();
+            } catch (Exception e) {
+                // the latch is not released
+            }
+        });
+        thread.start();
+        assertFalse(acquired.await(200, TimeUnit.MILLISECONDS));
+        budget.release(first);
+        assertTrue(acquired.await(10, TimeUnit.SECONDS));
+        thread.join();
+    }
+
+    @Test
+    public void taskLargerThanBudgetRunsAlone() throws Exception {
+        MemoryBudget budget = new MemoryBudget(100);
+        long huge = budget.acquire(1000);
+        assertEquals(100, huge);
+        CountDownLatch acquired = new CountDownLatch(1);
+        Thread thread = new Thread(() -> {
+            try {
+                budget.release(budget.acquire(1));
+                acquired.countDown();
+            } catch (Exception e) {
+                // the latch is not released
+            }
+        });
+        thread.start();
+        assertFalse(acquired.await(200, TimeUnit.MILLISECONDS));
+        budget.release(huge);
+        assertTrue(acquired.await(10, TimeUnit.SECONDS));
+        thread.join();
+    }
+
+    @Test
+    public void picturesAreWrittenInParallelWithinBudget() throws Exception {
+        File original = tempFolder.newFile("picture.png"); //$NON-NLS-1$
+        ImageIO.write(new BufferedImage(100, 100, BufferedImage.TYPE_INT_RGB), "png", original); //$NON-NLS-1$
+        File[] newFiles = new File[20];
+        // the budget admits two pictures at a time
+        try (AttachmentWriter writer = new AttachmentWriter(false, new RandomSource(1), tempFolder.getRoot().getPath(), false, 0, 4, 100 * 100 * 4 * 2)) {
+            for (int i = 0; i < newFiles.length; i++) {
+                newFiles[i] = new File(tempFolder.getRoot(), "random" + i + ".png"); //$NON-NLS-1$ //$NON-NLS-2$
+                writer.write(original, newFiles[i]);
+            }
+            writer.awaitCompletion();
+        }
+        for (File newFile : newFiles) {
+            assertEquals(100, ImageIO.read(newFile).getWidth());
+        }
+    }
+
+}
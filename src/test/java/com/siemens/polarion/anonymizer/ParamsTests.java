@@ -15,10 +15,16 @@
  */
 package com.siemens.polarion.anonymizer;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
 import org.junit.BeforeClass;
 import org.junit.Test;
 
@@ -68,4 +74,113 @@ public class ParamsTests {
         assertTrue(params.verbose);
     }
 
+    @Test
+    public void threadsTest() throws Exception {
+        String[] args = { "--threads", "8", testDirectory }; //$NON-NLS-1$ //$NON-NLS-2$
+        AnonymizerParams params = new AnonymizerParams(args);
+        assertEquals(testDirectory, params.documentDirectory);
+        assertEquals(8, params.threads);
+        assertFalse(params.verbose);
+    }
+
+    @Test
+    public void defaultThreadsTest() throws Exception {
+        String[] args = { testDirectory };
+        AnonymizerParams params = new AnonymizerParams(args);
+        assertEquals(1, params.threads);
+    }
+
+    @Test(expected = Exception.class)
+    public void invalidThreadsTest() throws Exception {
+        String[] args = { testDirectory, "--threads", "0" }; //$NON-NLS-1$ //$NON-NLS-2$
+        new AnonymizerParams(args);
+    }
+
+    @Test(expected = Exception.class)
+    public void missingThreadsValueTest() throws Exception {
+        String[] args = { testDirectory, "--threads" }; //$NON-NLS-1$
+        new AnonymizerParams(args);
+    }
+
+    @Test(expected = Exception.class)
+    public void twoDirectoriesTest() throws Exception {
+        String[] args = { testDirectory, testDirectory };
+        new AnonymizerParams(args);
+    }
+
+    @Test
+    public void placeholdersTest() throws Exception {
+        AnonymizerParams params = new AnonymizerParams(new String[] { "--placeholders", testDirectory }); //$NON-NLS-1$
+        assertTrue(params.placeholders);
+        assertEquals(0, params.placeholderHeaderLength);
+        params = new AnonymizerParams(new String[] { testDirectory, "--placeholder-header", "512" }); //$NON-NLS-1$ //$NON-NLS-2$
+        assertTrue(params.placeholders);
+        assertEquals(512, params.placeholderHeaderLength);
+        params = new AnonymizerParams(new String[] { testDirectory });
+        assertFalse(params.placeholders);
+    }
+
+    @Test
+    public void pictureOptionsTest() throws Exception {
+        AnonymizerParams params = new AnonymizerParams(new String[] { "--threads", "6", testDirectory }); //$NON-NLS-1$ //$NON-NLS-2$
+        assertEquals(6, params.pictureThreads);
+        assertEquals(0, params.pictureMemoryMegabytes);
+        params = new AnonymizerParams(new String[] { "--picture-threads", "3", "--picture-memory", "512", testDirectory }); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+        assertEquals(1, params.threads);
+        assertEquals(3, params.pictureThreads);
+        assertEquals(512, params.pictureMemoryMegabytes);
+    }
+
+    @Test
+    public void pseudonymCacheTest() throws Exception {
+        AnonymizerParams params = new AnonymizerParams(new String[] { testDirectory });
+        // repeated values are not linked unless the cache is asked for
+        assertEquals(0, params.pseudonymCacheSize);
+        params = new AnonymizerParams(new String[] { "--pseudonym-cache", "100000", testDirectory }); //$NON-NLS-1$ //$NON-NLS-2$
+        assertEquals(100000, params.pseudonymCacheSize);
+    }
+
+    @Test(expected = Exception.class)
+    public void negativePseudonymCacheTest() throws Exception {
+        new AnonymizerParams(new String[] { "--pseudonym-cache", "-1", testDirectory }); //$NON-NLS-1$ //$NON-NLS-2$
+    }
+
+    @Test
+    public void keyFileTest() throws Exception {
+        File keyFile = File.createTempFile("anonymizer", ".key"); //$NON-NLS-1$ //$NON-NLS-2$
+        try {
+            Files.write(keyFile.toPath(), "secret\r\n".getBytes(StandardCharsets.UTF_8)); //$NON-NLS-1$
+            AnonymizerParams params = new AnonymizerParams(new String[] { "--key-file", keyFile.getPath(), testDirectory }); //$NON-NLS-1$
+            assertArrayEquals("secret".getBytes(StandardCharsets.UTF_8), params.key); //$NON-NLS-1$
+        } finally {
+            keyFile.delete();
+        }
+    }
+
+    @Test
+    public void deltaTest() throws Exception {
+        AnonymizerParams params = new AnonymizerParams(new String[] { "--seed", "42", "--manifest", testDirectory }); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        assertTrue(params.manifest);
+        assertNull(params.deltaDirectory);
+        params = new AnonymizerParams(new String[] { "--seed", "42", "--delta", testDirectory + "_anonymized/", testDirectory }); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+        assertTrue(params.manifest);
+        assertEquals(params.documentDirectory + "_anonymized", params.deltaDirectory); //$NON-NLS-1$
+    }
+
+    @Test(expected = Exception.class)
+    public void deltaWithoutSeedTest() throws Exception {
+        // the manifest contains only the fingerprint of the seed
+        new AnonymizerParams(new String[] { "--delta", testDirectory + "_anonymized", testDirectory }); //$NON-NLS-1$ //$NON-NLS-2$
+    }
+
+    @Test(expected = Exception.class)
+    public void resumeWithoutSeedTest() throws Exception {
+        new AnonymizerParams(new String[] { "--resume", testDirectory }); //$NON-NLS-1$
+    }
+
+    @Test(expected = Exception.class)
+    public void resumedDeltaTest() throws Exception {
+        new AnonymizerParams(new String[] { "--resume", "--delta", testDirectory + "_anonymized", testDirectory }); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+    }
+
 }
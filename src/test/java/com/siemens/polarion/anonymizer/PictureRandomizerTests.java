@@ -17,14 +17,26 @@ package com.siemens.polarion.anonymizer;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
+import java.awt.Dimension;
 import java.awt.image.BufferedImage;
+import java.io.File;
+import java.nio.file.Files;
+
+import javax.imageio.ImageIO;
 
 import org.jetbrains.annotations.NotNull;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 public class PictureRandomizerTests {
 
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
     @Test
     public void fillImageTestDimensions() {
         BufferedImage image1 = new BufferedImage(10, 20, BufferedImage.TYPE_INT_RGB);
@@ -43,6 +55,87 @@ public class PictureRandomizerTests {
         assertFalse(bufferedImagesEqual(image1, image2));
     }
 
+    @Test
+    public void fillImageTestBlocks() {
+        for (int type : new int[] { BufferedImage.TYPE_INT_ARGB, BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_3BYTE_BGR }) {
+            BufferedImage image = PictureRandomizer.fillImageContent(new BufferedImage(40, 31, type));
+            for (int x = 0; x < image.getWidth(); x++) {
+                for (int y = 0; y < image.getHeight(); y++) {
+                    // every pixel has the color of the top left pixel of its 15x15 block
+                    assertEquals(image.getRGB(x - x % 15, y - y % 15), image.getRGB(x, y));
+                    assertEquals(0xFF, image.getRGB(x, y) >>> 24);
+                }
+            }
+            assertFalse(image.getRGB(0, 0) == image.getRGB(15, 0) && image.getRGB(0, 0) == image.getRGB(0, 15) && image.getRGB(0, 0) == image.getRGB(30, 30));
+        }
+    }
+
+    @Test
+    public void dimensionIsReadFromHeader() throws Exception {
+        for (String format : new String[] { "png", "jpg", "bmp", "gif" }) { //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+            File file = tempFolder.newFile("picture." + format); //$NON-NLS-1$
+            assertTrue(ImageIO.write(new BufferedImage(37, 23, BufferedImage.TYPE_INT_RGB), format, file));
+            assertEquals(format, new Dimension(37, 23), PictureRandomizer.readDimension(file));
+        }
+    }
+
+    @Test
+    public void statisticsAreReset() throws Exception {
+        File file = tempFolder.newFile("picture.png"); //$NON-NLS-1$
+        ImageIO.write(new BufferedImage(37, 23, BufferedImage.TYPE_INT_RGB), "png", file); //$NON-NLS-1$
+        PictureRandomizer.resetStatistics();
+        PictureRandomizer.readDimension(file);
+        PictureRandomizer.readDimension(file);
+        assertEquals(2, PictureRandomizer.getHeaderReadCount());
+        PictureRandomizer.resetStatistics();
+        assertEquals(0, PictureRandomizer.getHeaderReadCount());
+    }
+
+    @Test
+    public void dimensionOfInvalidPicture() throws Exception {
+        File file = tempFolder.newFile("picture.png"); //$NON-NLS-1$
+        Files.write(file.toPath(), new byte[] { 1, 2, 3 });
+        assertNull(PictureRandomizer.readDimension(file));
+        assertFalse(PictureRandomizer.randomizePictureContent(false, file, tempFolder.newFile("random.png"))); //$NON-NLS-1$
+    }
+
+    @Test
+    public void randomPictureHasOriginalDimension() throws Exception {
+        File file = tempFolder.newFile("picture.png"); //$NON-NLS-1$
+        ImageIO.write(new BufferedImage(40, 31, BufferedImage.TYPE_INT_ARGB), "png", file); //$NON-NLS-1$
+        File newFile = tempFolder.newFile("random.png"); //$NON-NLS-1$
+        assertTrue(PictureRandomizer.randomizePictureContent(false, file, newFile));
+        BufferedImage image = ImageIO.read(newFile);
+        assertEquals(40, image.getWidth());
+        assertEquals(31, image.getHeight());
+    }
+
+    @Test
+    public void randomJpegIsWritten() throws Exception {
+        for (String format : new String[] { "jpg", "jpeg", "bmp" }) { //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+            File file = tempFolder.newFile("picture." + format); //$NON-NLS-1$
+            assertTrue(ImageIO.write(new BufferedImage(100, 80, BufferedImage.TYPE_INT_RGB), format.equals("jpeg") ? "jpg" : format, file)); //$NON-NLS-1$ //$NON-NLS-2$
+            File newFile = tempFolder.newFile("random." + format); //$NON-NLS-1$
+            assertTrue(format, PictureRandomizer.randomizePictureContent(false, file, newFile));
+            assertTrue(format, newFile.length() > 0);
+            BufferedImage image = ImageIO.read(newFile);
+            assertEquals(format, 100, image.getWidth());
+            assertEquals(format, 80, image.getHeight());
+        }
+    }
+
+    @Test
+    public void unwritableFormatIsReported() throws Exception {
+        File file = tempFolder.newFile("picture.png"); //$NON-NLS-1$
+        ImageIO.write(new BufferedImage(10, 10, BufferedImage.TYPE_INT_RGB), "png", file); //$NON-NLS-1$
+        // the dimension is read from the content, there is no writer for the suffix
+        File original = new File(tempFolder.getRoot(), "picture.xyz"); //$NON-NLS-1$
+        Files.copy(file.toPath(), original.toPath());
+        File newFile = new File(tempFolder.getRoot(), "random.xyz"); //$NON-NLS-1$
+        assertFalse(PictureRandomizer.randomizePictureContent(false, original, newFile));
+        assertFalse(newFile.exists());
+    }
+
     boolean bufferedImagesEqual(@NotNull BufferedImage img1, @NotNull BufferedImage img2) {
         if (img1.getWidth() != img2.getWidth() || img1.getHeight() != img2.getHeight()) {
             return false;
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2016 Polarion AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.siemens.polarion.anonymizer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class PseudonymCacheTests {
+
+    @Test
+    public void repeatedValuesAreCached() {
+        PseudonymCache cache = new PseudonymCache(100);
+        AtomicInteger calls = new AtomicInteger();
+        for (int i = 0; i < 3; i++) {
+            assertEquals("author:jdoe", cache.get("author", "jdoe", (kind, value) -> { //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+                calls.incrementAndGet();
+                return kind + ":" + value; //$NON-NLS-1$
+            }));
+        }
+        assertEquals(1, calls.get());
+        assertEquals(2, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(0, cache.getEvictionCount());
+    }
+
+    @Test
+    public void kindsAreSeparated() {
+        PseudonymCache cache = new PseudonymCache(100);
+        String author = cache.get("author", "open", (kind, value) -> kind + ":" + value); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        String status = cache.get("enum:@status", "open", (kind, value) -> kind + ":" + value); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        assertNotEquals(author, status);
+        assertEquals(2, cache.getMissCount());
+    }
+
+    @Test
+    public void leastRecentlyUsedValuesAreEvicted() {
+        PseudonymCache cache = new PseudonymCache(32);
+        for (int i = 0; i < 1000; i++) {
+            cache.get("enum", "value" + i, (kind, value) -> value.toUpperCase()); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+        assertTrue(cache.size() <= 32);
+        assertEquals(1000 - cache.size(), cache.getEvictionCount());
+        // an evicted value is created again
+        assertEquals("VALUE0", cache.get("enum", "value0", (kind, value) -> value.toUpperCase())); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        assertEquals(1001, cache.getMissCount());
+    }
+
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2016 Polarion AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.siemens.polarion.anonymizer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class RandomContentWriterTests {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void exactLengthIsWritten() throws Exception {
+        File file = tempFolder.newFile("random.bin"); //$NON-NLS-1$
+        SplittableRandom random = new SplittableRandom(1);
+        for (long length : new long[] { 0, 1, 7, 8, 9, RandomContentWriter.BLOCK_SIZE, RandomContentWriter.BLOCK_SIZE * 2L + 5 }) {
+            RandomContentWriter.write(random, length, file);
+            assertEquals(length, file.length());
+        }
+    }
+
+    @Test
+    public void existingContentIsTruncated() throws Exception {
+        File file = tempFolder.newFile("random.bin"); //$NON-NLS-1$
+        Files.write(file.toPath(), new byte[1000]);
+        RandomContentWriter.write(new SplittableRandom(1), 10, file);
+        assertEquals(10, file.length());
+    }
+
+    @Test
+    public void contentIsRandom() throws Exception {
+        File file1 = tempFolder.newFile("random1.bin"); //$NON-NLS-1$
+        File file2 = tempFolder.newFile("random2.bin"); //$NON-NLS-1$
+        RandomContentWriter.write(new SplittableRandom(1), 4099, file1);
+        RandomContentWriter.write(new SplittableRandom(2), 4099, file2);
+        byte[] content1 = Files.readAllBytes(file1.toPath());
+        assertFalse(Arrays.equals(content1, Files.readAllBytes(file2.toPath())));
+        assertFalse(Arrays.equals(new byte[content1.length], content1));
+    }
+
+    @Test
+    public void sameSeedGivesSameContent() throws Exception {
+        File file1 = tempFolder.newFile("random1.bin"); //$NON-NLS-1$
+        File file2 = tempFolder.newFile("random2.bin"); //$NON-NLS-1$
+        RandomContentWriter.write(new SplittableRandom(42), 10001, file1);
+        RandomContentWriter.write(new SplittableRandom(42), 10001, file2);
+        assertArrayEquals(Files.readAllBytes(file1.toPath()), Files.readAllBytes(file2.toPath()));
+    }
+
+    @Test
+    public void placeholderHasLengthAndRandomHeader() throws Exception {
+        File file = tempFolder.newFile("placeholder.bin"); //$NON-NLS-1$
+        Files.write(file.toPath(), new byte[200000]);
+        RandomContentWriter.writePlaceholder(new SplittableRandom(1), 100000, 64, file);
+        byte[] content = Files.readAllBytes(file.toPath());
+        assertEquals(100000, content.length);
+        assertFalse(Arrays.equals(new byte[64], Arrays.copyOf(content, 64)));
+        assertArrayEquals(new byte[100000 - 64], Arrays.copyOfRange(content, 64, content.length));
+    }
+
+    @Test
+    public void placeholderShorterThanHeader() throws Exception {
+        File file = tempFolder.newFile("placeholder.bin"); //$NON-NLS-1$
+        SplittableRandom random = new SplittableRandom(1);
+        RandomContentWriter.writePlaceholder(random, 10, 64, file);
+        assertEquals(10, file.length());
+        RandomContentWriter.writePlaceholder(random, 0, 64, file);
+        assertEquals(0, file.length());
+        RandomContentWriter.writePlaceholder(random, 5, 0, file);
+        assertArrayEquals(new byte[5], Files.readAllBytes(file.toPath()));
+    }
+
+    @Test
+    public void lengthOverTwoGigabytes() throws Exception {
+        long length = Integer.MAX_VALUE + 3L;
+        CountingChannel channel = new CountingChannel();
+        RandomContentWriter.write(new SplittableRandom(1), length, channel);
+        assertEquals(length, channel.count);
+    }
+
+    private static class CountingChannel implements WritableByteChannel {
+        long count;
+
+        @Override
+        public int write(ByteBuffer src) {
+            // partial writes are handled by the writer
+            int written = Math.min(src.remaining(), 100000);
+            src.position(src.position() + written);
+            count += written;
+            return written;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+}
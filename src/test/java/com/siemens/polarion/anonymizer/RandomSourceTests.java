@@ -0,0 +1,140 @@
+/*
+ * Copyright 2016 Polarion AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.siemens.polarion.anonymizer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+import javax.imageio.ImageIO;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class RandomSourceTests {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void streamsDependOnSeedKindAndKey() {
+        RandomSource source = new RandomSource(42);
+        assertEquals(source.stream(RandomSource.XML, "a/b.xml").nextLong(), new RandomSource(42).stream(RandomSource.XML, "a/b.xml").nextLong()); //$NON-NLS-1$ //$NON-NLS-2$
+        assertNotEquals(source.stream(RandomSource.XML, "a/b.xml").nextLong(), new RandomSource(43).stream(RandomSource.XML, "a/b.xml").nextLong()); //$NON-NLS-1$ //$NON-NLS-2$
+        assertNotEquals(source.stream(RandomSource.XML, "a/b.xml").nextLong(), source.stream(RandomSource.CONTENT, "a/b.xml").nextLong()); //$NON-NLS-1$ //$NON-NLS-2$
+        assertNotEquals(source.stream(RandomSource.XML, "a/b.xml").nextLong(), source.stream(RandomSource.XML, "a/c.xml").nextLong()); //$NON-NLS-1$ //$NON-NLS-2$
+    }
+
+    @Test
+    public void keyedStreamsDependOnSecretKindAndKey() {
+        RandomSource source = new RandomSource(42, new KeyedHash("secret".getBytes(StandardCharsets.UTF_8))); //$NON-NLS-1$
+        RandomSource otherSeed = new RandomSource(43, new KeyedHash("secret".getBytes(StandardCharsets.UTF_8))); //$NON-NLS-1$
+        RandomSource otherSecret = new RandomSource(42, new KeyedHash("other".getBytes(StandardCharsets.UTF_8))); //$NON-NLS-1$
+        assertEquals(source.stream(RandomSource.FILE_NAME, "spec.txt").nextLong(), otherSeed.stream(RandomSource.FILE_NAME, "spec.txt").nextLong()); //$NON-NLS-1$ //$NON-NLS-2$
+        assertNotEquals(source.stream(RandomSource.FILE_NAME, "spec.txt").nextLong(), otherSecret.stream(RandomSource.FILE_NAME, "spec.txt").nextLong()); //$NON-NLS-1$ //$NON-NLS-2$
+        assertNotEquals(source.stream(RandomSource.FILE_NAME, "spec.txt").nextLong(), source.stream(RandomSource.XML, "spec.txt").nextLong()); //$NON-NLS-1$ //$NON-NLS-2$
+        assertNotEquals(source.stream(RandomSource.PSEUDONYM, "ab", "c").nextLong(), source.stream(RandomSource.PSEUDONYM, "a", "bc").nextLong()); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+    }
+
+    @Test
+    public void sameKeyGivesSameOutputForAnySeed() throws Exception {
+        File keyFile = tempFolder.newFile("key"); //$NON-NLS-1$
+        Files.write(keyFile.toPath(), "secret\n".getBytes(StandardCharsets.UTF_8)); //$NON-NLS-1$
+        Map<String, byte[]> first = anonymize("keyed1", "--key-file", keyFile.getPath(), "--seed", "1"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+        Map<String, byte[]> second = anonymize("keyed2", "--key-file", keyFile.getPath(), "--seed", "2", "--threads", "4"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$
+        assertEquals(first.keySet(), second.keySet());
+        for (Map.Entry<String, byte[]> entry : first.entrySet()) {
+            assertArrayEquals(entry.getKey(), entry.getValue(), second.get(entry.getKey()));
+        }
+    }
+
+    @Test
+    public void sameSeedGivesSameOutputForAnyNumberOfThreads() throws Exception {
+        Map<String, byte[]> singleThread = anonymize("single", "--seed", "42", "--threads", "1"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$
+        Map<String, byte[]> fourThreads = anonymize("four", "--seed", "42", "--threads", "4"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$
+        assertEquals(singleThread.keySet(), fourThreads.keySet());
+        for (Map.Entry<String, byte[]> entry : singleThread.entrySet()) {
+            assertArrayEquals(entry.getKey(), entry.getValue(), fourThreads.get(entry.getKey()));
+        }
+
+        Map<String, byte[]> otherSeed = anonymize("other", "--seed", "43", "--threads", "4"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$
+        assertFalse(Arrays.equals(singleThread.get("workitems/WI-1/workitem.xml"), otherSeed.get("workitems/WI-1/workitem.xml"))); //$NON-NLS-1$ //$NON-NLS-2$
+    }
+
+    // anonymizes the same small export and returns the output files by their relative path
+    @NotNull
+    private Map<String, byte[]> anonymize(@NotNull String name, @NotNull String... options) throws Exception {
+        File documentDirectory = tempFolder.newFolder(name);
+        Random content = new Random(7);
+        for (int i = 1; i <= 6; i++) {
+            writeXml(documentDirectory, "workitems/WI-" + i + "/workitem.xml", "<work-item><field id=\"title\">Title of item " + i + "</field>" //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+                    + "<field id=\"description\" text-type=\"text/html\">&lt;p&gt;Description " + i //$NON-NLS-1$
+                    + "&lt;img src=\"attachment:spec.txt\"/&gt;&lt;img src=\"workitemimg:1-shot.png\" alt=\"Shot\"/&gt;&lt;/p&gt;</field></work-item>"); //$NON-NLS-1$
+            ImageIO.write(new BufferedImage(40 + i, 30, BufferedImage.TYPE_INT_RGB), "png", newFile(documentDirectory, "workitems/WI-" + i + "/attachment1-shot.png")); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        }
+        writeBytes(documentDirectory, "attachments/spec.txt", content, 5000); //$NON-NLS-1$
+        writeBytes(documentDirectory, "attachments/orphan.bin", content, 3000); //$NON-NLS-1$
+        ImageIO.write(new BufferedImage(20, 10, BufferedImage.TYPE_INT_RGB), "gif", newFile(documentDirectory, "workitems/WI-2/attachment2-orphan.gif")); //$NON-NLS-1$ //$NON-NLS-2$
+
+        String[] args = Arrays.copyOf(options, options.length + 1);
+        args[options.length] = documentDirectory.getPath();
+        new Anonymizer(new AnonymizerParams(args)).run();
+
+        Path output = new File(documentDirectory.getPath() + Anonymizer.anonymizedSuffix).toPath();
+        Map<String, byte[]> files = new TreeMap<String, byte[]>();
+        try (Stream<Path> paths = Files.walk(output)) {
+            for (Path path : (Iterable<Path>) paths::iterator) {
+                if (Files.isRegularFile(path)) {
+                    files.put(output.relativize(path).toString().replace(File.separatorChar, '/'), Files.readAllBytes(path));
+                }
+            }
+        }
+        assertEquals(15, files.size());
+        return files;
+    }
+
+    private static void writeXml(@NotNull File documentDirectory, @NotNull String path, @NotNull String xml) throws Exception {
+        Files.write(newFile(documentDirectory, path).toPath(), xml.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void writeBytes(@NotNull File documentDirectory, @NotNull String path, @NotNull Random random, int length) throws Exception {
+        byte[] bytes = new byte[length];
+        random.nextBytes(bytes);
+        Files.write(newFile(documentDirectory, path).toPath(), bytes);
+    }
+
+    @NotNull
+    private static File newFile(@NotNull File documentDirectory, @NotNull String path) {
+        File file = new File(documentDirectory, path);
+        file.getParentFile().mkdirs();
+        return file;
+    }
+
+}
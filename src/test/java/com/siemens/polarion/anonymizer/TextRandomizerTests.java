@@ -17,10 +17,17 @@ package com.siemens.polarion.anonymizer;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
+import java.text.Normalizer;
+import java.text.Normalizer.Form;
+import java.util.SplittableRandom;
+
 import org.junit.Test;
 
+import com.siemens.polarion.anonymizer.TextRandomizer.TextRule;
+
 public class TextRandomizerTests {
 
     @Test
@@ -103,4 +110,138 @@ public class TextRandomizerTests {
         assertFalse(str2.contains("CUSTOMER_CONTENT")); //$NON-NLS-1$
     }
 
+    @Test
+    public void testCharClassesArePreserved() {
+        TextRandomizer textRandomizer = new TextRandomizer();
+        String str1 = "Ab9 -_\u00df\u4e2d\u00e9;"; //$NON-NLS-1$
+        String str2 = textRandomizer.plainTextRandomize(str1);
+        assertEquals(str1.length(), str2.length());
+        assertTrue(Character.isLetter(str2.charAt(0)) && str2.charAt(0) < 128);
+        assertTrue(Character.isLetter(str2.charAt(1)) && str2.charAt(1) < 128);
+        assertTrue(Character.isDigit(str2.charAt(2)));
+        assertEquals(" -_WW", str2.substring(3, 8)); //$NON-NLS-1$
+        assertTrue(Character.isLetter(str2.charAt(8)) && str2.charAt(8) < 128);
+        assertEquals(';', str2.charAt(9));
+    }
+
+    @Test
+    public void testAllLettersAndDigitsAreUsed() {
+        TextRandomizer textRandomizer = new TextRandomizer();
+        StringBuilder input = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            input.append("a1"); //$NON-NLS-1$
+        }
+        String output = textRandomizer.plainTextRandomize(input.toString());
+        int[] counts = new int[128];
+        for (int i = 0; i < output.length(); i++) {
+            counts[output.charAt(i)]++;
+        }
+        for (char c = 'A'; c <= 'Z'; c++) {
+            assertTrue(counts[c] > 0 && counts[Character.toLowerCase(c)] > 0);
+        }
+        for (char c = '0'; c <= '9'; c++) {
+            // 500 expected for each digit
+            assertTrue(counts[c] > 350 && counts[c] < 650);
+        }
+    }
+
+    @Test
+    public void testDeaccentString() {
+        String ascii = "plain ASCII text 123"; //$NON-NLS-1$
+        assertSame(ascii, TextRandomizer.deaccentString(ascii));
+        String[] inputs = { "\u00c4rger \u00fcber Stra\u00dfe", "caf\u00e9 na\u00efve r\u00e9sum\u00e9", "e\u0301\u0302\u0303x", "\u1e69\u01d5\u4e2d\u6587 \ud83d\ude00", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+                "\u0410\u0439 \u03ac\u1f00 \u0958", "a\u0364\u0370" }; //$NON-NLS-1$ //$NON-NLS-2$
+        for (String input : inputs) {
+            String expected = Normalizer.normalize(input, Form.NFD).replaceAll("\\p{InCombiningDiacriticalMarks}+", ""); //$NON-NLS-1$ //$NON-NLS-2$
+            assertEquals(expected, TextRandomizer.deaccentString(input));
+        }
+    }
+
+    @Test
+    public void testRichTextEndingWithAmpersand() {
+        TextRandomizer textRandomizer = new TextRandomizer();
+        String str2 = textRandomizer.richTextRandomize("abc &"); //$NON-NLS-1$
+        assertEquals(5, str2.length());
+        assertTrue(str2.endsWith(" &")); //$NON-NLS-1$
+    }
+
+    @Test
+    public void testRichTextEntitiesAreKept() {
+        TextRandomizer textRandomizer = new TextRandomizer();
+        String str2 = textRandomizer.richTextRandomize("Tom &amp; Jerry &#8364; &#x20AC; 100"); //$NON-NLS-1$
+        assertEquals(" &amp; ", str2.substring(3, 10)); //$NON-NLS-1$
+        assertEquals(" &#8364; &#x20AC; ", str2.substring(15, 33)); //$NON-NLS-1$
+        assertFalse(str2.contains("Tom")); //$NON-NLS-1$
+        assertFalse(str2.contains("Jerry")); //$NON-NLS-1$
+    }
+
+    @Test
+    public void testRichTextAfterPlainAmpersandIsRandomized() {
+        TextRandomizer textRandomizer = new TextRandomizer();
+        String str2 = textRandomizer.richTextRandomize("Tom & Jerry; Secret"); //$NON-NLS-1$
+        assertEquals(" & ", str2.substring(3, 6)); //$NON-NLS-1$
+        assertFalse(str2.contains("Jerry")); //$NON-NLS-1$
+        assertFalse(str2.contains("Secret")); //$NON-NLS-1$
+    }
+
+    @Test
+    public void testRichTextTagsAreKeptExceptAlt() {
+        TextRandomizer textRandomizer = new TextRandomizer();
+        String str1 = "<a href=\"x?a=1&amp;b=Keep\">Text</a><img ALT = 'Secret &amp; 4242424242' src=Keep.png title=\"Keep\"/><img alt=Hidden>"; //$NON-NLS-1$
+        String str2 = textRandomizer.richTextRandomize(str1);
+        assertEquals(str1.length(), str2.length());
+        assertTrue(str2.startsWith("<a href=\"x?a=1&amp;b=Keep\">")); //$NON-NLS-1$
+        assertFalse(str2.contains("Text")); //$NON-NLS-1$
+        assertTrue(str2.contains("</a><img ALT = '")); //$NON-NLS-1$
+        assertFalse(str2.contains("Secret")); //$NON-NLS-1$
+        assertFalse(str2.contains("4242424242")); //$NON-NLS-1$
+        assertTrue(str2.contains(" &amp; ")); //$NON-NLS-1$
+        assertTrue(str2.contains("' src=Keep.png title=\"Keep\"/><img alt=")); //$NON-NLS-1$
+        assertFalse(str2.contains("Hidden")); //$NON-NLS-1$
+    }
+
+    @Test
+    public void testDeaccentIntoBuffer() {
+        TextBuffer buffer = new TextBuffer(4);
+        StringBuilder latin = new StringBuilder();
+        for (char c = 0; c < 0x250; c++) {
+            latin.append(c).append("e\u0301"); //$NON-NLS-1$
+        }
+        String[] inputs = { latin.toString(), "\u00c4rger \u00fcber Stra\u00dfe", "\u1e69\u01d5\u4e2d\u6587 \ud83d\ude00", "\u0410\u0439 \u03ac\u1f00 \u0958", "a\u0364\u0370" }; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+        for (String input : inputs) {
+            TextRandomizer.deaccent(input, buffer);
+            assertEquals(TextRandomizer.deaccentString(input), buffer.toString());
+        }
+    }
+
+    @Test
+    public void testBufferApiMatchesStringApi() {
+        TextRandomizer stringRandomizer = new TextRandomizer();
+        TextRandomizer bufferRandomizer = new TextRandomizer();
+        stringRandomizer.useRandom(new SplittableRandom(42));
+        bufferRandomizer.useRandom(new SplittableRandom(42));
+        TextBuffer buffer = new TextBuffer();
+        String plain = "Caf\u00e9 au lait 42"; //$NON-NLS-1$
+        String rich = "<p>Tom &amp; <img alt=\"Jerry\"/> 12</p>"; //$NON-NLS-1$
+        bufferRandomizer.plainTextRandomize(plain, buffer);
+        assertEquals(stringRandomizer.plainTextRandomize(plain), buffer.toString());
+        char[] array = buffer.array();
+        bufferRandomizer.richTextRandomize(rich, buffer);
+        assertEquals(stringRandomizer.richTextRandomize(rich), buffer.toString());
+        // the buffer is reused
+        assertSame(array, buffer.array());
+    }
+
+    @Test
+    public void testRuleChain() {
+        TextRandomizer chainRandomizer = new TextRandomizer();
+        TextRandomizer stepRandomizer = new TextRandomizer();
+        chainRandomizer.useRandom(new SplittableRandom(7));
+        stepRandomizer.useRandom(new SplittableRandom(7));
+        TextRule chain = chainRandomizer.plainTextRule.andThen(chainRandomizer.richTextRule).andThen(chainRandomizer.plainTextRule);
+        String input = "<b>Secret</b> text 123"; //$NON-NLS-1$
+        String expected = stepRandomizer.plainTextRandomize(stepRandomizer.richTextRandomize(stepRandomizer.plainTextRandomize(input)));
+        assertEquals(expected, TextRandomizer.apply(chain, input));
+    }
+
 }
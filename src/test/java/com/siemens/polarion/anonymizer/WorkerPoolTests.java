@@ -0,0 +1,88 @@
+/*
+ * Copyright 2016 Polarion AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.siemens.polarion.anonymizer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class WorkerPoolTests {
+
+    @Test
+    public void allTasksAreExecuted() throws Exception {
+        AtomicInteger counter = new AtomicInteger();
+        try (WorkerPool pool = new WorkerPool(4, "test")) { //$NON-NLS-1$
+            for (int i = 0; i < 1000; i++) {
+                pool.submit(() -> counter.incrementAndGet());
+            }
+            pool.awaitCompletion();
+        }
+        assertEquals(1000, counter.get());
+    }
+
+    @Test
+    public void singleThreadRunsInCaller() throws Exception {
+        Thread caller = Thread.currentThread();
+        try (WorkerPool pool = new WorkerPool(1, "test")) { //$NON-NLS-1$
+            pool.submit(() -> assertEquals(caller, Thread.currentThread()));
+            pool.awaitCompletion();
+        }
+    }
+
+    @Test
+    public void failureIsRethrown() throws Exception {
+        try (WorkerPool pool = new WorkerPool(4, "test")) { //$NON-NLS-1$
+            for (int i = 0; i < 100; i++) {
+                final int taskNumber = i;
+                pool.submit(() -> {
+                    if (taskNumber == 50) {
+                        throw new IOException("task failed"); //$NON-NLS-1$
+                    }
+                });
+            }
+            pool.awaitCompletion();
+            fail("Exception expected"); //$NON-NLS-1$
+        } catch (IOException e) {
+            assertEquals("task failed", e.getMessage()); //$NON-NLS-1$
+        }
+    }
+
+    @Test
+    public void failureCompletesFuture() throws Exception {
+        try (WorkerPool pool = new WorkerPool(4, "test")) { //$NON-NLS-1$
+            CompletableFuture<Integer> result = pool.supply(() -> Integer.valueOf(42));
+            CompletableFuture<Integer> failed = pool.supply(() -> {
+                throw new IOException("task failed"); //$NON-NLS-1$
+            });
+            assertEquals(Integer.valueOf(42), result.get());
+            try {
+                failed.get();
+                fail("Exception expected"); //$NON-NLS-1$
+            } catch (ExecutionException e) {
+                assertEquals("task failed", e.getCause().getMessage()); //$NON-NLS-1$
+            }
+            // the failure of a supplied task does not stop the pool
+            pool.awaitCompletion();
+        }
+    }
+
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2016 Polarion AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.siemens.polarion.anonymizer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+public class XmlCodecTests {
+
+    @Test
+    public void specialCharactersAreWrittenAsByTransformer() throws Exception {
+        Document doc = XmlCodec.newDocument();
+        doc.appendChild(doc.createComment(" comment ")); //$NON-NLS-1$
+        Element root = doc.createElement("root"); //$NON-NLS-1$
+        doc.appendChild(root);
+        String special = "q\"<>&'\n\r\t\u2028\u0085\u007f\u00a0\u00e9\ud83d\ude00\u0001]]>"; //$NON-NLS-1$
+        root.setAttribute("b", special); //$NON-NLS-1$
+        root.setAttribute("a", "1"); //$NON-NLS-1$ //$NON-NLS-2$
+        root.appendChild(doc.createTextNode(special));
+        root.appendChild(doc.createCDATASection("x]]>y")); //$NON-NLS-1$
+        root.appendChild(doc.createProcessingInstruction("pi", "data")); //$NON-NLS-1$ //$NON-NLS-2$
+        root.appendChild(doc.createElement("empty")); //$NON-NLS-1$
+        assertEquals(writeWithTransformer(doc), writeWithCodec(doc));
+    }
+
+    @Test
+    public void resourcesAreWrittenAsByTransformer() throws Exception {
+        for (String resource : new String[] { "/comment.xml", "/attachment.xml" }) { //$NON-NLS-1$ //$NON-NLS-2$
+            URL url = this.getClass().getResource(resource);
+            Document doc = XmlCodec.parse(new File(url.getFile()));
+            assertEquals(writeWithTransformer(doc), writeWithCodec(doc));
+        }
+    }
+
+    @Test
+    public void largeDocumentIsWrittenAsByTransformer() throws Exception {
+        Document doc = XmlCodec.newDocument();
+        Element root = doc.createElement("module"); //$NON-NLS-1$
+        doc.appendChild(root);
+        for (int i = 0; i < 5000; i++) {
+            Element field = doc.createElement("field"); //$NON-NLS-1$
+            field.setAttribute("id", "f" + i); //$NON-NLS-1$ //$NON-NLS-2$
+            field.setTextContent("\u00c4rger &lt;p&gt; \u4e2d\u6587 \ud83d\ude00 " + i); //$NON-NLS-1$
+            root.appendChild(field);
+        }
+        assertEquals(writeWithTransformer(doc), writeWithCodec(doc));
+    }
+
+    @Test
+    public void parserIsReusedPerThread() throws Exception {
+        Document doc1 = XmlCodec.newDocument();
+        Document doc2 = XmlCodec.newDocument();
+        assertNotSame(doc1, doc2);
+        assertSame(doc1.getImplementation(), doc2.getImplementation());
+        AtomicReference<Document> otherThreadDoc = new AtomicReference<Document>();
+        Thread thread = new Thread(() -> {
+            try {
+                otherThreadDoc.set(XmlCodec.newDocument());
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        thread.start();
+        thread.join();
+        assertNotSame(doc1, otherThreadDoc.get());
+    }
+
+    @NotNull
+    private static String writeWithCodec(@NotNull Document doc) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        XmlCodec.write(doc, out);
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    @NotNull
+    private static String writeWithTransformer(@NotNull Document doc) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+        writer.write(XmlCodec.XML_DECLARATION);
+        Transformer transformer = TransformerFactory.newInstance().newTransformer();
+        transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes"); //$NON-NLS-1$
+        transformer.transform(new DOMSource(doc), new StreamResult(writer));
+        writer.flush();
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2016 Polarion AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.siemens.polarion.anonymizer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.w3c.dom.Document;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+public class XmlStreamAnonymizerTests {
+
+    @NotNull
+    private static final String WORKITEM_XML = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>\n" //$NON-NLS-1$
+            + "<work-item>\n" //$NON-NLS-1$
+            + "    <!-- exported -->\n" //$NON-NLS-1$
+            + "    <field id=\"author\">AUTHOR</field>\n" //$NON-NLS-1$
+            + "    <field id=\"created\">2015-01-01 12:34:56.306 -0500</field>\n" //$NON-NLS-1$
+            + "    <field id=\"title\">TITLE of item</field>\n" //$NON-NLS-1$
+            + "    <field id=\"description\" text-type=\"text/html\">&lt;p&gt;DESCRIPTION 42&lt;/p&gt;&lt;img src=\"workitemimg:1-IMAGE.png\" alt=\"ALTERNATIVE\"/&gt;</field>\n" //$NON-NLS-1$
+            + "    <field id=\"note\" text-type=\"text/plain\">NOTE</field>\n" //$NON-NLS-1$
+            + "    <field id=\"cost\" type=\"currency\">12.50</field>\n" //$NON-NLS-1$
+            + "    <field id=\"owner\" type=\"enum:@user\">OWNER</field>\n" //$NON-NLS-1$
+            + "    <field id=\"empty\" type=\"string\"/>\n" //$NON-NLS-1$
+            + "    <field id=\"assignee\"><list><item>ASSIGNEE1</item><item>ASSIGNEE2</item></list></field>\n" //$NON-NLS-1$
+            + "    <comments><list><item text-type=\"text/html\">&lt;b&gt;COMMENT&lt;/b&gt;</item></list></comments>\n" //$NON-NLS-1$
+            + "    <links><link role=\"parent\">KEPT-1</link></links>\n" //$NON-NLS-1$
+            + "</work-item>\n"; //$NON-NLS-1$
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void streamingOutputIsEquivalentToDomOutput() throws Exception {
+        File domOutput = anonymize(false);
+        File streamOutput = anonymize(true);
+        Document domDoc = parse(domOutput);
+        Document streamDoc = parse(streamOutput);
+        assertEquivalent(domDoc.getDocumentElement(), streamDoc.getDocumentElement());
+
+        String streamContent = new String(Files.readAllBytes(streamOutput.toPath()), StandardCharsets.UTF_8);
+        assertTrue(streamContent.startsWith("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>")); //$NON-NLS-1$
+        for (String sensitive : new String[] { "AUTHOR", "TITLE", "DESCRIPTION", "ALTERNATIVE", "NOTE", "OWNER", "ASSIGNEE", "COMMENT", "IMAGE" }) { //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$ //$NON-NLS-7$ //$NON-NLS-8$ //$NON-NLS-9$
+            assertFalse(sensitive, streamContent.contains(sensitive));
+        }
+        assertTrue(streamContent.contains("KEPT-1")); //$NON-NLS-1$
+        assertTrue(streamContent.contains("workitemimg:1-")); //$NON-NLS-1$
+    }
+
+    @NotNull
+    private File anonymize(boolean streaming) throws Exception {
+        File documentDirectory = tempFolder.newFolder(streaming ? "streaming" : "dom"); //$NON-NLS-1$ //$NON-NLS-2$
+        File inputFile = new File(documentDirectory, "workitems/WI-1/workitem.xml"); //$NON-NLS-1$
+        inputFile.getParentFile().mkdirs();
+        Files.write(inputFile.toPath(), WORKITEM_XML.getBytes(StandardCharsets.UTF_8));
+        Anonymizer anonymizer = new Anonymizer(documentDirectory.getAbsolutePath(), false, 1, streaming);
+        anonymizer.anonymizeAndMoveXML(inputFile, documentDirectory.getAbsolutePath());
+        File outputFile = new File(documentDirectory.getAbsolutePath() + Anonymizer.anonymizedSuffix + "/workitems/WI-1/workitem.xml"); //$NON-NLS-1$
+        assertTrue(outputFile.exists());
+        return outputFile;
+    }
+
+    @NotNull
+    private static Document parse(@NotNull File file) throws Exception {
+        Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(file);
+        doc.getDocumentElement().normalize();
+        return doc;
+    }
+
+    // randomized text keeps its length and all characters which are not letters or digits
+    private static void assertEquivalent(@NotNull Node expected, @NotNull Node actual) {
+        assertEquals(expected.getNodeType(), actual.getNodeType());
+        assertEquals(expected.getNodeName(), actual.getNodeName());
+        if (expected.getNodeType() == Node.TEXT_NODE || expected.getNodeType() == Node.CDATA_SECTION_NODE || expected.getNodeType() == Node.COMMENT_NODE) {
+            String expectedValue = expected.getNodeValue();
+            String actualValue = actual.getNodeValue();
+            assertEquals(expectedValue.length(), actualValue.length());
+            for (int i = 0; i < expectedValue.length(); i++) {
+                char expectedChar = expectedValue.charAt(i);
+                char actualChar = actualValue.charAt(i);
+                if (Character.isLetterOrDigit(expectedChar)) {
+                    assertTrue(Character.isLetterOrDigit(actualChar));
+                } else {
+                    assertEquals(expectedChar, actualChar);
+                }
+            }
+            return;
+        }
+        NamedNodeMap expectedAttributes = expected.getAttributes();
+        NamedNodeMap actualAttributes = actual.getAttributes();
+        if (expectedAttributes != null) {
+            assertEquals(expectedAttributes.getLength(), actualAttributes.getLength());
+            for (int i = 0; i < expectedAttributes.getLength(); i++) {
+                Node attribute = expectedAttributes.item(i);
+                assertEquals(attribute.getNodeValue(), actualAttributes.getNamedItem(attribute.getNodeName()).getNodeValue());
+            }
+        }
+        Node expectedChild = expected.getFirstChild();
+        Node actualChild = actual.getFirstChild();
+        while (expectedChild != null && actualChild != null) {
+            assertEquivalent(expectedChild, actualChild);
+            expectedChild = expectedChild.getNextSibling();
+            actualChild = actualChild.getNextSibling();
+        }
+        assertEquals(expectedChild == null, actualChild == null);
+    }
+
+}
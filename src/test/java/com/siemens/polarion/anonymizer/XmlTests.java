@@ -15,6 +15,7 @@
  */
 package com.siemens.polarion.anonymizer;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
@@ -25,19 +26,24 @@ import java.net.URL;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 
+import org.jetbrains.annotations.NotNull;
 import org.junit.BeforeClass;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
-import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
 import org.xml.sax.InputSource;
 
 public class XmlTests {
 
     private static DocumentBuilder dBuilder;
-    private Element element;
     private static Anonymizer anonymizer;
 
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
     @BeforeClass
     public static void initializeRandomization() throws Exception {
         anonymizer = new Anonymizer("C", false); //$NON-NLS-1$
@@ -48,10 +54,7 @@ public class XmlTests {
     @Test
     public void randomizeAuthorFieldTest() throws Exception {
         String xml = "<module-comment><field id=\"author\">AUTHOR</field></module-comment>"; //$NON-NLS-1$
-        Document doc = dBuilder.parse(new InputSource(new StringReader(xml)));
-        Node node = doc.getElementsByTagName("field").item(0); //$NON-NLS-1$
-        element = (Element) node;
-        anonymizer.randomizeAuthorTitleAssigneeFields(element);
+        Element element = anonymizeField(xml);
 
         assertFalse("AUTHOR".equals(element.getChildNodes().item(0).getNodeValue())); //$NON-NLS-1$
     }
@@ -59,10 +62,7 @@ public class XmlTests {
     @Test
     public void randomizeTitleFieldTest() throws Exception {
         String xml = "<module-comment><field id=\"title\">TITLE</field></module-comment>"; //$NON-NLS-1$
-        Document doc = dBuilder.parse(new InputSource(new StringReader(xml)));
-        Node node = doc.getElementsByTagName("field").item(0); //$NON-NLS-1$
-        element = (Element) node;
-        anonymizer.randomizeAuthorTitleAssigneeFields(element);
+        Element element = anonymizeField(xml);
 
         assertFalse("TITLE".equals(element.getChildNodes().item(0).getNodeValue())); //$NON-NLS-1$
     }
@@ -70,10 +70,7 @@ public class XmlTests {
     @Test
     public void randomizeAssigneeFieldTest() throws Exception {
         String xml = "<module-comment><field id=\"assignee\">ASSIGNEE</field></module-comment>"; //$NON-NLS-1$
-        Document doc = dBuilder.parse(new InputSource(new StringReader(xml)));
-        Node node = doc.getElementsByTagName("field").item(0); //$NON-NLS-1$
-        element = (Element) node;
-        anonymizer.randomizeAuthorTitleAssigneeFields(element);
+        Element element = anonymizeField(xml);
 
         assertFalse("ASSIGNEE".equals(element.getChildNodes().item(0).getNodeValue())); //$NON-NLS-1$
     }
@@ -81,70 +78,49 @@ public class XmlTests {
     @Test
     public void randomizeHtmlFieldTest() throws Exception {
         String xml = "<module><field id=\"homePageContent\" text-type=\"text/html\">&lt;h1 id=\"polarion_wiki macro name=module-workitem;params=id=2_AN-7846\"&gt;&lt;/h1&gt;&lt;p id=\"polarion_template_0\"&gt;TEST&lt;/p&gt;</field>  </module>"; //$NON-NLS-1$
-        Document doc = dBuilder.parse(new InputSource(new StringReader(xml)));
-        Node node = doc.getElementsByTagName("field").item(0); //$NON-NLS-1$
-        element = (Element) node;
-        anonymizer.randomizeHtmlFields(element);
+        Element element = anonymizeField(xml);
         assertFalse((element.getChildNodes().item(0).getNodeValue()).contains("TEST")); //$NON-NLS-1$
     }
 
     @Test
     public void randomizeOtherTextFieldTest() throws Exception {
         String xml = "<module><field id=\"homePageContent\" text-type=\"qqqqq\">TestField</field></module>"; //$NON-NLS-1$
-        Document doc = dBuilder.parse(new InputSource(new StringReader(xml)));
-        Node node = doc.getElementsByTagName("field").item(0); //$NON-NLS-1$
-        element = (Element) node;
-        anonymizer.randomizeOtherTextFields(element);
+        Element element = anonymizeField(xml);
         assertFalse("TestField".equals(element.getChildNodes().item(0).getNodeValue())); //$NON-NLS-1$
     }
 
     @Test
     public void randomizeTextFieldTest() throws Exception {
         String xml = "<module><field type=\"text\">TestField</field></module>"; //$NON-NLS-1$
-        Document doc = dBuilder.parse(new InputSource(new StringReader(xml)));
-        Node node = doc.getElementsByTagName("field").item(0); //$NON-NLS-1$
-        element = (Element) node;
-        anonymizer.randomizeTextStringIntegerFloatCurrencyFields(element);
+        Element element = anonymizeField(xml);
         assertFalse("TestField".equals(element.getChildNodes().item(0).getNodeValue())); //$NON-NLS-1$
     }
 
     @Test
     public void randomizeStringFieldTest() throws Exception {
         String xml = "<module><field type=\"string\">TestField</field></module>"; //$NON-NLS-1$
-        Document doc = dBuilder.parse(new InputSource(new StringReader(xml)));
-        Node node = doc.getElementsByTagName("field").item(0); //$NON-NLS-1$
-        element = (Element) node;
-        anonymizer.randomizeTextStringIntegerFloatCurrencyFields(element);
+        Element element = anonymizeField(xml);
         assertFalse("TestField".equals(element.getChildNodes().item(0).getNodeValue())); //$NON-NLS-1$
     }
 
     @Test
     public void randomizeIntegerFieldTest() throws Exception {
         String xml = "<module><field type=\"integer\">TestField</field></module>"; //$NON-NLS-1$
-        Document doc = dBuilder.parse(new InputSource(new StringReader(xml)));
-        Node node = doc.getElementsByTagName("field").item(0); //$NON-NLS-1$
-        element = (Element) node;
-        anonymizer.randomizeTextStringIntegerFloatCurrencyFields(element);
+        Element element = anonymizeField(xml);
         assertFalse("TestField".equals(element.getChildNodes().item(0).getNodeValue())); //$NON-NLS-1$
     }
 
     @Test
     public void randomizeCurrencyFieldTest() throws Exception {
         String xml = "<module><field type=\"currency\">TestField</field></module>"; //$NON-NLS-1$
-        Document doc = dBuilder.parse(new InputSource(new StringReader(xml)));
-        Node node = doc.getElementsByTagName("field").item(0); //$NON-NLS-1$
-        element = (Element) node;
-        anonymizer.randomizeTextStringIntegerFloatCurrencyFields(element);
+        Element element = anonymizeField(xml);
         assertFalse("TestField".equals(element.getChildNodes().item(0).getNodeValue())); //$NON-NLS-1$
     }
 
     @Test
     public void randomizeEnumFieldTest() throws Exception {
         String xml = "<module><field id=\"owner\" type=\"enum:@user\">TestField</field></module>"; //$NON-NLS-1$
-        Document doc = dBuilder.parse(new InputSource(new StringReader(xml)));
-        Node node = doc.getElementsByTagName("field").item(0); //$NON-NLS-1$
-        element = (Element) node;
-        anonymizer.randomizeEnumFields(element);
+        Element element = anonymizeField(xml);
         assertFalse("TestField".equals(element.getChildNodes().item(0).getNodeValue())); //$NON-NLS-1$
     }
 
@@ -159,13 +135,35 @@ public class XmlTests {
                 + "</list>" //$NON-NLS-1$
                 + "</field>" //$NON-NLS-1$
                 + "</module>"; //$NON-NLS-1$
-        Document doc = dBuilder.parse(new InputSource(new StringReader(xml)));
-        Node node = doc.getElementsByTagName("field").item(0); //$NON-NLS-1$
-        element = (Element) node;
-        anonymizer.randomizeAuthorTitleAssigneeFields(element);
+        Element element = anonymizeField(xml);
         assertFalse(element.getTextContent().contains("ASSIGNEE")); //$NON-NLS-1$
     }
 
+    @Test
+    public void repeatedValuesAreNotLinkedByDefault() throws Exception {
+        Document doc = anonymize(anonymizer, "<module><field id=\"author\">jdoe</field><field id=\"author\">jdoe</field></module>"); //$NON-NLS-1$
+        NodeList fields = doc.getElementsByTagName("field"); //$NON-NLS-1$
+        assertFalse(fields.item(0).getTextContent().equals(fields.item(1).getTextContent()));
+    }
+
+    @Test
+    public void repeatedValuesGetSamePseudonym() throws Exception {
+        // the values are linked only when the cache is asked for
+        Anonymizer anonymizer = new Anonymizer(new AnonymizerParams(new String[] { "--pseudonym-cache", "1000", "C" })); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        String xml = "<module>" //$NON-NLS-1$
+                + "<field id=\"assignee\"><list><item>jdoe</item><item>asmith</item><item>jdoe</item></list></field>" //$NON-NLS-1$
+                + "<field id=\"author\">jdoe</field>" //$NON-NLS-1$
+                + "<field id=\"author\">jdoe</field>" //$NON-NLS-1$
+                + "</module>"; //$NON-NLS-1$
+        Document doc = anonymize(anonymizer, xml);
+        NodeList fields = doc.getElementsByTagName("field"); //$NON-NLS-1$
+        NodeList items = doc.getElementsByTagName("item"); //$NON-NLS-1$
+        assertEquals(items.item(0).getTextContent(), items.item(2).getTextContent());
+        assertFalse(items.item(0).getTextContent().equals(items.item(1).getTextContent()));
+        assertFalse("jdoe".equals(fields.item(1).getTextContent())); //$NON-NLS-1$
+        assertEquals(fields.item(1).getTextContent(), fields.item(2).getTextContent());
+    }
+
     @Test
     public void randomizeMultiFieldWithRichText() throws Exception {
         String xml = "<module>" //$NON-NLS-1$
@@ -176,10 +174,7 @@ public class XmlTests {
                 + "</list>" //$NON-NLS-1$
                 + "</field>" //$NON-NLS-1$
                 + "</module>"; //$NON-NLS-1$
-        Document doc = dBuilder.parse(new InputSource(new StringReader(xml)));
-        Node node = doc.getElementsByTagName("field").item(0); //$NON-NLS-1$
-        element = (Element) node;
-        anonymizer.randomizeHtmlFields(element);
+        Element element = anonymizeField(xml);
         assertFalse(element.getTextContent().contains("TEST")); //$NON-NLS-1$
     }
 
@@ -188,12 +183,58 @@ public class XmlTests {
         URL url = this.getClass().getResource("/attachment.xml"); //$NON-NLS-1$
         File testFile = new File(url.getFile());
         Document doc = dBuilder.parse(testFile);
-        Node node = doc.getElementsByTagName("field").item(0); //$NON-NLS-1$
-        element = (Element) node;
+        Element element = (Element) doc.getElementsByTagName("field").item(0); //$NON-NLS-1$
         String documentDirectory = testFile.getAbsolutePath().substring(0, testFile.getAbsolutePath().length() - testFile.getName().length() - 1);
-        anonymizer.randomizeXmlAttachment(testFile, documentDirectory, doc);
+        anonymizer.anonymizeTree(testFile, documentDirectory, doc.getDocumentElement());
         assertFalse(element.getChildNodes().item(0).getNodeValue().contains("TEST")); //$NON-NLS-1$
         assertTrue(element.getChildNodes().item(0).getNodeValue().contains("workitemimg:1")); //$NON-NLS-1$
     }
 
+    @Test
+    public void anonymizeTreeAppliesAllRulesInOneWalk() throws Exception {
+        String xml = "<work-item>" //$NON-NLS-1$
+                + "<field id=\"author\">AUTHOR</field>" //$NON-NLS-1$
+                + "<field id=\"status\">KEPTSTATUS</field>" //$NON-NLS-1$
+                + "<field id=\"assignee\"><list><item>ASSIGNEE1</item><item>ASSIGNEE2</item></list></field>" //$NON-NLS-1$
+                + "<field id=\"description\" text-type=\"text/html\">&lt;p&gt;DESCRIPTION&lt;/p&gt;&lt;img src=\"workitemimg:1-IMAGE.png\"/&gt;</field>" //$NON-NLS-1$
+                + "<field id=\"custom\" type=\"enum:@user\">OWNER</field>" //$NON-NLS-1$
+                + "<comments><item text-type=\"text/html\">&lt;b&gt;COMMENT&lt;/b&gt;</item><item>KEPTITEM</item></comments>" //$NON-NLS-1$
+                + "</work-item>"; //$NON-NLS-1$
+        Document doc = dBuilder.parse(new InputSource(new StringReader(xml)));
+        // the referenced picture does not exist, only its output directory is created in the document directory
+        File documentDirectory = tempFolder.newFolder("document"); //$NON-NLS-1$
+        anonymizer.anonymizeTree(new File(documentDirectory, "workitems/WI-1/workitem.xml"), documentDirectory.getPath(), doc.getDocumentElement()); //$NON-NLS-1$
+        String text = doc.getDocumentElement().getTextContent();
+        for (String sensitive : new String[] { "AUTHOR", "ASSIGNEE", "DESCRIPTION", "IMAGE", "OWNER", "COMMENT" }) { //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$
+            assertFalse(sensitive, text.contains(sensitive));
+        }
+        assertTrue(text.contains("KEPTSTATUS")); //$NON-NLS-1$
+        assertTrue(text.contains("KEPTITEM")); //$NON-NLS-1$
+        assertTrue(text.contains("workitemimg:1-")); //$NON-NLS-1$
+        assertEquals(4, doc.getElementsByTagName("item").getLength()); //$NON-NLS-1$
+    }
+
+    @Test
+    public void anonymizeTreeWithRichTextList() throws Exception {
+        String xml = "<module>" //$NON-NLS-1$
+                + "<field text-type=\"text/html\"><list><item>&lt;p&gt;TEST1&lt;/p&gt;</item><item>&lt;p&gt;TEST2&lt;/p&gt;</item></list></field>" //$NON-NLS-1$
+                + "</module>"; //$NON-NLS-1$
+        Document doc = anonymize(anonymizer, xml);
+        assertFalse(doc.getDocumentElement().getTextContent().contains("TEST")); //$NON-NLS-1$
+        assertTrue(doc.getDocumentElement().getTextContent().startsWith("<p>")); //$NON-NLS-1$
+    }
+
+    @NotNull
+    private Element anonymizeField(@NotNull String xml) throws Exception {
+        return (Element) anonymize(anonymizer, xml).getElementsByTagName("field").item(0); //$NON-NLS-1$
+    }
+
+    @NotNull
+    private Document anonymize(@NotNull Anonymizer anonymizer, @NotNull String xml) throws Exception {
+        Document doc = dBuilder.parse(new InputSource(new StringReader(xml)));
+        File documentDirectory = tempFolder.getRoot();
+        anonymizer.anonymizeTree(new File(documentDirectory, "module.xml"), documentDirectory.getPath(), doc.getDocumentElement()); //$NON-NLS-1$
+        return doc;
+    }
+
 }